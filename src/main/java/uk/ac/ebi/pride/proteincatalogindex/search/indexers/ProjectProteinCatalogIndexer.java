@@ -4,8 +4,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.ac.ebi.pride.jmztab.model.MZTabFile;
 import uk.ac.ebi.pride.proteincatalogindex.search.model.ProteinIdentified;
+import uk.ac.ebi.pride.proteincatalogindex.search.model.ProteinIdentifiedFields;
 import uk.ac.ebi.pride.proteincatalogindex.search.service.ProteinCatalogIndexService;
 import uk.ac.ebi.pride.proteincatalogindex.search.service.ProteinCatalogSearchService;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.OffHeapAccessionSet;
 import uk.ac.ebi.pride.proteincatalogindex.search.util.ProteinBuilder;
 
 import java.util.*;
@@ -13,15 +15,27 @@ import java.util.*;
 /**
  * @author Jose A. Dianes
  * @version $Id$
+ *
+ * Note: an instance can be shared by several threads indexing different projects. Two threads finding the same new
+ * accession at the same time will both save it, which just rewrites the same document.
  */
 public class ProjectProteinCatalogIndexer {
 
     private static Logger logger = LoggerFactory.getLogger(ProjectProteinCatalogIndexer.class.getName());
 
+    // kept below the default Solr maxBooleanClauses (1024)
+    private static final int MAX_ACCESSIONS_PER_EXISTENCE_QUERY = 500;
+    private static final int NUM_ACCESSIONS_PER_LOADING_PAGE = 10000;
+
     private ProteinCatalogSearchService proteinCatalogSearchService;
 
     private ProteinCatalogIndexService proteinCatalogIndexService;
 
+    // optional in-memory view of the accessions already in the catalog
+    private OffHeapAccessionSet indexedAccessions;
+    // true if indexedAccessions holds every accession in the catalog, so accessions not in it are known to be new
+    private boolean indexedAccessionsComplete;
+
     public ProjectProteinCatalogIndexer(ProteinCatalogSearchService proteinCatalogSearchService, ProteinCatalogIndexService proteinCatalogIndexService) {
         this.proteinCatalogSearchService = proteinCatalogSearchService;
         this.proteinCatalogIndexService = proteinCatalogIndexService;
@@ -43,50 +57,196 @@ public class ProjectProteinCatalogIndexer {
 //
 //    }
 
+    /**
+     * Streams all the accessions in the catalog into the given set, that will be used from then on to answer existence
+     * checks without querying the catalog. The set is kept up to date with the proteins saved by this indexer.
+     *
+     * @param indexedAccessions the set to load the catalog accessions into
+     */
+    public void loadIndexedAccessions(OffHeapAccessionSet indexedAccessions) {
+        long startTime = System.currentTimeMillis();
+        logger.info("Loading accessions from the catalog into memory...");
+
+        String lastAccession = null;
+        List<ProteinIdentified> proteins =
+                proteinCatalogSearchService.findAllAfterAccession(lastAccession, NUM_ACCESSIONS_PER_LOADING_PAGE, ProteinIdentifiedFields.ACCESSION);
+        while (proteins != null && proteins.size() > 0 && !indexedAccessions.isSaturated()) {
+            for (ProteinIdentified protein : proteins) {
+                indexedAccessions.add(protein.getAccession());
+            }
+            lastAccession = proteins.get(proteins.size() - 1).getAccession();
+            proteins = proteinCatalogSearchService.findAllAfterAccession(lastAccession, NUM_ACCESSIONS_PER_LOADING_PAGE, ProteinIdentifiedFields.ACCESSION);
+        }
+
+        this.indexedAccessions = indexedAccessions;
+        this.indexedAccessionsComplete = !indexedAccessions.isSaturated();
+
+        long endTime = System.currentTimeMillis();
+        logger.info("Loaded " + indexedAccessions + " in " + (double)(endTime-startTime)/1000.0 + " seconds");
+        if (!indexedAccessionsComplete) {
+            logger.warn("Not all catalog accessions fit in memory. Accessions not found in memory will be checked against the catalog");
+        }
+    }
+
     public void indexAllProteinIdentificationsForProjectAndAssay(String projectAccession, String assayAccession, MZTabFile mzTabFile) {
 
         List<ProteinIdentified> proteinsIdentified = ProteinBuilder.readProteinIdentificationsFromMzTabFile(assayAccession, mzTabFile);
 
-        Map<String, ProteinIdentified> proteinIdentificationsToIndex = new HashMap<String, ProteinIdentified>();
+        List<ProteinIdentified> proteinIdentificationsToIndex = findProteinsNotInCatalog(projectAccession, assayAccession, proteinsIdentified);
 
+        // save all proteins
+        long startTime2 = System.currentTimeMillis();
+        saveProteins(proteinIdentificationsToIndex);
+        long endTime2 = System.currentTimeMillis();
+        logger.debug("COMMITTED " + proteinIdentificationsToIndex.size() +
+                " proteins from PROJECT:" + projectAccession +
+                " ASSAY:" + assayAccession +
+                " in " + (double)(endTime2-startTime2)/1000.0 + " seconds");
+
+    }
+
+    /**
+     * Removes duplicated accessions from the list and returns only those proteins that are not in the catalog yet
+     *
+     * @param projectAccession the project the proteins come from (for logging)
+     * @param assayAccession the assay the proteins come from (for logging)
+     * @param proteinsIdentified the proteins found in the assay
+     * @return the new proteins, one per accession
+     */
+    public List<ProteinIdentified> findProteinsNotInCatalog(String projectAccession, String assayAccession, List<ProteinIdentified> proteinsIdentified) {
+
+        // remove duplicated accessions within the assay, keeping the first occurrence
+        Map<String, ProteinIdentified> distinctProteinsIdentified = new LinkedHashMap<String, ProteinIdentified>();
         for (ProteinIdentified proteinIdentified : proteinsIdentified) {
-            logger.debug("Trying to index protein " + proteinIdentified.getAccession());
-            try {
-                List<ProteinIdentified> proteinIdentificationsFromIndex =
-                        proteinCatalogSearchService.findByAccession(
-                                proteinIdentified.getAccession()
-                        );
-
-                // if it is a new protein...
-                if ( proteinIdentificationsFromIndex == null || proteinIdentificationsFromIndex.size()==0 ) {
-                    // add to save
-                    proteinIdentificationsToIndex.put(proteinIdentified.getAccession(), proteinIdentified);
-
-                    logger.debug(
-                            "ADDED protein " + proteinIdentified.getAccession() +
-                                    " from PROJECT:" + projectAccession +
-                                    " ASSAY:" + assayAccession
-                    );
+            if (!distinctProteinsIdentified.containsKey(proteinIdentified.getAccession())) {
+                distinctProteinsIdentified.put(proteinIdentified.getAccession(), proteinIdentified);
+            }
+        }
+
+        // check which ones are new to the catalog, in memory if possible and in batches otherwise
+        Set<String> newAccessions = findAccessionsNotInCatalog(projectAccession, assayAccession, proteinsIdentified.size(), distinctProteinsIdentified.keySet());
+
+        List<ProteinIdentified> res = new ArrayList<ProteinIdentified>(newAccessions.size());
+        for (String newAccession : newAccessions) {
+            res.add(distinctProteinsIdentified.get(newAccession));
+            logger.debug(
+                    "ADDED protein " + newAccession +
+                            " from PROJECT:" + projectAccession +
+                            " ASSAY:" + assayAccession
+            );
+        }
+
+        return res;
+    }
+
+    /**
+     * Saves the proteins into the catalog, and keeps track of them in the in-memory set of indexed accessions if any,
+     * once they have been sent (buffered saves are sent later)
+     *
+     * @return true if the proteins were saved, or buffered to be saved
+     */
+    public boolean saveProteins(Collection<ProteinIdentified> proteins) {
+        if (indexedAccessions == null) {
+            return proteinCatalogIndexService.save(proteins);
+        }
+        // only marked as indexed once they have reached the catalog
+        return proteinCatalogIndexService.save(proteins, new ProteinCatalogIndexService.SaveListener() {
+            @Override
+            public void saved(Collection<ProteinIdentified> savedProteins) {
+                for (ProteinIdentified protein : savedProteins) {
+                    indexedAccessions.add(protein.getAccession());
+                }
+            }
+        });
+    }
+
+    /**
+     * Checks the catalog for the given accessions using one query per batch of accessions, instead of one per
+     * accession. Only the ids of the existing documents are retrieved. If the in-memory set of indexed accessions is
+     * available, accessions found in it are not checked against the catalog (nor are the rest if the set is complete).
+     *
+     * @return the accessions that are not in the catalog yet, in the same order they were given. If a batch cannot
+     * be checked, its accessions are checked one by one. Those that still cannot be checked are logged and left out
+     * (they will be picked up by a later run)
+     */
+    private Set<String> findAccessionsNotInCatalog(String projectAccession, String assayAccession, int numProteins, Collection<String> accessions) {
+        Set<String> res = new LinkedHashSet<String>();
+
+        List<String> accessionList = new ArrayList<String>();
+        int numFoundInMemory = 0;
+        if (indexedAccessions != null) {
+            boolean canTrustMisses = indexedAccessionsComplete && !indexedAccessions.isSaturated();
+            for (String accession : accessions) {
+                if (indexedAccessions.contains(accession)) {
+                    numFoundInMemory++;
+                } else if (canTrustMisses) {
+                    res.add(accession);
+                } else {
+                    accessionList.add(accession);
                 }
+            }
+        } else {
+            accessionList.addAll(accessions);
+        }
+
+        for (int fromIndex = 0; fromIndex < accessionList.size(); fromIndex = fromIndex + MAX_ACCESSIONS_PER_EXISTENCE_QUERY) {
+            List<String> batch = accessionList.subList(fromIndex, Math.min(accessionList.size(), fromIndex + MAX_ACCESSIONS_PER_EXISTENCE_QUERY));
+            try {
+                addAccessionsNotInCatalog(batch, res);
             } catch (Exception e) {
-                logger.error("Protein identification " + proteinIdentified.getAccession() + " caused an error");
+                logger.error("Protein identifications from " + batch.get(0) + " to " + batch.get(batch.size() - 1) + " caused an error, checking them one by one");
                 logger.error("ASSAY " + assayAccession);
                 logger.error("PROJECT " + projectAccession);
                 e.printStackTrace();
+                // so a single problematic accession does not leave out the whole batch
+                List<String> droppedAccessions = new ArrayList<String>();
+                for (String accession : batch) {
+                    try {
+                        addAccessionsNotInCatalog(Collections.singletonList(accession), res);
+                    } catch (Exception accessionException) {
+                        droppedAccessions.add(accession);
+                    }
+                }
+                if (droppedAccessions.size() > 0) {
+                    logger.error("Could not check " + droppedAccessions.size() + " accessions from PROJECT:" + projectAccession + " ASSAY:" + assayAccession
+                            + ", they are left out: " + droppedAccessions);
+                }
             }
         }
 
-        // save all proteins
-        long startTime2 = System.currentTimeMillis();
-        proteinCatalogIndexService.save(proteinIdentificationsToIndex.values());
-        long endTime2 = System.currentTimeMillis();
-        logger.debug("COMMITTED " + proteinIdentificationsToIndex.size() +
-                " proteins from PROJECT:" + projectAccession +
-                " ASSAY:" + assayAccession +
-                " in " + (double)(endTime2-startTime2)/1000.0 + " seconds");
+        int numLookups = numBatches(accessionList.size(), MAX_ACCESSIONS_PER_EXISTENCE_QUERY);
+        logger.info("Checked " + numProteins + " proteins (" + accessions.size() + " distinct, " + numFoundInMemory + " found in memory) from PROJECT:" + projectAccession +
+                " ASSAY:" + assayAccession + " in " + numLookups + " lookups (" + (numProteins - numLookups) + " lookups saved), " +
+                res.size() + " are new");
+
+        return res;
+    }
 
+    /**
+     * Looks up a batch of accessions in the catalog, adding the new ones to the result and the existing ones to the
+     * in-memory set of indexed accessions if any
+     */
+    private void addAccessionsNotInCatalog(List<String> batch, Set<String> res) {
+        Set<String> existingAccessions = new HashSet<String>();
+        List<ProteinIdentified> proteinIdentificationsFromIndex = proteinCatalogSearchService.findIdsByAccession(batch);
+        if (proteinIdentificationsFromIndex != null) {
+            for (ProteinIdentified proteinIdentified : proteinIdentificationsFromIndex) {
+                existingAccessions.add(proteinIdentified.getAccession());
+            }
+        }
+        for (String accession : batch) {
+            // the search service replaces problematic chars in the accession before querying
+            if (!existingAccessions.contains(accession) && !existingAccessions.contains(accession.replaceAll("[:\\]\\[]", "_"))) {
+                res.add(accession);
+            } else if (indexedAccessions != null) {
+                indexedAccessions.add(accession);
+            }
+        }
     }
 
+    private static int numBatches(int size, int batchSize) {
+        return (size + batchSize - 1) / batchSize;
+    }
 
     private static long getTotalProteinCount(Map<? extends String, ? extends Collection<? extends ProteinIdentified>> proteinIdentifications) {
         long res = 0;
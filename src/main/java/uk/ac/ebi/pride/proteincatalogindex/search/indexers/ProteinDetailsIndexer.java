@@ -2,13 +2,15 @@ package uk.ac.ebi.pride.proteincatalogindex.search.indexers;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
 import uk.ac.ebi.pride.proteincatalogindex.search.model.ProteinIdentified;
+import uk.ac.ebi.pride.proteincatalogindex.search.model.ProteinIdentifiedFields;
 import uk.ac.ebi.pride.proteincatalogindex.search.service.ProteinCatalogIndexService;
+import uk.ac.ebi.pride.proteincatalogindex.search.service.ProteinCatalogIterator;
 import uk.ac.ebi.pride.proteincatalogindex.search.service.ProteinCatalogSearchService;
+import uk.ac.ebi.pride.proteincatalogindex.search.mappings.ProteinAccessionMappings;
 import uk.ac.ebi.pride.proteincatalogindex.search.mappings.ProteinAccessionMappingsFinder;
 import uk.ac.ebi.pride.proteincatalogindex.search.util.ProteinBuilder;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.ProteinSequenceHash;
 
 import java.io.IOException;
 import java.util.*;
@@ -16,6 +18,13 @@ import java.util.*;
 /**
  * @author Jose A. Dianes
  * @version $Id$
+ *
+ * Whole-catalog scans go through the proteins in accession (id) order, asking each page for the proteins after the
+ * last accession of the previous one. Every page costs the same, and proteins updated during the scan are neither
+ * skipped nor visited again.
+ *
+ * Mappings and details are written as partial updates of the fields they change, once per protein and pass, and only
+ * for proteins that did change.
  */
 public class ProteinDetailsIndexer {
 
@@ -23,6 +32,17 @@ public class ProteinDetailsIndexer {
 
     private static final int NUM_PROTEINS_PER_PAGE = 1000;
 
+    private static final String[] MAPPING_FIELDS = {
+            ProteinIdentifiedFields.UNIPROT_MAPPING,
+            ProteinIdentifiedFields.ENSEMBL_MAPPING,
+            ProteinIdentifiedFields.OTHER_MAPPINGS
+    };
+    private static final String[] DETAIL_FIELDS = {
+            ProteinIdentifiedFields.INFERRED_SEQUENCE,
+            ProteinIdentifiedFields.INFERRED_SEQUENCE_HASH,
+            ProteinIdentifiedFields.DESCRIPTION
+    };
+
     private ProteinCatalogSearchService proteinCatalogSearchService;
 
     private ProteinCatalogIndexService proteinCatalogIndexService;
@@ -50,14 +70,21 @@ public class ProteinDetailsIndexer {
             logger.debug("Processing " + proteins.size() + " proteins");
             // get the accessions
             Set<String> accessions = getAccessionsAsSet(proteins);
-            // get the mappings
-            Map<String, String> uniprotMappings = getUniprotMappings(accessions);
-            Map<String, String> ensemblMappings = getEnsemblMappings(accessions);
-            Map<String, TreeSet<String>> otherMappings = getOtherMappings(accessions);
-            // add the mappings (and save)
-            addUniprotMappingsToProteinList(proteins, uniprotMappings);
-            addEnsemblMappingsToProteinList(proteins, ensemblMappings);
-            addOtherMappingsToProteinList(proteins, otherMappings);
+            // get all the mappings in one go
+            ProteinAccessionMappings mappings = getMappings(accessions);
+            if (mappings == null) {
+                return;
+            }
+            // add the mappings
+            Set<ProteinIdentified> changedProteins = Collections.newSetFromMap(new IdentityHashMap<ProteinIdentified, Boolean>());
+            changedProteins.addAll(addUniprotMappingsToProteinList(proteins, mappings.getUniprotMappings()));
+            changedProteins.addAll(addEnsemblMappingsToProteinList(proteins, mappings.getEnsemblMappings()));
+            changedProteins.addAll(addOtherMappingsToProteinList(proteins, mappings.getOtherMappings()));
+            // save the mapping fields of the changed proteins
+            logger.debug(changedProteins.size() + " of " + proteins.size() + " proteins have new mappings");
+            if (changedProteins.size() > 0) {
+                this.proteinCatalogIndexService.update(changedProteins, MAPPING_FIELDS);
+            }
         }
     }
 
@@ -66,20 +93,18 @@ public class ProteinDetailsIndexer {
      * potentially very time consuming for a large catalog
      */
     public void addMappingsToAllExistingProteins() {
-        int pageNumber = 0;
-        Page<ProteinIdentified> proteinPage =
-                this.proteinCatalogSearchService.findAll(new PageRequest(pageNumber, NUM_PROTEINS_PER_PAGE));
-        List<ProteinIdentified> proteins = proteinPage.getContent();
+        // only the mapping fields are compared and written, so nothing else is fetched
+        ProteinCatalogIterator proteinIterator = this.proteinCatalogSearchService.iterateAll(NUM_PROTEINS_PER_PAGE,
+                ProteinIdentifiedFields.ACCESSION, ProteinIdentifiedFields.UNIPROT_MAPPING,
+                ProteinIdentifiedFields.ENSEMBL_MAPPING, ProteinIdentifiedFields.OTHER_MAPPINGS);
+        List<ProteinIdentified> proteins = proteinIterator.nextPage();
 
-        while (proteins != null && proteins.size()>0) {
+        while (proteins.size()>0) {
 
             addMappingsToProteins(proteins);
 
             // Next page...
-            pageNumber++;
-            proteinPage =
-                    this.proteinCatalogSearchService.findAll(new PageRequest(pageNumber, NUM_PROTEINS_PER_PAGE));
-            proteins = proteinPage.getContent();
+            proteins = proteinIterator.nextPage();
 
         }
     }
@@ -90,11 +115,10 @@ public class ProteinDetailsIndexer {
      */
     public void addDetailsToProteinsWithNoDetails() {
         int pageNumber = 0;
-        Page<ProteinIdentified> proteinPage =
-                this.proteinCatalogSearchService.findAll(new PageRequest(pageNumber, NUM_PROTEINS_PER_PAGE));
-        List<ProteinIdentified> proteins = proteinPage.getContent();
+        ProteinCatalogIterator proteinIterator = this.proteinCatalogSearchService.iterateAll(NUM_PROTEINS_PER_PAGE);
+        List<ProteinIdentified> proteins = proteinIterator.nextPage();
 
-        while (proteins != null && proteins.size()>0) {
+        while (proteins.size()>0) {
 
             // PROCESS PAGE
             logger.debug("Processing " + proteins.size() + " proteins from index page number " + pageNumber);
@@ -107,14 +131,11 @@ public class ProteinDetailsIndexer {
             }
 
             // add the details & save
-            ProteinBuilder.addProteinDetails(proteinsToAddDetails);
-            this.proteinCatalogIndexService.save(proteinsToAddDetails);
+            addDetailsAndUpdate(proteinsToAddDetails);
 
             // GO TO NEXT PAGE
             pageNumber++;
-            proteinPage =
-                    this.proteinCatalogSearchService.findAll(new PageRequest(pageNumber, NUM_PROTEINS_PER_PAGE));
-            proteins = proteinPage.getContent();
+            proteins = proteinIterator.nextPage();
 
         }
     }
@@ -137,8 +158,7 @@ public class ProteinDetailsIndexer {
             }
 
             // add the details & save
-            ProteinBuilder.addProteinDetails(proteinsToAddDetails);
-            this.proteinCatalogIndexService.save(proteinsToAddDetails);
+            addDetailsAndUpdate(proteinsToAddDetails);
 
         }
     }
@@ -150,25 +170,51 @@ public class ProteinDetailsIndexer {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Adds the sequence hash to the proteins indexed before it was computed, or fixes it if it does not match the
+     * sequence. Only the sequence fields are fetched, and only the hash is written
+     *
+     * @return the number of proteins updated
+     */
+    public long addSequenceHashesToAllExistingProteins() {
+        long numUpdated = 0;
+        long numProteins = 0;
+        ProteinCatalogIterator proteinIterator = this.proteinCatalogSearchService.iterateAll(NUM_PROTEINS_PER_PAGE,
+                ProteinIdentifiedFields.ACCESSION, ProteinIdentifiedFields.INFERRED_SEQUENCE, ProteinIdentifiedFields.INFERRED_SEQUENCE_HASH);
+        List<ProteinIdentified> proteins = proteinIterator.nextPage();
 
+        while (proteins.size()>0) {
 
-    private Map<String, String> getUniprotMappings(Set<String> accessions) {
-        Map<String, String> mappings = null;
-        try {
-            // get the mappings
-            mappings = ProteinAccessionMappingsFinder.findProteinUniprotMappingsForAccession(accessions);
-        } catch (IOException e) {
-            logger.error("Cannot get mappings");
-            e.printStackTrace();
-        }
+            List<ProteinIdentified> changedProteins = new LinkedList<ProteinIdentified>();
+            for (ProteinIdentified protein: proteins) {
+                String sequenceHash = ProteinSequenceHash.hash(protein.getInferredSequence());
+                if (!equal(sequenceHash, protein.getInferredSequenceHash())) {
+                    protein.setInferredSequenceHash(sequenceHash);
+                    changedProteins.add(protein);
+                }
+            }
+            if (changedProteins.size() > 0) {
+                this.proteinCatalogIndexService.update(changedProteins, ProteinIdentifiedFields.INFERRED_SEQUENCE_HASH);
+            }
+            numUpdated = numUpdated + changedProteins.size();
+            numProteins = numProteins + proteins.size();
+            logger.debug("Added sequence hashes to " + numUpdated + " of " + numProteins + " proteins");
 
-        return mappings;
+            // Next page...
+            proteins = proteinIterator.nextPage();
+
+        }
+        logger.info("Added sequence hashes to " + numUpdated + " of " + numProteins + " proteins");
+        return numUpdated;
     }
-    private Map<String, String> getEnsemblMappings(Set<String> accessions) {
-        Map<String, String> mappings = null;
+
+
+
+    private ProteinAccessionMappings getMappings(Set<String> accessions) {
+        ProteinAccessionMappings mappings = null;
         try {
             // get the mappings
-            mappings = ProteinAccessionMappingsFinder.findProteinEnsemblMappingsForAccession(accessions);
+            mappings = ProteinAccessionMappingsFinder.findMappingsForAccessions(accessions);
         } catch (IOException e) {
             logger.error("Cannot get mappings");
             e.printStackTrace();
@@ -176,66 +222,105 @@ public class ProteinDetailsIndexer {
 
         return mappings;
     }
-    private Map<String, TreeSet<String>> getOtherMappings(Set<String> accessions) {
-        Map<String, TreeSet<String>> synonyms = null;
-        try {
-            // get the mappings
-            synonyms = ProteinAccessionMappingsFinder.findProteinOtherMappingsForAccession(accessions);
-        } catch (IOException e) {
-            logger.error("Cannot get mappings");
-            e.printStackTrace();
-        }
 
-        return synonyms;
+    /**
+     * Fetches the details of the proteins and saves the detail fields of those that got new ones
+     */
+    private void addDetailsAndUpdate(List<ProteinIdentified> proteins) {
+        if (proteins.size() > 0) {
+            Map<ProteinIdentified, String> previousSequences = new IdentityHashMap<ProteinIdentified, String>();
+            Map<ProteinIdentified, List<String>> previousDescriptions = new IdentityHashMap<ProteinIdentified, List<String>>();
+            for (ProteinIdentified protein: proteins) {
+                previousSequences.put(protein, protein.getInferredSequence());
+                // copied, in case the list is changed in place
+                previousDescriptions.put(protein, (protein.getDescription() != null) ? new ArrayList<String>(protein.getDescription()) : null);
+            }
+
+            ProteinBuilder.addProteinDetails(proteins);
+
+            List<ProteinIdentified> changedProteins = new LinkedList<ProteinIdentified>();
+            for (ProteinIdentified protein: proteins) {
+                if (!equal(previousSequences.get(protein), protein.getInferredSequence())
+                        || !equal(previousDescriptions.get(protein), protein.getDescription())) {
+                    changedProteins.add(protein);
+                }
+            }
+            logger.debug(changedProteins.size() + " of " + proteins.size() + " proteins have new details");
+            if (changedProteins.size() > 0) {
+                this.proteinCatalogIndexService.update(changedProteins, DETAIL_FIELDS);
+            }
+        }
     }
 
-    private void addUniprotMappingsToProteinList(List<ProteinIdentified> proteins, Map<String, String> mappings) {
+    /**
+     * @return the proteins whose mapping changed
+     */
+    private List<ProteinIdentified> addUniprotMappingsToProteinList(List<ProteinIdentified> proteins, Map<String, String> mappings) {
+        List<ProteinIdentified> changedProteins = new LinkedList<ProteinIdentified>();
         for (ProteinIdentified protein: proteins) {
             // add mapping
             if (mappings!= null && mappings.containsKey(protein.getAccession())) {
-                protein.setUniprotMapping(mappings.get(protein.getAccession()));
+                String mapping = mappings.get(protein.getAccession());
+                if (!equal(mapping, protein.getUniprotMapping())) {
+                    protein.setUniprotMapping(mapping);
+                    changedProteins.add(protein);
+                }
             }
 
             logger.debug("Protein " + protein.getAccession() + " updated with mapping " + protein.getUniprotMapping());
         }
 
-        // save
-        this.proteinCatalogIndexService.save(proteins);
-
+        return changedProteins;
     }
 
-    private void addEnsemblMappingsToProteinList(List<ProteinIdentified> proteins, Map<String, String> mappings) {
+    /**
+     * @return the proteins whose mapping changed
+     */
+    private List<ProteinIdentified> addEnsemblMappingsToProteinList(List<ProteinIdentified> proteins, Map<String, String> mappings) {
+        List<ProteinIdentified> changedProteins = new LinkedList<ProteinIdentified>();
         for (ProteinIdentified protein: proteins) {
             // add mapping
             if (mappings!= null && mappings.containsKey(protein.getAccession())) {
-                protein.setEnsemblMapping(mappings.get(protein.getAccession()));
+                String mapping = mappings.get(protein.getAccession());
+                if (!equal(mapping, protein.getEnsemblMapping())) {
+                    protein.setEnsemblMapping(mapping);
+                    changedProteins.add(protein);
+                }
             }
 
             logger.debug("Protein " + protein.getAccession() + " updated with mapping " + protein.getEnsemblMapping());
         }
 
-        // save
-        this.proteinCatalogIndexService.save(proteins);
-
+        return changedProteins;
     }
 
-    private void addOtherMappingsToProteinList(List<ProteinIdentified> proteins, Map<String, TreeSet<String>> mappings) {
+    /**
+     * @return the proteins whose mappings changed
+     */
+    private List<ProteinIdentified> addOtherMappingsToProteinList(List<ProteinIdentified> proteins, Map<String, TreeSet<String>> mappings) {
+        List<ProteinIdentified> changedProteins = new LinkedList<ProteinIdentified>();
         for (ProteinIdentified protein: proteins) {
             // init mappings if needed
             if (protein.getOtherMappings()== null)
                 protein.setOtherMappings(new TreeSet<String>());
             // add mappings
             if (mappings!= null && mappings.containsKey(protein.getAccession())) {
-                protein.setOtherMappings(mappings.get(protein.getAccession()));
+                TreeSet<String> proteinMappings = mappings.get(protein.getAccession());
+                if (!equal(proteinMappings, protein.getOtherMappings())) {
+                    protein.setOtherMappings(proteinMappings);
+                    changedProteins.add(protein);
+                }
             }
 //            // the protein ID is also added as a synonym, facilitating future searches
 //            protein.getOtherMappings().add(protein.getAccession());
             logger.debug("Protein " + protein.getAccession() + " updated with " + protein.getOtherMappings().size() + " mappings");
         }
 
-        // save
-        this.proteinCatalogIndexService.save(proteins);
+        return changedProteins;
+    }
 
+    private static boolean equal(Object value1, Object value2) {
+        return (value1 == null) ? value2 == null : value1.equals(value2);
     }
 
     private boolean isProteinMissingSomeDetail(ProteinIdentified protein) {
@@ -0,0 +1,408 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.indexers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.pride.jmztab.model.MZTabFile;
+import uk.ac.ebi.pride.jmztab.utils.MZTabFileParser;
+import uk.ac.ebi.pride.proteincatalogindex.search.model.ProteinIdentified;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.ErrorLogOutputStream;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.MzTabProteinReference;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.MzTabProteinReferenceReader;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.PipelineStage;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.ProteinBuilder;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @version $Id$
+ *
+ * Indexes the proteins of a sequence of mzTab files as a pipeline of stages, each one with its own threads and a
+ * bounded queue in front of it:
+ *
+ *  read file -> extract PRT accessions -> correct accessions -> dedupe and check existence -> batch writer
+ *
+ * The state of every stage (queue depth, throughput, time waiting on the next stage) is logged periodically and at
+ * the end of the run.
+ *
+ * By default files are read with MzTabProteinReferenceReader, that only keeps the protein accessions and databases,
+ * so the read stage produces the protein references directly and the extract stage just passes them on. The full
+ * jmzTab parser can still be used by disabling the streaming reader.
+ *
+ * A file that cannot be indexed is logged and skipped, but an error saving proteins (e.g. a failed bulk load) aborts
+ * the whole pipeline: adding more files and finish() then throw an IllegalStateException.
+ */
+public class ProteinIndexingPipeline {
+
+    private static Logger logger = LoggerFactory.getLogger(ProteinIndexingPipeline.class.getName());
+
+    private static final long STATS_LOGGING_PERIOD_SECONDS = 60;
+
+    private final ProjectProteinCatalogIndexer projectProteinCatalogIndexer;
+
+    private int readThreads = 2;
+    private int readQueueCapacity = 16;
+    private int extractThreads = 1;
+    private int extractQueueCapacity = 2;
+    private int correctThreads = 2;
+    private int correctQueueCapacity = 8;
+    private int existenceThreads = 2;
+    private int existenceQueueCapacity = 8;
+    private int writerThreads = 1;
+    private int writerQueueCapacity = 8;
+    private int writerBatchSize = 1000;
+    private boolean streamingMzTabReader = true;
+
+    private PipelineStage<AssayToIndex, AssayToIndex> readStage;
+    private List<PipelineStage<AssayToIndex, AssayToIndex>> stages;
+    private BatchWriter batchWriter;
+    private ScheduledExecutorService statsLogger;
+    private volatile Throwable abortCause;
+
+    public ProteinIndexingPipeline(ProjectProteinCatalogIndexer projectProteinCatalogIndexer) {
+        this.projectProteinCatalogIndexer = projectProteinCatalogIndexer;
+    }
+
+    /**
+     * Starts the stage threads. Files can be added from then on.
+     */
+    public void start() {
+        batchWriter = new BatchWriter(writerBatchSize);
+
+        readStage = new PipelineStage<AssayToIndex, AssayToIndex>("read", readThreads, readQueueCapacity,
+                streamingMzTabReader ? new StreamingReadProcessor() : new ReadProcessor());
+        PipelineStage<AssayToIndex, AssayToIndex> extractStage =
+                new PipelineStage<AssayToIndex, AssayToIndex>("extract", extractThreads, extractQueueCapacity, new ExtractProcessor());
+        PipelineStage<AssayToIndex, AssayToIndex> correctStage =
+                new PipelineStage<AssayToIndex, AssayToIndex>("correct", correctThreads, correctQueueCapacity, new CorrectProcessor());
+        PipelineStage<AssayToIndex, AssayToIndex> existenceStage =
+                new PipelineStage<AssayToIndex, AssayToIndex>("existence", existenceThreads, existenceQueueCapacity, new ExistenceProcessor());
+        PipelineStage<AssayToIndex, AssayToIndex> writerStage =
+                new PipelineStage<AssayToIndex, AssayToIndex>("writer", writerThreads, writerQueueCapacity, new WriterProcessor());
+
+        readStage.setNextStage(extractStage);
+        extractStage.setNextStage(correctStage);
+        correctStage.setNextStage(existenceStage);
+        existenceStage.setNextStage(writerStage);
+
+        stages = Arrays.asList(readStage, extractStage, correctStage, existenceStage, writerStage);
+        for (PipelineStage<AssayToIndex, AssayToIndex> stage : stages) {
+            stage.start();
+        }
+
+        statsLogger = Executors.newSingleThreadScheduledExecutor();
+        statsLogger.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                logStats();
+            }
+        }, STATS_LOGGING_PERIOD_SECONDS, STATS_LOGGING_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Adds an mzTab file to the pipeline, waiting if the pipeline is full
+     *
+     * @throws IllegalStateException if the pipeline has been aborted
+     */
+    public void index(String projectAccession, String assayAccession, File mzTabFile) throws InterruptedException {
+        readStage.put(new AssayToIndex(projectAccession, assayAccession, mzTabFile));
+    }
+
+    /**
+     * Waits for all the files added so far to be processed, and saves any proteins still pending
+     *
+     * @throws IllegalStateException if the pipeline was aborted
+     */
+    public void finish() throws InterruptedException {
+        try {
+            readStage.close();
+            for (PipelineStage<AssayToIndex, AssayToIndex> stage : stages) {
+                stage.awaitTermination();
+            }
+            if (!isAborted()) {
+                batchWriter.flush();
+            }
+        } finally {
+            statsLogger.shutdownNow();
+        }
+
+        logStats();
+        if (isAborted()) {
+            throw new IllegalStateException("Protein indexing pipeline aborted: " + abortCause.getMessage(), abortCause);
+        }
+    }
+
+    /**
+     * Stops all the stages, dropping the files still in them
+     */
+    public void abort(Throwable cause) {
+        synchronized (this) {
+            if (abortCause == null) {
+                abortCause = cause;
+            }
+        }
+        logger.error("Aborting protein indexing pipeline: " + cause.getMessage());
+        for (PipelineStage<AssayToIndex, AssayToIndex> stage : stages) {
+            stage.abort(cause);
+        }
+    }
+
+    public boolean isAborted() {
+        return abortCause != null;
+    }
+
+    public void logStats() {
+        for (PipelineStage<AssayToIndex, AssayToIndex> stage : stages) {
+            logger.info("Pipeline stage " + stage);
+        }
+        logger.info("Pipeline writer: " + batchWriter);
+    }
+
+    public List<PipelineStage<AssayToIndex, AssayToIndex>> getStages() {
+        return stages;
+    }
+
+    public void setReadThreads(int readThreads) {
+        this.readThreads = readThreads;
+    }
+
+    public void setReadQueueCapacity(int readQueueCapacity) {
+        this.readQueueCapacity = readQueueCapacity;
+    }
+
+    public void setExtractThreads(int extractThreads) {
+        this.extractThreads = extractThreads;
+    }
+
+    public void setExtractQueueCapacity(int extractQueueCapacity) {
+        this.extractQueueCapacity = extractQueueCapacity;
+    }
+
+    public void setCorrectThreads(int correctThreads) {
+        this.correctThreads = correctThreads;
+    }
+
+    public void setCorrectQueueCapacity(int correctQueueCapacity) {
+        this.correctQueueCapacity = correctQueueCapacity;
+    }
+
+    public void setExistenceThreads(int existenceThreads) {
+        this.existenceThreads = existenceThreads;
+    }
+
+    public void setExistenceQueueCapacity(int existenceQueueCapacity) {
+        this.existenceQueueCapacity = existenceQueueCapacity;
+    }
+
+    public void setWriterThreads(int writerThreads) {
+        this.writerThreads = writerThreads;
+    }
+
+    public void setWriterQueueCapacity(int writerQueueCapacity) {
+        this.writerQueueCapacity = writerQueueCapacity;
+    }
+
+    public void setWriterBatchSize(int writerBatchSize) {
+        this.writerBatchSize = writerBatchSize;
+    }
+
+    public void setStreamingMzTabReader(boolean streamingMzTabReader) {
+        this.streamingMzTabReader = streamingMzTabReader;
+    }
+
+    /**
+     * An assay going through the pipeline. Each stage fills in its result and drops what the following stages do
+     * not need, so memory is released as soon as possible.
+     */
+    public static class AssayToIndex {
+        private final String projectAccession;
+        private final String assayAccession;
+        private File file;
+        private MZTabFile mzTabFile;
+        private List<MzTabProteinReference> proteinReferences;
+        private List<ProteinIdentified> proteins;
+
+        public AssayToIndex(String projectAccession, String assayAccession, File file) {
+            this.projectAccession = projectAccession;
+            this.assayAccession = assayAccession;
+            this.file = file;
+        }
+
+        public String getProjectAccession() {
+            return projectAccession;
+        }
+
+        public String getAssayAccession() {
+            return assayAccession;
+        }
+    }
+
+    private static class ReadProcessor implements PipelineStage.Processor<AssayToIndex, AssayToIndex> {
+        @Override
+        public AssayToIndex process(AssayToIndex assay) throws Exception {
+            logger.debug("Trying to open MzTab file " + assay.file.getAbsolutePath());
+            // parser errors are logged per file, so messages from different threads do not get mixed
+            // jmzTab needs an uncompressed file
+            File fileToParse = assay.file.getName().endsWith(MzTabProteinReferenceReader.COMPRESSED_FILE_EXTENSION) ?
+                    decompressToTempFile(assay.file) : assay.file;
+            try {
+                MZTabFileParser mzTabFileParser = new MZTabFileParser(fileToParse, new ErrorLogOutputStream(logger));
+                assay.mzTabFile = mzTabFileParser.getMZTabFile();
+            } finally {
+                if (fileToParse != assay.file && !fileToParse.delete()) {
+                    logger.error("Could not delete temporary file " + fileToParse.getAbsolutePath());
+                }
+            }
+            if (assay.mzTabFile == null) {
+                logger.error("Could not parse MzTab file: " + assay.file.getAbsolutePath());
+                return null;
+            }
+            assay.file = null;
+            return assay;
+        }
+    }
+
+    private static File decompressToTempFile(File compressedFile) throws IOException {
+        File tempFile = File.createTempFile("protein-catalog-index-", ".mztab");
+        InputStream inputStream = MzTabProteinReferenceReader.open(compressedFile);
+        try {
+            OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(tempFile));
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, read);
+                }
+            } finally {
+                outputStream.close();
+            }
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        } finally {
+            inputStream.close();
+        }
+        return tempFile;
+    }
+
+    private static class StreamingReadProcessor implements PipelineStage.Processor<AssayToIndex, AssayToIndex> {
+        @Override
+        public AssayToIndex process(AssayToIndex assay) throws Exception {
+            logger.debug("Trying to read protein references from MzTab file " + assay.file.getAbsolutePath());
+            assay.proteinReferences = MzTabProteinReferenceReader.read(assay.file);
+            assay.file = null;
+            return assay;
+        }
+    }
+
+    private static class ExtractProcessor implements PipelineStage.Processor<AssayToIndex, AssayToIndex> {
+        @Override
+        public AssayToIndex process(AssayToIndex assay) throws Exception {
+            // the streaming reader gives us the protein references already
+            if (assay.mzTabFile != null) {
+                assay.proteinReferences = ProteinBuilder.readProteinReferencesFromMzTabFile(assay.mzTabFile);
+                assay.mzTabFile = null;
+            }
+            return assay;
+        }
+    }
+
+    private static class CorrectProcessor implements PipelineStage.Processor<AssayToIndex, AssayToIndex> {
+        @Override
+        public AssayToIndex process(AssayToIndex assay) throws Exception {
+            assay.proteins = ProteinBuilder.buildProteinIdentifications(assay.proteinReferences);
+            assay.proteinReferences = null;
+            logger.debug("Found " + assay.proteins.size() + " protein identifications for Assay " + assay.assayAccession + " in file.");
+            return assay;
+        }
+    }
+
+    private class ExistenceProcessor implements PipelineStage.Processor<AssayToIndex, AssayToIndex> {
+        @Override
+        public AssayToIndex process(AssayToIndex assay) throws Exception {
+            assay.proteins = projectProteinCatalogIndexer.findProteinsNotInCatalog(assay.projectAccession, assay.assayAccession, assay.proteins);
+            return (assay.proteins.size() > 0) ? assay : null;
+        }
+    }
+
+    private class WriterProcessor implements PipelineStage.Processor<AssayToIndex, AssayToIndex> {
+        @Override
+        public AssayToIndex process(AssayToIndex assay) throws Exception {
+            try {
+                batchWriter.add(assay.proteins);
+            } catch (RuntimeException e) {
+                // proteins are no longer being saved, so there is no point in reading more files
+                abort(e);
+                throw e;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Groups new proteins from several assays into batches before saving them. Proteins found new by more than one
+     * assay before being saved are written only once per batch.
+     */
+    private class BatchWriter {
+        private final int batchSize;
+        private Map<String, ProteinIdentified> pending = new LinkedHashMap<String, ProteinIdentified>();
+        private long numSaved = 0;
+        private long numBatches = 0;
+        private long numFailedBatches = 0;
+
+        private BatchWriter(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        void add(List<ProteinIdentified> proteins) {
+            Map<String, ProteinIdentified> batch = null;
+            synchronized (this) {
+                for (ProteinIdentified protein : proteins) {
+                    pending.put(protein.getAccession(), protein);
+                }
+                if (pending.size() >= batchSize) {
+                    batch = pending;
+                    pending = new LinkedHashMap<String, ProteinIdentified>();
+                }
+            }
+            if (batch != null) {
+                save(batch);
+            }
+        }
+
+        void flush() {
+            Map<String, ProteinIdentified> batch;
+            synchronized (this) {
+                batch = pending;
+                pending = new LinkedHashMap<String, ProteinIdentified>();
+            }
+            if (batch.size() > 0) {
+                save(batch);
+            }
+        }
+
+        private void save(Map<String, ProteinIdentified> batch) {
+            long startTime = System.currentTimeMillis();
+            boolean saved = projectProteinCatalogIndexer.saveProteins(batch.values());
+            long endTime = System.currentTimeMillis();
+            synchronized (this) {
+                numBatches++;
+                if (saved) {
+                    numSaved = numSaved + batch.size();
+                } else {
+                    numFailedBatches++;
+                }
+            }
+            logger.debug("COMMITTED " + batch.size() + " proteins in " + (double)(endTime-startTime)/1000.0 + " seconds");
+        }
+
+        @Override
+        public synchronized String toString() {
+            return numSaved + " proteins saved in " + numBatches + " batches (" + numFailedBatches + " failed), " + pending.size() + " pending";
+        }
+    }
+
+}
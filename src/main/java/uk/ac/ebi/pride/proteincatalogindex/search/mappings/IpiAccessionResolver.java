@@ -0,0 +1,259 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.mappings;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.AccessionCodec;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * @version $Id$
+ *
+ * Resolves IPI accessions to UniProt and back with the last UniProtKB to IPI mapping released by UniProt (IPI is
+ * closed and the mapping service does not know about it). The file is bundled in the jar and loaded the first time it
+ * is needed.
+ *
+ * The mappings are kept as packed sorted arrays, one pair per direction: IPI accessions are stored as their int
+ * number and UniProt accessions as their AccessionCodec code, so the ~100k mappings take a few MB and are looked up
+ * with a binary search.
+ */
+public class IpiAccessionResolver {
+
+    private static Logger logger = LoggerFactory.getLogger(IpiAccessionResolver.class.getName());
+
+    public static final String IPI_MAPPING_RESOURCE = "ipi/last-UniProtKB2IPI.map";
+
+    private static final Charset MAPPING_CHARSET = Charset.forName("US-ASCII");
+    private static final String IPI_PREFIX = "IPI";
+    private static final int IPI_NUMBER_LENGTH = 8;
+
+    private static volatile IpiAccessionResolver instance;
+
+    // IPI -> UniProt, sorted by IPI number
+    private final int[] ipiKeys;
+    private final long[] uniprotValues;
+    // UniProt -> IPI, sorted by UniProt accession code
+    private final long[] uniprotKeys;
+    private final int[] ipiValues;
+
+    /**
+     * @return the resolver for the bundled mapping file, loaded on the first call
+     */
+    public static IpiAccessionResolver getInstance() throws IOException {
+        IpiAccessionResolver res = instance;
+        if (res == null) {
+            synchronized (IpiAccessionResolver.class) {
+                res = instance;
+                if (res == null) {
+                    InputStream inputStream = IpiAccessionResolver.class.getClassLoader().getResourceAsStream(IPI_MAPPING_RESOURCE);
+                    if (inputStream == null) {
+                        throw new IOException("Cannot find the IPI mapping file " + IPI_MAPPING_RESOURCE + " in the classpath");
+                    }
+                    long startTime = System.currentTimeMillis();
+                    res = load(inputStream);
+                    logger.info("Loaded " + res.size() + " IPI mappings from " + IPI_MAPPING_RESOURCE + " in " + (System.currentTimeMillis() - startTime) + " ms");
+                    instance = res;
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Reads a mapping file with one 'UniProt accession, IPI accession' line (separated by spaces or tabs) per mapping.
+     * Any other line is ignored.
+     */
+    public static IpiAccessionResolver load(InputStream inputStream) throws IOException {
+        long[] uniprots = new long[1024];
+        int[] ipis = new int[1024];
+        int size = 0;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, MAPPING_CHARSET));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] tokens = line.trim().split("\\s+");
+                if (tokens.length != 2) {
+                    continue;
+                }
+                int ipi = packIpi(tokens[1]);
+                long uniprot = AccessionCodec.encodeWellFormed(tokens[0]);
+                if (ipi < 0 || uniprot == AccessionCodec.NO_CODE) {
+                    continue;
+                }
+                if (size == uniprots.length) {
+                    uniprots = Arrays.copyOf(uniprots, size * 2);
+                    ipis = Arrays.copyOf(ipis, size * 2);
+                }
+                uniprots[size] = uniprot;
+                ipis[size] = ipi;
+                size++;
+            }
+        } finally {
+            reader.close();
+        }
+        return new IpiAccessionResolver(Arrays.copyOf(uniprots, size), Arrays.copyOf(ipis, size));
+    }
+
+    private IpiAccessionResolver(long[] uniprots, int[] ipis) {
+        int size = uniprots.length;
+
+        // rank the UniProt accessions so each pair fits in a long: (rank, ipi) and (ipi, rank) sort with Arrays.sort
+        long[] distinctUniprots = Arrays.copyOf(uniprots, size);
+        Arrays.sort(distinctUniprots);
+        int numDistinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (numDistinct == 0 || distinctUniprots[numDistinct - 1] != distinctUniprots[i]) {
+                distinctUniprots[numDistinct++] = distinctUniprots[i];
+            }
+        }
+        distinctUniprots = Arrays.copyOf(distinctUniprots, numDistinct);
+
+        long[] byUniprot = new long[size];
+        long[] byIpi = new long[size];
+        for (int i = 0; i < size; i++) {
+            long rank = Arrays.binarySearch(distinctUniprots, uniprots[i]);
+            byUniprot[i] = (rank << 32) | ipis[i];
+            byIpi[i] = ((long) ipis[i] << 32) | rank;
+        }
+        Arrays.sort(byUniprot);
+        Arrays.sort(byIpi);
+
+        uniprotKeys = new long[size];
+        ipiValues = new int[size];
+        ipiKeys = new int[size];
+        uniprotValues = new long[size];
+        for (int i = 0; i < size; i++) {
+            uniprotKeys[i] = distinctUniprots[(int) (byUniprot[i] >>> 32)];
+            ipiValues[i] = (int) byUniprot[i];
+            ipiKeys[i] = (int) (byIpi[i] >>> 32);
+            uniprotValues[i] = distinctUniprots[(int) byIpi[i]];
+        }
+    }
+
+    /**
+     * @return true for IPI accessions, with or without version (e.g. IPI00000001 or IPI00000001.2)
+     */
+    public static boolean isIpiAccession(String accession) {
+        return packIpi(accession) >= 0;
+    }
+
+    /**
+     * @return the UniProt accessions of an IPI accession (empty if it has none)
+     */
+    public TreeSet<String> getUniprotAccessions(String ipiAccession) {
+        TreeSet<String> res = new TreeSet<String>();
+        int ipi = packIpi(ipiAccession);
+        if (ipi >= 0) {
+            for (int i = lowerBound(ipiKeys, ipi); i < ipiKeys.length && ipiKeys[i] == ipi; i++) {
+                res.add(AccessionCodec.decodeWellFormed(uniprotValues[i]));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return the IPI accessions of a UniProt accession (empty if it has none)
+     */
+    public TreeSet<String> getIpiAccessions(String uniprotAccession) {
+        TreeSet<String> res = new TreeSet<String>();
+        long uniprot = AccessionCodec.encodeWellFormed(uniprotAccession);
+        if (uniprot != AccessionCodec.NO_CODE) {
+            for (int i = lowerBound(uniprotKeys, uniprot); i < uniprotKeys.length && uniprotKeys[i] == uniprot; i++) {
+                res.add(unpackIpi(ipiValues[i]));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return the UniProt mappings of the IPI accessions that have any, as the mapping service would answer them
+     */
+    public Map<String, TreeSet<String>> getUniprotMappings(Collection<String> accessions) {
+        Map<String, TreeSet<String>> res = new HashMap<String, TreeSet<String>>();
+        for (String accession : accessions) {
+            if (isIpiAccession(accession)) {
+                TreeSet<String> mappings = getUniprotAccessions(accession);
+                if (mappings.size() > 0) {
+                    res.put(accession, mappings);
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return number of mappings
+     */
+    public int size() {
+        return ipiKeys.length;
+    }
+
+    private static int lowerBound(int[] keys, int key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int lowerBound(long[] keys, long key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the number of the IPI accession (the version is ignored), -1 if it is not an IPI accession
+     */
+    private static int packIpi(String accession) {
+        int end = accession.indexOf('.');
+        if (end < 0) {
+            end = accession.length();
+        }
+        if (!accession.startsWith(IPI_PREFIX) || end - IPI_PREFIX.length() != IPI_NUMBER_LENGTH) {
+            return -1;
+        }
+        int res = 0;
+        for (int i = IPI_PREFIX.length(); i < end; i++) {
+            char c = accession.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            res = res * 10 + (c - '0');
+        }
+        return res;
+    }
+
+    private static String unpackIpi(int ipi) {
+        StringBuilder res = new StringBuilder(IPI_PREFIX.length() + IPI_NUMBER_LENGTH).append(IPI_PREFIX);
+        String number = Integer.toString(ipi);
+        for (int i = number.length(); i < IPI_NUMBER_LENGTH; i++) {
+            res.append('0');
+        }
+        return res.append(number).toString();
+    }
+
+}
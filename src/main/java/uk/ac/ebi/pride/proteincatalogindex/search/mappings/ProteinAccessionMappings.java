@@ -0,0 +1,66 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.mappings;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * @version $Id$
+ *
+ * The mappings found for a set of protein accessions, keyed by the original accessions. UniProt and Ensembl keep
+ * a single mapping per accession, RefSeq and UniParc all of them. Mappings that were not requested are empty.
+ */
+public class ProteinAccessionMappings {
+
+    private final Map<String, String> uniprotMappings;
+    private final Map<String, String> ensemblMappings;
+    private final Map<String, TreeSet<String>> refSeqMappings;
+    private final Map<String, TreeSet<String>> uniParcMappings;
+
+    public ProteinAccessionMappings(Map<String, String> uniprotMappings,
+                                    Map<String, String> ensemblMappings,
+                                    Map<String, TreeSet<String>> refSeqMappings,
+                                    Map<String, TreeSet<String>> uniParcMappings) {
+        this.uniprotMappings = (uniprotMappings != null) ? uniprotMappings : new HashMap<String, String>();
+        this.ensemblMappings = (ensemblMappings != null) ? ensemblMappings : new HashMap<String, String>();
+        this.refSeqMappings = (refSeqMappings != null) ? refSeqMappings : new HashMap<String, TreeSet<String>>();
+        this.uniParcMappings = (uniParcMappings != null) ? uniParcMappings : new HashMap<String, TreeSet<String>>();
+    }
+
+    public Map<String, String> getUniprotMappings() {
+        return uniprotMappings;
+    }
+
+    public Map<String, String> getEnsemblMappings() {
+        return ensemblMappings;
+    }
+
+    public Map<String, TreeSet<String>> getRefSeqMappings() {
+        return refSeqMappings;
+    }
+
+    public Map<String, TreeSet<String>> getUniParcMappings() {
+        return uniParcMappings;
+    }
+
+    /**
+     * @return RefSeq and UniParc mappings together, the ones stored as 'other mappings' in the catalog
+     */
+    public Map<String, TreeSet<String>> getOtherMappings() {
+        Map<String, TreeSet<String>> res = new HashMap<String, TreeSet<String>>();
+        addAll(res, refSeqMappings);
+        addAll(res, uniParcMappings);
+        return res;
+    }
+
+    private static void addAll(Map<String, TreeSet<String>> targetMap, Map<String, TreeSet<String>> sourceMap) {
+        for (Map.Entry<String, TreeSet<String>> entry : sourceMap.entrySet()) {
+            if (targetMap.containsKey(entry.getKey())) {
+                targetMap.get(entry.getKey()).addAll(entry.getValue());
+            } else {
+                targetMap.put(entry.getKey(), new TreeSet<String>(entry.getValue()));
+            }
+        }
+    }
+
+}
@@ -2,15 +2,26 @@ package uk.ac.ebi.pride.proteincatalogindex.search.mappings;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestTemplate;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.AdaptiveBatcher;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.RateLimiter;
 import uk.ac.ebi.pride.tools.protein_details_fetcher.util.ProteinAccessionPattern;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.StringReader;
-import java.net.SocketException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Jose A. Dianes
@@ -18,16 +29,26 @@ import java.util.*;
  *
  * Note: mappings will include the source accession itself
  *
+ * All the mappings go through UniProt: accessions are first mapped to UniProt and then the UniProt accessions to
+ * the target databases. Use findMappingsForAccessions to get all of them in one go, the single database methods
+ * resolve the UniProt accessions again on every call.
+ *
  */
 public class ProteinAccessionMappingsFinder {
     private static Logger logger = LoggerFactory.getLogger(ProteinAccessionMappingsFinder.class.getName());
 
-    private static final int MAX_SYNONYMS_REQUEST = 100;
+    // accessions per request, adapted to how the service copes
+    private static final int INITIAL_ACCESSIONS_PER_REQUEST = 100;
+    private static final int MIN_ACCESSIONS_PER_REQUEST = 10;
+    private static final int MAX_ACCESSIONS_PER_REQUEST = 500;
+    private static final long TARGET_REQUEST_LATENCY_MILLIS = 10000;
+    private static final AdaptiveBatcher MAPPING_BATCHER = new AdaptiveBatcher(
+            "uniprot-mapping", INITIAL_ACCESSIONS_PER_REQUEST, MIN_ACCESSIONS_PER_REQUEST, MAX_ACCESSIONS_PER_REQUEST, TARGET_REQUEST_LATENCY_MILLIS
+    );
 
     private static final String FROM_TAG = "From";
     private static final String NULL_ACCESSION_TAG = "null";
-    private static final int MAX_REQUEST_TRIES = 5;
-    private static final long WAIT_TIME_BEFORE_NEW_TRY_MILLIS = 1000;
+    private static final Charset RESPONSE_CHARSET = Charset.forName("UTF-8");
 
     public static final String MAPPING_TOOL_PARAM = "mapping";
     public static final String TAB_MAPPING_TOOL_FORMAT = "tab"; // list format will return one 'accession[tab]mapping' per line, useful for batches
@@ -40,6 +61,116 @@ public class ProteinAccessionMappingsFinder {
     public static final String REF_SEQ_PROTEIN_TAG = "P_REFSEQ_AC";
     public static final String UNI_PARC_TAG = "UPARC";
 
+    // optional persistent cache of the mappings, see setMappingCache
+    private static volatile ProteinMappingCache mappingCache;
+    // optional local index used instead of the mapping service, see setMappingIndex
+    private static volatile ProteinMappingIndex mappingIndex;
+
+    // chunk requests sent to the mapping service at the same time, and their rate limit (fair use of the service)
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+    private static final double DEFAULT_REQUESTS_PER_SECOND = 5.0;
+    private static final int DEFAULT_REQUEST_TIMEOUT_MILLIS = 60000;
+    private static final ThreadPoolExecutor CHUNK_REQUESTS_EXECUTOR = new ThreadPoolExecutor(
+            DEFAULT_MAX_CONCURRENT_REQUESTS, DEFAULT_MAX_CONCURRENT_REQUESTS, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "uniprot-mapping-requests-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private static volatile RateLimiter rateLimiter = new RateLimiter(DEFAULT_REQUESTS_PER_SECOND, DEFAULT_MAX_CONCURRENT_REQUESTS);
+    // shared by all the requests, see setRestTemplate
+    private static volatile RestTemplate restTemplate = createDefaultRestTemplate();
+
+    private static final AtomicLong numRequests = new AtomicLong();
+    private static final AtomicLong numFailedRequests = new AtomicLong();
+    private static final AtomicLong requestMillis = new AtomicLong();
+
+    // one thread per target database (Ensembl, RefSeq and UniParc)
+    private static final int NUM_TARGET_DATABASES = 3;
+    private static final ExecutorService TARGET_MAPPINGS_EXECUTOR = Executors.newFixedThreadPool(NUM_TARGET_DATABASES, new ThreadFactory() {
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "uniprot-mappings-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+
+    /**
+     * @param maxConcurrentRequests max number of requests sent to the mapping service at the same time
+     */
+    public static void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        int poolSize = Math.max(1, maxConcurrentRequests);
+        if (poolSize > CHUNK_REQUESTS_EXECUTOR.getMaximumPoolSize()) {
+            CHUNK_REQUESTS_EXECUTOR.setMaximumPoolSize(poolSize);
+            CHUNK_REQUESTS_EXECUTOR.setCorePoolSize(poolSize);
+        } else {
+            CHUNK_REQUESTS_EXECUTOR.setCorePoolSize(poolSize);
+            CHUNK_REQUESTS_EXECUTOR.setMaximumPoolSize(poolSize);
+        }
+    }
+
+    /**
+     * @param requestsPerSecond sustained rate of requests to the mapping service
+     * @param maxBurst requests that can be sent at once after an idle period
+     */
+    public static void setRateLimit(double requestsPerSecond, int maxBurst) {
+        rateLimiter = new RateLimiter(requestsPerSecond, maxBurst);
+    }
+
+    /**
+     * Sets the client used for all the requests to the mapping service. It is used by several threads at the same
+     * time, so it should be backed by a pooled connection manager (see the mappingServiceRestTemplate bean).
+     * By default a non pooled client with fixed timeouts is used.
+     */
+    public static void setRestTemplate(RestTemplate sharedRestTemplate) {
+        restTemplate = (sharedRestTemplate != null) ? sharedRestTemplate : createDefaultRestTemplate();
+    }
+
+    /**
+     * @return number of requests, failures, average request time and throttling so far
+     */
+    public static String getRequestStats() {
+        long requests = numRequests.get();
+        return "Mapping service requests: " + requests + " sent, " + numFailedRequests.get() + " failed, "
+                + ((requests > 0) ? requestMillis.get() / requests : 0) + " ms on average. Rate limit: " + rateLimiter
+                + ". Batching: " + MAPPING_BATCHER;
+    }
+
+    /**
+     * Sets a cache to check before asking the mapping service, and to store its answers (null for no cache)
+     */
+    public static void setMappingCache(ProteinMappingCache cache) {
+        mappingCache = cache;
+    }
+
+    /**
+     * Sets a local index of UniProt id mappings to resolve the mappings without asking the mapping service (null to
+     * use the service). Mappings not covered by the index still go to the service.
+     */
+    public static void setMappingIndex(ProteinMappingIndex index) {
+        mappingIndex = index;
+    }
+
+    /**
+     * Finds the UniProt, Ensembl, RefSeq and UniParc mappings of the accessions. Accessions are resolved to UniProt
+     * once, and then the UniProt accessions are mapped to the other databases concurrently.
+     *
+     * @param accessions
+     * @return
+     * @throws IOException
+     */
+    public static ProteinAccessionMappings findMappingsForAccessions(Set<String> accessions) throws IOException {
+        return findMappingsForAccessions(accessions, true, true);
+    }
 
     /**
      * Builds a map of protein accession mappings from different databases to UniProt
@@ -49,9 +180,63 @@ public class ProteinAccessionMappingsFinder {
      * @throws IOException
      */
     public static Map<String, String> findProteinUniprotMappingsForAccession(Set<String> accessions) throws IOException {
+        return findMappingsForAccessions(accessions, false, false).getUniprotMappings();
+    }
+
+    public static Map<String, String> findProteinEnsemblMappingsForAccession(Set<String> accessions) throws IOException {
+        return findMappingsForAccessions(accessions, true, false).getEnsemblMappings();
+    }
+
+    public static Map<String, TreeSet<String>> findProteinOtherMappingsForAccession(Set<String> accessions) throws IOException {
+        return findMappingsForAccessions(accessions, false, true).getOtherMappings();
+    }
+
+    private static ProteinAccessionMappings findMappingsForAccessions(Set<String> accessions, boolean ensembl, boolean others) throws IOException {
+
+        // in order to get any other mappings, first we need to get uniprot accessions
+        Map<String, String> toUniprotMappings = findUniprotMappings(accessions);
+
+        Map<String, String> ensemblMappings = null;
+        Map<String, TreeSet<String>> refSeqMappings = null;
+        Map<String, TreeSet<String>> uniParcMappings = null;
+
+        // now we get the other accessions for those mappings and associate them to the original ones provided in the method call
+        if ( toUniprotMappings.size()>0 && (ensembl || others) ) {
+            TreeSet<String> uniprotMappingsSet = new TreeSet<String>();
+            uniprotMappingsSet.addAll(toUniprotMappings.values());
+
+            // all the target databases at the same time
+            Future<Map<String, TreeSet<String>>> uniprotToEnsemblMappings = null;
+            Future<Map<String, TreeSet<String>>> uniprotToRefSeqMappings = null;
+            Future<Map<String, TreeSet<String>>> uniprotToUniParcMappings = null;
+            if (ensembl) {
+                uniprotToEnsemblMappings = submitGetMappings(UNIPROT_KB_ACC_TAG, ENSMBL_PROTEIN_TAG, uniprotMappingsSet);
+            }
+            if (others) {
+                uniprotToRefSeqMappings = submitGetMappings(UNIPROT_KB_ACC_ID_TAG, REF_SEQ_PROTEIN_TAG, uniprotMappingsSet);
+                uniprotToUniParcMappings = submitGetMappings(UNIPROT_KB_ACC_ID_TAG, UNI_PARC_TAG, uniprotMappingsSet);
+            }
+
+            // merge them back to the original accessions
+            if (ensembl) {
+                ensemblMappings = mergeTransitivelyFirst(toUniprotMappings, getMappingsResult(uniprotToEnsemblMappings));
+            }
+            if (others) {
+                refSeqMappings = mergeTransitively(toUniprotMappings, getMappingsResult(uniprotToRefSeqMappings));
+                uniParcMappings = mergeTransitively(toUniprotMappings, getMappingsResult(uniprotToUniParcMappings));
+            }
+        }
+
+        return new ProteinAccessionMappings(toUniprotMappings, ensemblMappings, refSeqMappings, uniParcMappings);
+    }
+
+    private static Map<String, String> findUniprotMappings(Set<String> accessions) throws IOException {
 
         Map<String, String> res = new HashMap<String, String>();
 
+        // IPI accessions are taken from the mapping file
+        addAllFirst(res, IpiAccessionResolver.getInstance().getUniprotMappings(accessions));
+
         Map<String, TreeSet<String>> accessionsByDb = groupAccessionsByDb(accessions);
 
         if ( accessionsByDb != null && accessionsByDb.size()>0 ) {
@@ -67,46 +252,32 @@ public class ProteinAccessionMappingsFinder {
         return res;
     }
 
-    public static Map<String, String> findProteinEnsemblMappingsForAccession(Set<String> accessions) throws IOException {
-
-        Map<String, String> res = new HashMap<String, String>();
-
-        // in order to get ensembl mappings, first we need to get uniprot accessions
-        Map<String, String> toUniprotMappings = findProteinUniprotMappingsForAccession(accessions);
-
-        // now we get ensmbl accessions for those mappings and associate them to the original ones provided in the method call
-        if ( toUniprotMappings!=null && toUniprotMappings.size()>0 ) {
-            TreeSet<String> uniprotMappingsSet = new TreeSet<String>();
-            uniprotMappingsSet.addAll(toUniprotMappings.values());
-            // get a map from uniprot to ensembl
-            Map<String, TreeSet<String>> uniprotToEnsemblMappings = getMappings(UNIPROT_KB_ACC_TAG, ENSMBL_PROTEIN_TAG, uniprotMappingsSet);
-            // now we need to add the ensembl maps to the original maps
-            res = mergeTransitivelyFirst(toUniprotMappings, uniprotToEnsemblMappings);
-        }
-
-        return res;
+    private static Future<Map<String, TreeSet<String>>> submitGetMappings(final String from, final String to, final Set<String> accessions) {
+        return TARGET_MAPPINGS_EXECUTOR.submit(new Callable<Map<String, TreeSet<String>>>() {
+            @Override
+            public Map<String, TreeSet<String>> call() throws Exception {
+                return getMappings(from, to, accessions);
+            }
+        });
     }
 
-    public static Map<String, TreeSet<String>> findProteinOtherMappingsForAccession(Set<String> accessions) throws IOException {
-
-        Map<String, TreeSet<String>> res = new HashMap<String, TreeSet<String>>();
-
-        // in order to get other mappings, first we need to get uniprot accessions
-        Map<String, String> toUniprotMappings = findProteinUniprotMappingsForAccession(accessions);
+    private static Map<String, TreeSet<String>> getMappingsResult(Future<Map<String, TreeSet<String>>> mappings) throws IOException {
+        Map<String, TreeSet<String>> res = getResult(mappings);
+        return (res != null) ? res : new HashMap<String, TreeSet<String>>();
+    }
 
-        // now we get other accessions for those mappings (but not ensembl) and associate them to the original ones provided in the method call
-        if ( toUniprotMappings!=null && toUniprotMappings.size()>0 ) {
-            TreeSet<String> uniprotMappingsSet = new TreeSet<String>();
-            uniprotMappingsSet.addAll(toUniprotMappings.values());
-            // get a maps from uniprot to other DBs (but not ensembl or uniprot itself)
-            Map<String, TreeSet<String>> fromUniprotToOthers = new HashMap<String, TreeSet<String>>();
-            addAll(fromUniprotToOthers, getMappings(UNIPROT_KB_ACC_ID_TAG, REF_SEQ_PROTEIN_TAG, uniprotMappingsSet));
-            addAll(fromUniprotToOthers, getMappings(UNIPROT_KB_ACC_ID_TAG, UNI_PARC_TAG, uniprotMappingsSet));
-            // merge them back to the original accessions
-            res = mergeTransitively(toUniprotMappings,fromUniprotToOthers);
+    private static <T> T getResult(Future<T> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for mappings", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not get mappings", e.getCause());
         }
-
-        return res;
     }
 
     /**
@@ -169,37 +340,148 @@ public class ProteinAccessionMappingsFinder {
     }
 
     private static Map<String, TreeSet<String>> getMappings(String from, String to, Set<String> accessions) throws IOException {
-        long totalSynonyms = 0;
 
         if (accessions!=null && accessions.size()>0) {
-            int fromIndex = 0;
-            int toIndex = Math.min(accessions.size()-1,MAX_SYNONYMS_REQUEST);
+            // resolved locally if there is an index for them
+            ProteinMappingIndex index = mappingIndex;
+            if (index != null && index.supports(from, to)) {
+                long startTime = System.currentTimeMillis();
+                Map<String, TreeSet<String>> res = index.getMappings(from, to, accessions);
+                logger.info("Mapped " + accessions.size() + " accessions from " + from + " to " + to + " with the local index in "
+                        + (System.currentTimeMillis() - startTime) + " ms, " + res.size() + " with mappings");
+                return res;
+            }
+
             Map<String, TreeSet<String>> res = new HashMap<String, TreeSet<String>>();
 
-            while ( toIndex < accessions.size() && fromIndex<=toIndex ) {
-                // lazy instantiation of a RestTemplate to use the UniProt service
-                RestTemplate restTemplate = new RestTemplate();
-                // set the params
-                Map<String, String> parameters = buildQueryParams(from,to,accessions,fromIndex,toIndex);
-                logger.debug("Built query for accessions from " + fromIndex + " to index " + toIndex + " (of " + accessions.size() + " accessions)");
-                // build the url
-                String url = UNIPROT_MAPPING_SERVICE_URL
-                        + "/{tool}?from={from}&to={to}&format={format}&query={query}";
-                // invoke the service
-                invokeUniprotService(restTemplate,url,parameters,res,totalSynonyms);
-
-                fromIndex = toIndex + 1;
-                toIndex = Math.min( accessions.size()-1, toIndex + MAX_SYNONYMS_REQUEST );
+            // take what we can from the cache
+            List<String> accessionsToQuery = new ArrayList<String>(accessions.size());
+            ProteinMappingCache cache = mappingCache;
+            if (cache != null) {
+                for (String accession : accessions) {
+                    TreeSet<String> cachedMappings = cache.get(from, to, accession);
+                    if (cachedMappings == null) {
+                        accessionsToQuery.add(accession);
+                    } else if (cachedMappings.size() > 0) {
+                        res.put(accession, cachedMappings);
+                    }
+                }
+                logger.debug((accessions.size() - accessionsToQuery.size()) + " of " + accessions.size() + " accessions from database " + from + " to database " + to + " found in cache");
+            } else {
+                accessionsToQuery.addAll(accessions);
+            }
+
+            // send the batches concurrently, merging the results as they come back
+            if (accessionsToQuery.size() > 0) {
+                long startTime = System.currentTimeMillis();
+                List<String> failedAccessions;
+                MappingBatchProcessor batchProcessor = new MappingBatchProcessor(from, to);
+                try {
+                    failedAccessions = MAPPING_BATCHER.processAll(
+                            accessionsToQuery,
+                            batchProcessor,
+                            CHUNK_REQUESTS_EXECUTOR,
+                            CHUNK_REQUESTS_EXECUTOR.getMaximumPoolSize()
+                    );
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while getting mappings", e);
+                }
+                // merged by this thread only, each batch filled its own map
+                for (MappingBatch batch : batchProcessor.answeredBatches) {
+                    addAll(res, batch.mappings);
+                    // cache the answer, including the accessions with no mappings
+                    if (cache != null) {
+                        for (String accession : batch.accessions) {
+                            cache.put(from, to, accession, batch.mappings.get(accession));
+                        }
+                        // written per batch, so a killed run keeps what it already asked for
+                        try {
+                            cache.flush();
+                        } catch (IOException e) {
+                            logger.error("Could not flush the mapping cache: " + e.getMessage());
+                        }
+                    }
+                }
+                if (failedAccessions.size() > 0) {
+                    logger.error("Could not get mappings from " + from + " to " + to + " for " + failedAccessions.size() + " accessions");
+                }
+                long elapsedMillis = Math.max(1, System.currentTimeMillis() - startTime);
+                logger.info("Mapped " + accessionsToQuery.size() + " accessions from " + from + " to " + to + ", "
+                        + (accessionsToQuery.size() * 1000L / elapsedMillis) + " accessions/s. " + getRequestStats());
             }
 
-            logger.debug("Found a total of " + totalSynonyms + " for " + accessions.size() + " accessions from database " + from + " to database " + to);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Found a total of " + getTotalSynonymsCount(res) + " for " + accessions.size() + " accessions from database " + from + " to database " + to);
+            }
             return res;
         } else {
             return null;
         }
     }
 
-    private static Map<String, String> buildQueryParams(String from, String to, Set<String> accessions, int fromIndex, int toIndex) {
+    /**
+     * Asks the mapping service for a batch of accessions. Each batch gets its own result map, the answered ones are
+     * merged by the calling thread once all of them are done
+     */
+    private static class MappingBatchProcessor implements AdaptiveBatcher.BatchProcessor<String> {
+        private final String from;
+        private final String to;
+        private final Queue<MappingBatch> answeredBatches = new ConcurrentLinkedQueue<MappingBatch>();
+
+        private MappingBatchProcessor(String from, String to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean process(List<String> batch) throws Exception {
+            // set the params
+            Map<String, String> parameters = buildQueryParams(from,to,batch);
+            // build the url
+            String url = UNIPROT_MAPPING_SERVICE_URL
+                    + "/{tool}?from={from}&to={to}&format={format}&query={query}";
+            // invoke the service once, the batcher takes care of retrying
+            Map<String, TreeSet<String>> batchMappings = new HashMap<String, TreeSet<String>>();
+            try {
+                invokeUniprotService(restTemplate,url,parameters,batchMappings);
+            } catch (HttpClientErrorException clientErrorException) {
+                // the query was not accepted, the batcher splits it to find the accessions to blame
+                numFailedRequests.incrementAndGet();
+                logger.error("Request rejected (" + clientErrorException.getStatusCode() + ") for query " + parameters.get("query") + " from database " + from + " to database " + to);
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw e;
+            } catch (Exception e) {
+                // transport errors and server errors: the batcher backs off and tries the batch again
+                numFailedRequests.incrementAndGet();
+                logger.error("Could not send request to " + url + " for query " + parameters.get("query") + " from database " + from + " to database " + to + ": " + e.getMessage());
+                throw e;
+            }
+            answeredBatches.add(new MappingBatch(batch, batchMappings));
+            return true;
+        }
+    }
+
+    private static class MappingBatch {
+        private final List<String> accessions;
+        private final Map<String, TreeSet<String>> mappings;
+
+        private MappingBatch(List<String> accessions, Map<String, TreeSet<String>> mappings) {
+            this.accessions = accessions;
+            this.mappings = mappings;
+        }
+    }
+
+    private static RestTemplate createDefaultRestTemplate() {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(DEFAULT_REQUEST_TIMEOUT_MILLIS);
+        requestFactory.setReadTimeout(DEFAULT_REQUEST_TIMEOUT_MILLIS);
+        return new RestTemplate(requestFactory);
+    }
+
+    private static Map<String, String> buildQueryParams(String from, String to, List<String> accessions) {
 
         Map<String, String> parameters = new HashMap<String, String>();
 
@@ -210,7 +492,7 @@ public class ProteinAccessionMappingsFinder {
         String query = new String();
 
 
-        for ( String accession: new LinkedList<String>(accessions).subList(fromIndex,toIndex+1) ) {
+        for ( String accession: accessions ) {
             query = query + accession + " ";
         }
 
@@ -223,82 +505,81 @@ public class ProteinAccessionMappingsFinder {
         return parameters;
     }
 
+    /**
+     * Sends a single request, failures are left to the caller
+     */
     private static void invokeUniprotService(
             RestTemplate restTemplate,
             String url,
             Map<String, String> parameters,
-            Map<String, TreeSet<String>> res,
-            long totalSynonyms
-    ) throws IOException {
-        int numTries = 0;
-        boolean success = false;
-        while (!success && numTries<MAX_REQUEST_TRIES) {
-            try {
-                String response = restTemplate.getForObject(url, String.class, parameters);
-                // process
-                if (response != null) {
-                    BufferedReader reader = new BufferedReader(new StringReader(response));
-                    String line = reader.readLine();
-                    if (line!= null && line.startsWith(FROM_TAG)) {
-                        line = reader.readLine(); // skip the first line, the header
-                    }
-                    while ( line != null && !"null".equals(line)) {
-                        String[] lineTokens = line.split("\t");
-                        if (lineTokens.length>1) {
-                            logger.debug(line);
-                            String accession = lineTokens[0];
-                            String aMapping = lineTokens[1];
-                            logger.debug("Read response line for ACCESSION: " + accession + " FROM:" + parameters.get("from") + " TO:" + parameters.get("to") + " (should be an accession): " + aMapping);
-                            logger.debug("Original query: " + parameters.get("query") + " format: " + parameters.get("format3"));
-                            if (res.containsKey(accession) && !NULL_ACCESSION_TAG.equals(aMapping)) {
-                                res.get(accession).add(aMapping);
-                            } else if (!NULL_ACCESSION_TAG.equals(aMapping)) {
-                                res.put(
-                                        accession, new TreeSet(Arrays.asList(aMapping))
-                                );
-                            }
-
-                            totalSynonyms++;
-                        }
+            Map<String, TreeSet<String>> res
+    ) throws InterruptedException {
+        rateLimiter.acquire();
+        numRequests.incrementAndGet();
+        long requestStartTime = System.currentTimeMillis();
+        // the response is parsed as it is read, straight into the result map
+        int numLines = restTemplate.execute(url, HttpMethod.GET, null, new MappingResponseExtractor(res), parameters);
+        requestMillis.addAndGet(System.currentTimeMillis() - requestStartTime);
+        if (numLines == 0 && logger.isDebugEnabled()) {
+            logger.debug("Empty response from uniprot mapping service for query " + parameters.get("query") + " from database " + parameters.get("from") + " to database " + parameters.get("to"));
+        }
+    }
 
-                        line = reader.readLine();
-                    }
-                } else {
-                    logger.debug("Response NULL from uniprot mapping service for query " + parameters.get("query") + " from database " + parameters.get("from") + " to database " + parameters.get("to"));
+    /**
+     * Reads a tab mapping response line by line from the response stream, adding the 'accession[tab]mapping' lines
+     * to the result map
+     */
+    static class MappingResponseExtractor implements ResponseExtractor<Integer> {
+
+        private final Map<String, TreeSet<String>> res;
+
+        MappingResponseExtractor(Map<String, TreeSet<String>> res) {
+            this.res = res;
+        }
+
+        /**
+         * @return the number of lines read, header included
+         */
+        @Override
+        public Integer extractData(ClientHttpResponse response) throws IOException {
+            InputStream body = response.getBody();
+            if (body == null) {
+                return 0;
+            }
+            Charset charset = RESPONSE_CHARSET;
+            MediaType contentType = response.getHeaders().getContentType();
+            if (contentType != null && contentType.getCharSet() != null) {
+                charset = contentType.getCharSet();
+            }
+            boolean debug = logger.isDebugEnabled();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(body, charset));
+            int numLines = 0;
+            String line;
+            while ((line = reader.readLine()) != null && !NULL_ACCESSION_TAG.equals(line)) {
+                numLines++;
+                if (numLines == 1 && line.startsWith(FROM_TAG)) {
+                    continue; // skip the header
                 }
-                success = true;
-            } catch (HttpClientErrorException clientErrorException) {
-                logger.error("TRY " + numTries + ": Could not send request to " + url + " for query " + parameters.get("query") + " from database " + parameters.get("from") + " to database " + parameters.get("to"));
-                // wait for a sec before trying again
-                try {
-                    Thread.sleep(WAIT_TIME_BEFORE_NEW_TRY_MILLIS);
-                } catch (InterruptedException e) {
-                    logger.error("I cannot wait!!");
+                int tab = line.indexOf('\t');
+                if (tab < 0) {
+                    continue;
                 }
-                numTries++;
-            } catch (SocketException se) {
-                logger.error("TRY " + numTries + ": Could not send request to " + url + " for query " + parameters.get("query") + " from database " + parameters.get("from") + " to database " + parameters.get("to"));
-                // wait for a sec before trying again
-                try {
-                    Thread.sleep(WAIT_TIME_BEFORE_NEW_TRY_MILLIS);
-                } catch (InterruptedException e) {
-                    logger.error("I cannot wait!!");
+                int mappingEnd = line.indexOf('\t', tab + 1);
+                String accession = line.substring(0, tab);
+                String aMapping = (mappingEnd < 0) ? line.substring(tab + 1) : line.substring(tab + 1, mappingEnd);
+                if (debug) {
+                    logger.debug("Read response line for ACCESSION: " + accession + " (should be an accession): " + aMapping);
                 }
-                numTries++;
-            } catch (Exception e) {
-                logger.error("TRY " + numTries + ": Could not send request to " + url + " for query " + parameters.get("query") + " from database " + parameters.get("from") + " to database " + parameters.get("to") + "Unknown exception:");
-                e.printStackTrace();
-
-                // wait for a sec before trying again
-                try {
-                    Thread.sleep(WAIT_TIME_BEFORE_NEW_TRY_MILLIS);
-                } catch (InterruptedException ie) {
-                    logger.error("I cannot wait!!");
+                if (aMapping.length() > 0 && !NULL_ACCESSION_TAG.equals(aMapping)) {
+                    TreeSet<String> mappings = res.get(accession);
+                    if (mappings == null) {
+                        mappings = new TreeSet<String>();
+                        res.put(accession, mappings);
+                    }
+                    mappings.add(aMapping);
                 }
-                numTries++;
-                if (numTries<MAX_REQUEST_TRIES)
-                    logger.error("Will try again...");
             }
+            return numLines;
         }
     }
 
@@ -0,0 +1,372 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.mappings;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.AccessionCodec;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.LongObjectHashMap;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * @version $Id$
+ *
+ * Persistent cache of protein accession mappings, keyed by (from database, to database, accession). Accessions with
+ * no mappings are cached too, so they are not asked for again on every run. Entries expire after a time to live
+ * (a different one for "no mapping" entries).
+ *
+ * The cache is kept in memory and backed by an append-only file with one tab separated line per entry:
+ * timestamp, from, to, accession and its mappings (none for a "no mapping" entry). When the file is loaded the last
+ * line of each key wins. New entries are appended, and the file is compacted (rewritten with only the live entries)
+ * when closing if most of its lines are stale.
+ *
+ * In memory, accessions and their mappings are kept as AccessionCodec codes in a primitive map per pair of databases,
+ * so a large cache takes a fraction of the heap Strings would.
+ */
+public class ProteinMappingCache {
+
+    private static Logger logger = LoggerFactory.getLogger(ProteinMappingCache.class.getName());
+
+    private static final Charset CACHE_CHARSET = Charset.forName("UTF-8");
+    private static final String SEPARATOR = "\t";
+    private static final int NUM_KEY_COLUMNS = 4;
+    // compact when less than this fraction of the lines in the file are live entries
+    private static final double MIN_LIVE_LINES_RATIO = 0.5;
+
+    private final File file;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+
+    // keyed by (from, to) and then by accession code
+    private final Map<String, LongObjectHashMap<Entry>> entries = new HashMap<String, LongObjectHashMap<Entry>>();
+    private final AccessionCodec codec = new AccessionCodec();
+    private Writer writer;
+    private long numLinesInFile = 0;
+
+    private long numHits = 0;
+    private long numNegativeHits = 0;
+    private long numMisses = 0;
+    private long numExpired = 0;
+    private long numPuts = 0;
+
+    private static class Entry {
+        private final long timestamp;
+        private final long[] mappings;
+
+        private Entry(long timestamp, long[] mappings) {
+            this.timestamp = timestamp;
+            this.mappings = mappings;
+        }
+
+        private boolean isNegative() {
+            return mappings == null;
+        }
+    }
+
+    /**
+     * @param file the cache file, created if it does not exist
+     * @param ttlMillis how long mappings are valid
+     * @param negativeTtlMillis how long "no mapping" entries are valid
+     */
+    public ProteinMappingCache(File file, long ttlMillis, long negativeTtlMillis) {
+        this.file = file;
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+    }
+
+    /**
+     * Loads the cache file and opens it to add new entries
+     */
+    public synchronized void open() throws IOException {
+        long startTime = System.currentTimeMillis();
+        if (file.exists()) {
+            dropIncompleteLastLine();
+            load();
+        }
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), CACHE_CHARSET));
+        logger.info("Loaded " + size() + " cached mappings from " + file + " (" + numLinesInFile + " lines) in " + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    /**
+     * @return the cached mappings (an empty set for a "no mapping" entry), or null if the accession is not cached or
+     * its entry has expired
+     */
+    public synchronized TreeSet<String> get(String from, String to, String accession) {
+        LongObjectHashMap<Entry> databaseEntries = entries.get(databases(from, to));
+        long code = codec.find(accession);
+        Entry entry = (databaseEntries == null || code == AccessionCodec.NO_CODE) ? null : databaseEntries.get(code);
+        if (entry == null) {
+            numMisses++;
+            return null;
+        }
+        long ttl = entry.isNegative() ? negativeTtlMillis : ttlMillis;
+        if (System.currentTimeMillis() - entry.timestamp > ttl) {
+            numExpired++;
+            return null;
+        }
+        if (entry.isNegative()) {
+            numNegativeHits++;
+            return new TreeSet<String>();
+        }
+        numHits++;
+        return decode(entry.mappings);
+    }
+
+    /**
+     * @param mappings the mappings of the accession, null or empty if it has none
+     */
+    public synchronized void put(String from, String to, String accession, TreeSet<String> mappings) {
+        Entry entry = new Entry(System.currentTimeMillis(), encode(mappings));
+        putEntry(from, to, accession, entry);
+        numPuts++;
+        if (writer != null) {
+            try {
+                writeEntry(writer, entry.timestamp, from, to, accession, mappings);
+                numLinesInFile++;
+            } catch (IOException e) {
+                logger.error("Could not write to the mapping cache file " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public synchronized void flush() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Writes any pending entries and compacts the file if most of it is stale
+     */
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+        if (numLinesInFile > 0 && countLiveEntries() < numLinesInFile * MIN_LIVE_LINES_RATIO) {
+            compact();
+        }
+        logger.info("Mapping cache closed. " + this);
+    }
+
+    /**
+     * Rewrites the cache file with only the live entries, dropping the expired ones and the old versions of each key
+     */
+    public synchronized void compact() throws IOException {
+        boolean reopen = writer != null;
+        if (reopen) {
+            writer.close();
+        }
+
+        long now = System.currentTimeMillis();
+        File compactedFile = new File(file.getAbsolutePath() + ".compacting");
+        Writer compactedWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(compactedFile), CACHE_CHARSET));
+        long numLines = 0;
+        try {
+            for (Map.Entry<String, LongObjectHashMap<Entry>> databaseEntries : entries.entrySet()) {
+                String[] databases = databaseEntries.getKey().split(SEPARATOR);
+                LongObjectHashMap<Entry> liveEntries = new LongObjectHashMap<Entry>(databaseEntries.getValue().size());
+                for (long code : databaseEntries.getValue().keys()) {
+                    Entry entry = databaseEntries.getValue().get(code);
+                    if (!isExpired(entry, now)) {
+                        liveEntries.put(code, entry);
+                        writeEntry(compactedWriter, entry.timestamp, databases[0], databases[1], codec.decode(code), decode(entry.mappings));
+                        numLines++;
+                    }
+                }
+                databaseEntries.setValue(liveEntries);
+            }
+        } finally {
+            compactedWriter.close();
+        }
+        if (!compactedFile.renameTo(file)) {
+            // some platforms do not rename over an existing file
+            if (!file.delete() || !compactedFile.renameTo(file)) {
+                throw new IOException("Could not replace " + file + " with the compacted cache " + compactedFile);
+            }
+        }
+        logger.info("Compacted mapping cache " + file + " from " + numLinesInFile + " to " + numLines + " lines");
+        numLinesInFile = numLines;
+
+        if (reopen) {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), CACHE_CHARSET));
+        }
+    }
+
+    public synchronized int size() {
+        int res = 0;
+        for (LongObjectHashMap<Entry> databaseEntries : entries.values()) {
+            res = res + databaseEntries.size();
+        }
+        return res;
+    }
+
+    public synchronized long getNumHits() {
+        return numHits;
+    }
+
+    public synchronized long getNumNegativeHits() {
+        return numNegativeHits;
+    }
+
+    public synchronized long getNumMisses() {
+        return numMisses;
+    }
+
+    public synchronized long getNumExpired() {
+        return numExpired;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return size() + " cached mappings, " + numHits + " hits, " + numNegativeHits + " 'no mapping' hits, "
+                + numMisses + " misses, " + numExpired + " expired, " + numPuts + " new entries";
+    }
+
+    private void load() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CACHE_CHARSET));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                numLinesInFile++;
+                String[] columns = line.split(SEPARATOR, -1);
+                if (columns.length < NUM_KEY_COLUMNS) {
+                    logger.warn("Ignoring incomplete line in mapping cache " + file + ": " + line);
+                    continue;
+                }
+                long timestamp;
+                try {
+                    timestamp = Long.parseLong(columns[0]);
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring wrong line in mapping cache " + file + ": " + line);
+                    continue;
+                }
+                TreeSet<String> mappings = new TreeSet<String>();
+                for (int i = NUM_KEY_COLUMNS; i < columns.length; i++) {
+                    if (columns[i].length() > 0) {
+                        mappings.add(columns[i]);
+                    }
+                }
+                putEntry(columns[1], columns[2], columns[3], new Entry(timestamp, encode(mappings)));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Truncates the file after its last '\n'. A run killed while writing leaves a cut line behind, which could still
+     * parse (with some of its mappings missing) and would win over the good entry of its key. Truncating it also keeps
+     * the next appended line from being glued to it.
+     */
+    private void dropIncompleteLastLine() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long length = raf.length();
+            long end = length;
+            byte[] buffer = new byte[8192];
+            while (end > 0) {
+                int numBytes = (int) Math.min(buffer.length, end);
+                raf.seek(end - numBytes);
+                raf.readFully(buffer, 0, numBytes);
+                int i = numBytes - 1;
+                while (i >= 0 && buffer[i] != '\n') {
+                    i--;
+                }
+                if (i >= 0) {
+                    end = end - numBytes + i + 1;
+                    break;
+                }
+                end = end - numBytes;
+            }
+            if (end < length) {
+                logger.warn("Dropping incomplete last line (" + (length - end) + " bytes) of mapping cache " + file);
+                raf.setLength(end);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private long countLiveEntries() {
+        long now = System.currentTimeMillis();
+        long res = 0;
+        for (LongObjectHashMap<Entry> databaseEntries : entries.values()) {
+            for (long code : databaseEntries.keys()) {
+                if (!isExpired(databaseEntries.get(code), now)) {
+                    res++;
+                }
+            }
+        }
+        return res;
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.timestamp > (entry.isNegative() ? negativeTtlMillis : ttlMillis);
+    }
+
+    private void putEntry(String from, String to, String accession, Entry entry) {
+        String databases = databases(from, to);
+        LongObjectHashMap<Entry> databaseEntries = entries.get(databases);
+        if (databaseEntries == null) {
+            databaseEntries = new LongObjectHashMap<Entry>();
+            entries.put(databases, databaseEntries);
+        }
+        databaseEntries.put(codec.encode(accession), entry);
+    }
+
+    /**
+     * @return the codes of the mappings, null if there are none
+     */
+    private long[] encode(Collection<String> mappings) {
+        if (mappings == null || mappings.isEmpty()) {
+            return null;
+        }
+        long[] res = new long[mappings.size()];
+        int i = 0;
+        for (String mapping : mappings) {
+            res[i++] = codec.encode(mapping);
+        }
+        return res;
+    }
+
+    private TreeSet<String> decode(long[] mappings) {
+        TreeSet<String> res = new TreeSet<String>();
+        if (mappings != null) {
+            for (long mapping : mappings) {
+                res.add(codec.decode(mapping));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Writes a line, with no mappings after the key for a "no mapping" entry
+     */
+    private static void writeEntry(Writer writer, long timestamp, String from, String to, String accession, Collection<String> mappings) throws IOException {
+        writer.write(Long.toString(timestamp));
+        writer.write(SEPARATOR);
+        writer.write(databases(from, to));
+        writer.write(SEPARATOR);
+        writer.write(accession);
+        if (mappings != null) {
+            for (String mapping : mappings) {
+                writer.write(SEPARATOR);
+                writer.write(mapping);
+            }
+        }
+        writer.write('\n');
+    }
+
+    private static String databases(String from, String to) {
+        return from + SEPARATOR + to;
+    }
+
+}
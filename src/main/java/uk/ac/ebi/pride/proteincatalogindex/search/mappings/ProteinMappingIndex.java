@@ -0,0 +1,177 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.mappings;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.SortedRecordFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * @version $Id$
+ *
+ * Local, read-only index of UniProt id mappings, built once from a UniProt idmapping dump with
+ * ProteinMappingIndexImporter. It answers the same questions as the UniProt mapping service for the databases used in
+ * the catalog (UniProt, Ensembl, RefSeq and UniParc), so the mappings can be resolved without network access.
+ *
+ * The index is two memory-mapped files of fixed length records (SortedRecordFile) sorted by (key, type, value):
+ * 'forward' with UniProt accessions as keys and 'reverse' with the other identifiers as keys. A lookup is a binary
+ * search on the mapped records, so nothing but the pages touched is loaded in memory.
+ */
+public class ProteinMappingIndex {
+
+    private static Logger logger = LoggerFactory.getLogger(ProteinMappingIndex.class.getName());
+
+    public static final String FORWARD_FILE_NAME = "forward.idx";
+    public static final String REVERSE_FILE_NAME = "reverse.idx";
+
+    // record layout: key, type, value. Keys and values are ASCII, padded with zeros
+    static final int KEY_LENGTH = 24;
+    static final int VALUE_LENGTH = 24;
+    static final int RECORD_LENGTH = KEY_LENGTH + 1 + VALUE_LENGTH;
+    static final int PREFIX_LENGTH = KEY_LENGTH + 1;
+
+    // identifier types, as written in the records
+    static final byte UNIPROT_ID_TYPE = 'I';
+    static final byte ENSEMBL_TYPE = 'E';
+    static final byte REFSEQ_TYPE = 'R';
+    static final byte UNIPARC_TYPE = 'U';
+
+    private final File directory;
+    private SortedRecordFile forward;
+    private SortedRecordFile reverse;
+
+    private ProteinMappingIndex(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return true if there is an imported index in the directory
+     */
+    public static boolean exists(File directory) {
+        return new File(directory, FORWARD_FILE_NAME).isFile() && new File(directory, REVERSE_FILE_NAME).isFile();
+    }
+
+    public static ProteinMappingIndex open(File directory) throws IOException {
+        ProteinMappingIndex index = new ProteinMappingIndex(directory);
+        index.forward = new SortedRecordFile(new File(directory, FORWARD_FILE_NAME), 0, RECORD_LENGTH);
+        index.reverse = new SortedRecordFile(new File(directory, REVERSE_FILE_NAME), 0, RECORD_LENGTH);
+        logger.info("Opened mapping index " + directory + ": " + index.forward.getNumRecords() + " forward and "
+                + index.reverse.getNumRecords() + " reverse mappings");
+        return index;
+    }
+
+    /**
+     * @return true if the mappings from one database to the other can be resolved with the index (the databases are
+     * named as in the mapping service)
+     */
+    public boolean supports(String from, String to) {
+        if (isUniprotAccession(from)) {
+            return isUniprotAccession(to) || typeOf(to) != 0;
+        }
+        return ProteinAccessionMappingsFinder.UNIPROT_KB_ACC_TAG.equals(to) && typeOf(from) != 0;
+    }
+
+    /**
+     * @return the mappings of the accessions that have any, as the mapping service would answer them
+     */
+    public Map<String, TreeSet<String>> getMappings(String from, String to, Collection<String> accessions) {
+        if (!supports(from, to)) {
+            throw new IllegalArgumentException("Mappings from " + from + " to " + to + " are not in the index");
+        }
+        Map<String, TreeSet<String>> res = new HashMap<String, TreeSet<String>>();
+        byte[] probe = new byte[PREFIX_LENGTH];
+        for (String accession : accessions) {
+            TreeSet<String> mappings = new TreeSet<String>();
+            if (isUniprotAccession(from) && isUniprotAccession(to)) {
+                // a UniProt accession maps to itself if it is known
+                if (encodeKey(accession, probe) && forward.matches(forward.lowerBound(probe, KEY_LENGTH), probe, KEY_LENGTH)) {
+                    mappings.add(accession);
+                }
+            } else if (isUniprotAccession(from)) {
+                lookup(forward, accession, typeOf(to), probe, mappings);
+            } else {
+                lookup(reverse, accession, typeOf(from), probe, mappings);
+                if (mappings.isEmpty() && hasVersion(accession)) {
+                    // the dump may not have the same version of the identifier
+                    lookup(reverse, withoutVersion(accession), typeOf(from), probe, mappings);
+                }
+            }
+            if (mappings.size() > 0) {
+                res.put(accession, mappings);
+            }
+        }
+        return res;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Releases the index. The mapped pages are freed once the buffers are garbage collected
+     */
+    public void close() {
+        forward = null;
+        reverse = null;
+    }
+
+    private static boolean isUniprotAccession(String db) {
+        return ProteinAccessionMappingsFinder.UNIPROT_KB_ACC_TAG.equals(db) || ProteinAccessionMappingsFinder.UNIPROT_KB_ACC_ID_TAG.equals(db);
+    }
+
+    /**
+     * @return the record type of a mapping service database, 0 if it is not in the index
+     */
+    static byte typeOf(String db) {
+        if (ProteinAccessionMappingsFinder.UNIPROT_KB_ID_TAG.equals(db)) {
+            return UNIPROT_ID_TYPE;
+        } else if (ProteinAccessionMappingsFinder.ENSMBL_PROTEIN_TAG.equals(db)) {
+            return ENSEMBL_TYPE;
+        } else if (ProteinAccessionMappingsFinder.REF_SEQ_PROTEIN_TAG.equals(db)) {
+            return REFSEQ_TYPE;
+        } else if (ProteinAccessionMappingsFinder.UNI_PARC_TAG.equals(db)) {
+            return UNIPARC_TYPE;
+        }
+        return 0;
+    }
+
+    static boolean hasVersion(String identifier) {
+        return identifier.lastIndexOf('.') > 0;
+    }
+
+    static String withoutVersion(String identifier) {
+        return identifier.substring(0, identifier.lastIndexOf('.'));
+    }
+
+    /**
+     * Writes the key padded with zeros at the start of the buffer
+     *
+     * @return false if the key does not fit or is not ASCII
+     */
+    static boolean encodeKey(String key, byte[] buffer) {
+        return encode(key, buffer, 0, KEY_LENGTH);
+    }
+
+    static boolean encode(String identifier, byte[] buffer, int offset, int length) {
+        return SortedRecordFile.encodeAscii(identifier, buffer, offset, length);
+    }
+
+    /**
+     * Adds the values of the records with the given key and type to the result
+     */
+    private static void lookup(SortedRecordFile records, String key, byte type, byte[] probe, TreeSet<String> res) {
+        if (!encodeKey(key, probe)) {
+            return;
+        }
+        probe[KEY_LENGTH] = type;
+        for (long record = records.lowerBound(probe, PREFIX_LENGTH); records.matches(record, probe, PREFIX_LENGTH); record++) {
+            res.add(records.getString(record, PREFIX_LENGTH, VALUE_LENGTH));
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.mappings;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.ExternalRecordSorter;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * @version $Id$
+ *
+ * Builds a ProteinMappingIndex from a UniProt idmapping dump (idmapping.dat or idmapping.dat.gz, one tab separated
+ * 'UniProt accession, identifier type, identifier' line per mapping). Only the UniProtKB-ID, Ensembl_PRO, RefSeq and
+ * UniParc lines are kept.
+ *
+ * The dump does not fit in memory, so the records are sorted with an ExternalRecordSorter, in runs of
+ * maxRecordsInMemory that are written to temporary files and merged at the end. The new index replaces the old one
+ * only once it is complete.
+ */
+public class ProteinMappingIndexImporter {
+
+    private static Logger logger = LoggerFactory.getLogger(ProteinMappingIndexImporter.class.getName());
+
+    private static final Charset DUMP_CHARSET = Charset.forName("US-ASCII");
+    private static final String SEPARATOR = "\t";
+    private static final int DEFAULT_MAX_RECORDS_IN_MEMORY = 1000000;
+    private static final int LOG_EVERY_LINES = 10000000;
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+
+    private final File directory;
+    private int maxRecordsInMemory = DEFAULT_MAX_RECORDS_IN_MEMORY;
+
+    private long numLines = 0;
+    private long numSkippedLines = 0;
+
+    /**
+     * @param directory where the index is written
+     */
+    public ProteinMappingIndexImporter(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param maxRecordsInMemory records sorted in memory at once, per index file
+     */
+    public void setMaxRecordsInMemory(int maxRecordsInMemory) {
+        this.maxRecordsInMemory = Math.max(1, maxRecordsInMemory);
+    }
+
+    public void importIdMapping(File idMappingFile) throws IOException {
+        long startTime = System.currentTimeMillis();
+        directory.mkdirs();
+        File runsDirectory = new File(directory, "runs-" + startTime);
+        if (!runsDirectory.mkdirs()) {
+            throw new IOException("Could not create the temporary directory " + runsDirectory);
+        }
+        try {
+            ExternalRecordSorter forwardRuns = new ExternalRecordSorter(runsDirectory, "forward", ProteinMappingIndex.RECORD_LENGTH, maxRecordsInMemory);
+            ExternalRecordSorter reverseRuns = new ExternalRecordSorter(runsDirectory, "reverse", ProteinMappingIndex.RECORD_LENGTH, maxRecordsInMemory);
+            readDump(idMappingFile, forwardRuns, reverseRuns);
+            logger.info("Read " + numLines + " lines from " + idMappingFile + " (" + numSkippedLines + " skipped), merging "
+                    + forwardRuns.getNumRuns() + " forward and " + reverseRuns.getNumRuns() + " reverse sorted runs");
+
+            File forwardFile = new File(directory, ProteinMappingIndex.FORWARD_FILE_NAME);
+            File reverseFile = new File(directory, ProteinMappingIndex.REVERSE_FILE_NAME);
+            File newForwardFile = new File(directory, ProteinMappingIndex.FORWARD_FILE_NAME + ".new");
+            File newReverseFile = new File(directory, ProteinMappingIndex.REVERSE_FILE_NAME + ".new");
+            long numForward = forwardRuns.finish(newForwardFile, new byte[0]);
+            long numReverse = reverseRuns.finish(newReverseFile, new byte[0]);
+            replace(newForwardFile, forwardFile);
+            replace(newReverseFile, reverseFile);
+
+            logger.info("Imported " + numForward + " forward and " + numReverse + " reverse mappings into " + directory
+                    + " in " + (System.currentTimeMillis() - startTime) / 1000 + " s");
+        } finally {
+            File[] runFiles = runsDirectory.listFiles();
+            if (runFiles != null) {
+                for (File runFile : runFiles) {
+                    runFile.delete();
+                }
+            }
+            runsDirectory.delete();
+        }
+    }
+
+    private void readDump(File idMappingFile, ExternalRecordSorter forwardRuns, ExternalRecordSorter reverseRuns) throws IOException {
+        InputStream inputStream = new FileInputStream(idMappingFile);
+        if (idMappingFile.getName().endsWith(".gz")) {
+            inputStream = new GZIPInputStream(inputStream, IO_BUFFER_SIZE);
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, DUMP_CHARSET), IO_BUFFER_SIZE);
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                numLines++;
+                if (numLines % LOG_EVERY_LINES == 0) {
+                    logger.info("Read " + numLines + " lines from " + idMappingFile);
+                }
+                String[] columns = line.split(SEPARATOR);
+                if (columns.length < 3) {
+                    numSkippedLines++;
+                    continue;
+                }
+                byte type = typeOf(columns[1]);
+                if (type == 0) {
+                    continue;
+                }
+                String accession = columns[0];
+                String identifier = columns[2];
+                boolean added = addRecord(forwardRuns, accession, type, identifier);
+                added = addRecord(reverseRuns, identifier, type, accession) && added;
+                if ((type == ProteinMappingIndex.ENSEMBL_TYPE || type == ProteinMappingIndex.REFSEQ_TYPE) && ProteinMappingIndex.hasVersion(identifier)) {
+                    // accessions are often given without the version
+                    addRecord(reverseRuns, ProteinMappingIndex.withoutVersion(identifier), type, accession);
+                }
+                if (!added) {
+                    numSkippedLines++;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return the record type of an idmapping identifier type, 0 if it is not kept in the index
+     */
+    private static byte typeOf(String idMappingType) {
+        if ("UniProtKB-ID".equals(idMappingType)) {
+            return ProteinMappingIndex.UNIPROT_ID_TYPE;
+        } else if ("Ensembl_PRO".equals(idMappingType)) {
+            return ProteinMappingIndex.ENSEMBL_TYPE;
+        } else if ("RefSeq".equals(idMappingType)) {
+            return ProteinMappingIndex.REFSEQ_TYPE;
+        } else if ("UniParc".equals(idMappingType)) {
+            return ProteinMappingIndex.UNIPARC_TYPE;
+        }
+        return 0;
+    }
+
+    private static void replace(File newFile, File file) throws IOException {
+        if (!newFile.renameTo(file)) {
+            // some platforms do not rename over an existing file
+            if (!file.delete() || !newFile.renameTo(file)) {
+                throw new IOException("Could not replace " + file + " with " + newFile);
+            }
+        }
+    }
+
+    /**
+     * @return false if the identifiers do not fit in a record
+     */
+    private static boolean addRecord(ExternalRecordSorter runs, String key, byte type, String value) throws IOException {
+        byte[] record = new byte[ProteinMappingIndex.RECORD_LENGTH];
+        if (!ProteinMappingIndex.encodeKey(key, record)
+                || !ProteinMappingIndex.encode(value, record, ProteinMappingIndex.PREFIX_LENGTH, ProteinMappingIndex.VALUE_LENGTH)) {
+            return false;
+        }
+        record[ProteinMappingIndex.KEY_LENGTH] = type;
+        runs.add(record);
+        return true;
+    }
+
+}
@@ -4,6 +4,7 @@ import org.apache.solr.client.solrj.beans.Field;
 import uk.ac.ebi.pride.archive.dataprovider.identification.ProteinDetailProvider;
 import uk.ac.ebi.pride.archive.dataprovider.identification.ProteinReferenceProvider;
 import uk.ac.ebi.pride.proteincatalogindex.search.util.ProteinDetailUtils;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.ProteinSequenceHash;
 
 import java.util.List;
 import java.util.Set;
@@ -30,6 +31,9 @@ public class ProteinIdentified implements ProteinReferenceProvider, ProteinDetai
     @Field(ProteinIdentifiedFields.INFERRED_SEQUENCE)
     private String inferredSequence;
 
+    @Field(ProteinIdentifiedFields.INFERRED_SEQUENCE_HASH)
+    private String inferredSequenceHash;
+
     @Field(ProteinIdentifiedFields.DESCRIPTION)
     private List<String> description;
 
@@ -75,8 +79,20 @@ public class ProteinIdentified implements ProteinReferenceProvider, ProteinDetai
         return inferredSequence;
     }
 
+    /**
+     * Sets the sequence and its hash
+     */
     public void setInferredSequence(String inferredSequence) {
         this.inferredSequence = inferredSequence;
+        this.inferredSequenceHash = ProteinSequenceHash.hash(inferredSequence);
+    }
+
+    public String getInferredSequenceHash() {
+        return inferredSequenceHash;
+    }
+
+    public void setInferredSequenceHash(String inferredSequenceHash) {
+        this.inferredSequenceHash = inferredSequenceHash;
     }
 
     public List<String> getDescription() {
@@ -11,6 +11,7 @@ public class ProteinIdentifiedFields {
     public static final String ENSEMBL_MAPPING = "ensembl_mapping";
     public static final String OTHER_MAPPINGS = "other_mappings";
     public static final String INFERRED_SEQUENCE = "inferred_sequence";
+    public static final String INFERRED_SEQUENCE_HASH = "inferred_sequence_hash";
     public static final String DESCRIPTION = "description";
 
 }
@@ -0,0 +1,138 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.service;
+
+import org.apache.solr.client.solrj.impl.BinaryRequestWriter;
+import org.apache.solr.client.solrj.impl.ConcurrentUpdateSolrServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ebi.pride.proteincatalogindex.search.model.ProteinIdentified;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @version $Id$
+ *
+ * Loads proteins into the catalog as fast as possible, for full rebuilds. Updates are queued and streamed to the
+ * server over several connections at the same time, in binary format and without intermediate commits. finish()
+ * waits for everything to be sent, commits once and optionally optimizes the index.
+ *
+ * Update errors happen in the background threads, so they are recorded and thrown by the next add() and by
+ * finish(), as an IllegalStateException with the first error as its cause. Once anything has failed no more proteins
+ * are loaded: a rebuild with missing proteins must fail instead of going on.
+ */
+public class ProteinCatalogBulkLoader {
+
+    private static Logger logger = LoggerFactory.getLogger(ProteinCatalogBulkLoader.class.getName());
+
+    private final String solrUrl;
+    private final ConcurrentUpdateSolrServer server;
+
+    private final AtomicLong numDocuments = new AtomicLong();
+    private final AtomicLong numErrors = new AtomicLong();
+    private final AtomicReference<Throwable> firstError = new AtomicReference<Throwable>();
+    private final long startTime;
+    private volatile long endTime;
+
+    /**
+     * @param solrUrl the protein catalog core url
+     * @param queueSize number of update requests that can be waiting to be sent
+     * @param numThreads number of connections sending updates at the same time
+     */
+    public ProteinCatalogBulkLoader(String solrUrl, int queueSize, int numThreads) {
+        this.solrUrl = solrUrl;
+        this.server = new ConcurrentUpdateSolrServer(solrUrl, queueSize, numThreads) {
+            @Override
+            public void handleError(Throwable ex) {
+                recordError(ex);
+            }
+        };
+        this.server.setRequestWriter(new BinaryRequestWriter());
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Queues the proteins to be sent
+     *
+     * @throws IllegalStateException if these or any previous proteins could not be sent
+     */
+    public void add(Collection<ProteinIdentified> proteinsIdentified) {
+        checkNotFailed();
+        try {
+            server.addBeans(proteinsIdentified);
+            numDocuments.addAndGet(proteinsIdentified.size());
+        } catch (Exception e) {
+            recordError(e);
+        }
+        checkNotFailed();
+    }
+
+    /**
+     * Waits for all the queued proteins to be sent, commits them and releases the connections. The loader cannot be
+     * used afterwards.
+     *
+     * @param optimize true to optimize the index after the commit
+     * @throws IllegalStateException if any of the proteins could not be sent or the commit failed
+     */
+    public void finish(boolean optimize) {
+        try {
+            server.blockUntilFinished();
+            if (hasFailed()) {
+                logger.error("Bulk load to " + solrUrl + " had " + numErrors.get() + " errors, the first one was: " + firstError.get());
+            }
+            // commit anyway, so the proteins that did get there are kept
+            logger.info("Committing bulk load...");
+            server.commit();
+            if (optimize) {
+                logger.info("Optimizing protein catalog...");
+                server.optimize();
+            }
+        } catch (Exception e) {
+            recordError(e);
+        } finally {
+            endTime = System.currentTimeMillis();
+            server.shutdown();
+        }
+        logger.info("Bulk load finished: " + this);
+
+        checkNotFailed();
+    }
+
+    public boolean hasFailed() {
+        return numErrors.get() > 0;
+    }
+
+    public long getNumDocuments() {
+        return numDocuments.get();
+    }
+
+    public long getNumErrors() {
+        return numErrors.get();
+    }
+
+    /**
+     * @return documents sent per second since the loader was created
+     */
+    public double getDocumentsPerSecond() {
+        long elapsedMillis = ((endTime > 0) ? endTime : System.currentTimeMillis()) - startTime;
+        return (elapsedMillis > 0) ? numDocuments.get() * 1000.0 / elapsedMillis : 0.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d documents, %.2f docs/s, %d errors", getNumDocuments(), getDocumentsPerSecond(), getNumErrors());
+    }
+
+    private void checkNotFailed() {
+        if (hasFailed()) {
+            throw new IllegalStateException("Bulk load to " + solrUrl + " failed with " + numErrors.get() + " errors", firstError.get());
+        }
+    }
+
+    private void recordError(Throwable error) {
+        numErrors.incrementAndGet();
+        firstError.compareAndSet(null, error);
+        logger.error("Bulk load update to " + solrUrl + " failed: " + error.getMessage());
+    }
+
+}
@@ -2,34 +2,85 @@ package uk.ac.ebi.pride.proteincatalogindex.search.service;
 
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.beans.DocumentObjectBinder;
 import org.apache.solr.client.solrj.response.SolrPingResponse;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.solr.UncategorizedSolrException;
 import org.springframework.stereotype.Service;
 import uk.ac.ebi.pride.proteincatalogindex.search.model.ProteinIdentified;
+import uk.ac.ebi.pride.proteincatalogindex.search.model.ProteinIdentifiedFields;
 import uk.ac.ebi.pride.proteincatalogindex.search.service.repository.SolrProteinCatalogRepository;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.CircuitBreaker;
 
-import java.util.Collection;
-import java.util.LinkedList;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * @author Jose A. Dianes
  * @version $Id$
+ *
+ * By default each save sends the proteins and commits. In buffered mode saved proteins are accumulated across calls
+ * and sent when the buffer reaches a number of documents, a size in bytes or an age, using commitWithin so the
+ * server decides when to make them visible (no hard commit per batch). In this mode save returns true once the
+ * proteins are buffered, and the SaveListener (if any) is told once they have been sent. Proteins of a failed flush
+ * are put back in the buffer to be sent by the next one, and close fails if any of them cannot be sent in the end.
+ *
+ * During a bulk load (see startBulkLoad) saved proteins go to the bulk loader instead.
+ *
+ * update sends atomic updates that only set the given fields of existing proteins, so the rest of the document (e.g.
+ * the sequence) is not sent again. They go through the same buffer and retries as saves.
  */
 @Service
 public class ProteinCatalogIndexService {
 
     private static Logger logger = LoggerFactory.getLogger(ProteinCatalogIndexService.class.getName());
 
-    private static final int NUM_TRIES = 10;
-    private static final int SECONDS_TO_WAIT = 30;
+    private static final int DEFAULT_MAX_TRIES = 10;
+    // as long as the old 10 tries 30 seconds apart
+    private static final long DEFAULT_MAX_RETRY_MILLIS = 5 * 60 * 1000;
+    // so a save held back by the circuit breaker does not spin
+    private static final long MIN_WAIT_MILLIS = 100;
     private static final long MAX_ELAPSED_TIME_PING_QUERY = 10000;
+    private static final int DEFAULT_MAX_CONCURRENT_WRITERS = 4;
+    private static final int DEFAULT_MAX_BUFFERED_DOCUMENTS = 1000;
+    private static final long DEFAULT_MAX_BUFFERED_BYTES = 16 * 1024 * 1024;
+    private static final long DEFAULT_MAX_BUFFERED_MILLIS = 30000;
+    private static final int DEFAULT_COMMIT_WITHIN_MILLIS = 60000;
+    // rough per document overhead when estimating the buffer size
+    private static final int DOCUMENT_OVERHEAD_BYTES = 64;
+    private static final String ATOMIC_UPDATE_SET = "set";
 
     private SolrServer proteinCatalogServer;
 
     private SolrProteinCatalogRepository solrProteinCatalogRepository;
 
+    // shared by all the threads saving through this service
+    private CircuitBreaker circuitBreaker = new CircuitBreaker("solr-protein-catalog");
+    private int maxTries = DEFAULT_MAX_TRIES;
+    private long maxRetryMillis = DEFAULT_MAX_RETRY_MILLIS;
+
+    // caps the number of threads sending updates to the server at the same time
+    private Semaphore writePermits = new Semaphore(DEFAULT_MAX_CONCURRENT_WRITERS, true);
+
+    // buffered mode
+    private boolean bufferedWrites = false;
+    private int maxBufferedDocuments = DEFAULT_MAX_BUFFERED_DOCUMENTS;
+    private long maxBufferedBytes = DEFAULT_MAX_BUFFERED_BYTES;
+    private long maxBufferedMillis = DEFAULT_MAX_BUFFERED_MILLIS;
+    private int commitWithinMillis = DEFAULT_COMMIT_WITHIN_MILLIS;
+
+    private final Object bufferLock = new Object();
+    private List<SolrInputDocument> buffer = new ArrayList<SolrInputDocument>();
+    private List<Runnable> bufferedListeners = new ArrayList<Runnable>();
+    private long bufferedBytes = 0;
+    private long bufferStartTime = 0;
+    private ScheduledExecutorService bufferFlusher;
+
+    private volatile ProteinCatalogBulkLoader bulkLoader;
+
     public ProteinCatalogIndexService(SolrProteinCatalogRepository solrProteinIdentificationRepository, SolrServer proteinCatalogServer) {
         this.proteinCatalogServer = proteinCatalogServer;
         this.solrProteinCatalogRepository = solrProteinIdentificationRepository;
@@ -39,6 +90,59 @@ public class ProteinCatalogIndexService {
         this.solrProteinCatalogRepository = solrProteinIdentificationRepository;
     }
 
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * @param maxTries requests sent per save before giving up. Saves the circuit breaker holds back are not counted
+     */
+    public void setMaxTries(int maxTries) {
+        this.maxTries = maxTries;
+    }
+
+    /**
+     * @param maxRetryMillis time a save keeps trying (or waiting for the circuit breaker) before giving up
+     */
+    public void setMaxRetryMillis(long maxRetryMillis) {
+        this.maxRetryMillis = maxRetryMillis;
+    }
+
+    public void setMaxConcurrentWriters(int maxConcurrentWriters) {
+        this.writePermits = new Semaphore(maxConcurrentWriters, true);
+    }
+
+    public void setBufferedWrites(boolean bufferedWrites) {
+        this.bufferedWrites = bufferedWrites;
+    }
+
+    public void setMaxBufferedDocuments(int maxBufferedDocuments) {
+        this.maxBufferedDocuments = maxBufferedDocuments;
+    }
+
+    public void setMaxBufferedBytes(long maxBufferedBytes) {
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    public void setMaxBufferedMillis(long maxBufferedMillis) {
+        this.maxBufferedMillis = maxBufferedMillis;
+    }
+
+    public void setCommitWithinMillis(int commitWithinMillis) {
+        this.commitWithinMillis = commitWithinMillis;
+    }
+
+    /**
+     * Told when saved proteins have reached the server (in buffered mode, when the buffer they are in is sent)
+     */
+    public interface SaveListener {
+        void saved(Collection<ProteinIdentified> proteinsIdentified);
+    }
+
     public boolean save(ProteinIdentified proteinIdentified) {
         Collection<ProteinIdentified> pii = new LinkedList<ProteinIdentified>();
         pii.add(proteinIdentified);
@@ -46,41 +150,37 @@ public class ProteinCatalogIndexService {
     }
 
     public boolean save(Collection<ProteinIdentified> proteinsIdentified) {
+        return save(proteinsIdentified, null);
+    }
+
+    /**
+     * @param listener told once the proteins have been sent (may be null)
+     * @return false if the proteins could not be sent. In buffered mode true means they are buffered, only the
+     * listener tells when they are sent
+     * @throws IllegalStateException during a bulk load that has failed
+     */
+    public boolean save(final Collection<ProteinIdentified> proteinsIdentified, final SaveListener listener) {
         if (proteinsIdentified!= null && proteinsIdentified.size()>0) {
-            int numTries = 0;
-            boolean succeed = false;
-            while (numTries < NUM_TRIES && !succeed) {
-                try {
-                    SolrPingResponse pingResponse = this.proteinCatalogServer.ping();
-                    if ((pingResponse.getStatus() == 0) && pingResponse.getElapsedTime() < MAX_ELAPSED_TIME_PING_QUERY) {
-                        this.proteinCatalogServer.addBeans(proteinsIdentified);
-                        this.proteinCatalogServer.commit();
-                        succeed = true;
-                    } else {
-                        logger.error("[TRY " + numTries + " Solr server too busy!");
-                        logger.error("PING response status: " + pingResponse.getStatus());
-                        logger.error("PING elapsed time: " + pingResponse.getElapsedTime());
-                        logger.error("Re-trying in " + SECONDS_TO_WAIT + " seconds...");
-                        waitSecs();
+            Runnable onWritten = null;
+            if (listener != null) {
+                onWritten = new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.saved(proteinsIdentified);
                     }
-                } catch (SolrServerException e) {
-                    logger.error("[TRY " + numTries + "] There are server problems: " + e.getCause());
-                    logger.error("Re-trying in " + SECONDS_TO_WAIT + " seconds...");
-                    waitSecs();
-                } catch (UncategorizedSolrException e) {
-                    logger.error("[TRY " + numTries + "] There are server problems: " + e.getCause());
-                    logger.error("Re-trying in " + SECONDS_TO_WAIT + " seconds...");
-                    waitSecs();
-                } catch (Exception e) {
-                    logger.error("[TRY " + numTries + "] There are UNKNOWN problems: " + e.getCause());
-                    e.printStackTrace();
-                    logger.error("Re-trying in " + SECONDS_TO_WAIT + " seconds...");
-                    waitSecs();
+                };
+            }
+            ProteinCatalogBulkLoader currentBulkLoader = bulkLoader;
+            if (currentBulkLoader != null) {
+                currentBulkLoader.add(proteinsIdentified);
+                if (onWritten != null) {
+                    // the loaded proteins are committed together by finishBulkLoad
+                    onWritten.run();
                 }
-                numTries++;
+                return true;
+            } else {
+                return write(toDocuments(proteinsIdentified), onWritten);
             }
-
-            return succeed;
         } else {
             logger.error("Protein Catalog Index Service [reliable-save]: Trying to save an empty protein list!");
 
@@ -88,6 +188,293 @@ public class ProteinCatalogIndexService {
         }
     }
 
+    /**
+     * Sets the given fields of proteins already in the catalog to the values they have in the passed proteins
+     * (fields with no value are removed). Other fields are left as they are.
+     *
+     * @param fields the fields to update, see ProteinIdentifiedFields
+     */
+    public boolean update(Collection<ProteinIdentified> proteinsIdentified, String... fields) {
+        if (proteinsIdentified!= null && proteinsIdentified.size()>0) {
+            return write(toPartialUpdateDocuments(proteinsIdentified, fields), null);
+        } else {
+            logger.error("Protein Catalog Index Service [reliable-update]: Trying to update an empty protein list!");
+
+            return false;
+        }
+    }
+
+    private boolean write(List<SolrInputDocument> documents, Runnable onWritten) {
+        if (bufferedWrites) {
+            return buffer(documents, onWritten);
+        }
+        boolean succeed = send(documents, true);
+        if (succeed && onWritten != null) {
+            onWritten.run();
+        }
+        return succeed;
+    }
+
+    private List<SolrInputDocument> toDocuments(Collection<ProteinIdentified> proteinsIdentified) {
+        DocumentObjectBinder binder = this.proteinCatalogServer.getBinder();
+        List<SolrInputDocument> res = new ArrayList<SolrInputDocument>(proteinsIdentified.size());
+        for (ProteinIdentified proteinIdentified : proteinsIdentified) {
+            res.add(binder.toSolrInputDocument(proteinIdentified));
+        }
+        return res;
+    }
+
+    private List<SolrInputDocument> toPartialUpdateDocuments(Collection<ProteinIdentified> proteinsIdentified, String... fields) {
+        DocumentObjectBinder binder = this.proteinCatalogServer.getBinder();
+        List<SolrInputDocument> res = new ArrayList<SolrInputDocument>(proteinsIdentified.size());
+        for (ProteinIdentified proteinIdentified : proteinsIdentified) {
+            SolrInputDocument fullDocument = binder.toSolrInputDocument(proteinIdentified);
+            SolrInputDocument document = new SolrInputDocument();
+            document.addField(ProteinIdentifiedFields.ACCESSION, proteinIdentified.getAccession());
+            for (String field : fields) {
+                Map<String, Object> operation = new HashMap<String, Object>(1);
+                operation.put(ATOMIC_UPDATE_SET, fullDocument.getFieldValues(field));
+                document.addField(field, operation);
+            }
+            res.add(document);
+        }
+        return res;
+    }
+
+    /**
+     * Sends all saved proteins to the bulk loader until finishBulkLoad is called
+     */
+    public void startBulkLoad(ProteinCatalogBulkLoader bulkLoader) {
+        flush();
+        this.bulkLoader = bulkLoader;
+    }
+
+    /**
+     * Finishes the current bulk load, committing everything loaded, and goes back to the normal save mode
+     *
+     * @param optimize true to optimize the index after the commit
+     * @throws IllegalStateException if any of the proteins could not be loaded
+     */
+    public void finishBulkLoad(boolean optimize) {
+        ProteinCatalogBulkLoader currentBulkLoader = bulkLoader;
+        bulkLoader = null;
+        if (currentBulkLoader != null) {
+            currentBulkLoader.finish(optimize);
+        }
+    }
+
+    /**
+     * Sends any buffered proteins to the server. They will be visible once the server commits them (commitWithin).
+     * If they cannot be sent they go back to the buffer, ahead of those saved in the meantime.
+     *
+     * @return false if the proteins could not be sent
+     */
+    public boolean flush() {
+        List<SolrInputDocument> proteinsToSend;
+        List<Runnable> listenersToCall;
+        long bytesToSend;
+        synchronized (bufferLock) {
+            proteinsToSend = buffer;
+            listenersToCall = bufferedListeners;
+            bytesToSend = bufferedBytes;
+            buffer = new ArrayList<SolrInputDocument>();
+            bufferedListeners = new ArrayList<Runnable>();
+            bufferedBytes = 0;
+        }
+        if (proteinsToSend.isEmpty()) {
+            return true;
+        }
+        logger.debug("Flushing " + proteinsToSend.size() + " buffered proteins");
+        boolean succeed = send(proteinsToSend, false);
+        if (succeed) {
+            for (Runnable listener : listenersToCall) {
+                listener.run();
+            }
+        } else {
+            logger.error("Could not send " + proteinsToSend.size() + " buffered proteins, they are kept in the buffer");
+            synchronized (bufferLock) {
+                proteinsToSend.addAll(buffer);
+                listenersToCall.addAll(bufferedListeners);
+                buffer = proteinsToSend;
+                bufferedListeners = listenersToCall;
+                bufferedBytes = bufferedBytes + bytesToSend;
+                bufferStartTime = System.currentTimeMillis();
+            }
+        }
+        return succeed;
+    }
+
+    /**
+     * Sends any buffered proteins and commits them, so they are durable and visible. Saving after closing is still
+     * possible, but needs another close at the end.
+     *
+     * @return false if the proteins could not be committed
+     * @throws IllegalStateException if any buffered proteins could not be sent (they are still in the buffer)
+     */
+    public boolean close() {
+        synchronized (bufferLock) {
+            if (bufferFlusher != null) {
+                bufferFlusher.shutdownNow();
+                bufferFlusher = null;
+            }
+        }
+        if (!flush()) {
+            int numUnsent;
+            synchronized (bufferLock) {
+                numUnsent = buffer.size();
+            }
+            throw new IllegalStateException("Could not send " + numUnsent + " buffered proteins to the protein catalog");
+        }
+        boolean succeed = true;
+        if (bufferedWrites) {
+            try {
+                this.proteinCatalogServer.commit();
+            } catch (Exception e) {
+                logger.error("Could not commit the protein catalog: " + e.getMessage());
+                succeed = false;
+            }
+        }
+        return succeed;
+    }
+
+    private boolean buffer(Collection<SolrInputDocument> documents, Runnable onWritten) {
+        boolean mustFlush;
+        synchronized (bufferLock) {
+            if (buffer.isEmpty()) {
+                bufferStartTime = System.currentTimeMillis();
+            }
+            buffer.addAll(documents);
+            if (onWritten != null) {
+                bufferedListeners.add(onWritten);
+            }
+            for (SolrInputDocument document : documents) {
+                bufferedBytes = bufferedBytes + DOCUMENT_OVERHEAD_BYTES;
+                for (SolrInputField field : document) {
+                    bufferedBytes = bufferedBytes + estimateSize(field.getValue());
+                }
+            }
+            mustFlush = buffer.size() >= maxBufferedDocuments || bufferedBytes >= maxBufferedBytes;
+            startBufferFlusher();
+        }
+        return !mustFlush || flush();
+    }
+
+    /**
+     * Flushes the buffer periodically once it gets too old, so proteins are not held back when saves stop coming
+     */
+    private void startBufferFlusher() {
+        if (bufferFlusher == null) {
+            bufferFlusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "protein-catalog-buffer-flusher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            long period = Math.max(1, maxBufferedMillis / 2);
+            bufferFlusher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    boolean tooOld;
+                    synchronized (bufferLock) {
+                        tooOld = !buffer.isEmpty() && System.currentTimeMillis() - bufferStartTime >= maxBufferedMillis;
+                    }
+                    if (tooOld) {
+                        flush();
+                    }
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static long estimateSize(Object value) {
+        long size = 0;
+        if (value instanceof CharSequence) {
+            size = ((CharSequence) value).length();
+        } else if (value instanceof Collection) {
+            for (Object item : (Collection<?>) value) {
+                size = size + estimateSize(item);
+            }
+        } else if (value instanceof Map) {
+            for (Object item : ((Map<?, ?>) value).values()) {
+                size = size + estimateSize(item);
+            }
+        } else if (value != null) {
+            size = 8;
+        }
+        return size;
+    }
+
+    /**
+     * Sends the proteins to the server, re-trying if the server is not available. The server is only pinged when the
+     * circuit breaker has not seen it working recently, and failed tries wait as long as the breaker says.
+     *
+     * @param hardCommit true to commit straight away, false to let the server commit within commitWithinMillis
+     */
+    private boolean send(Collection<SolrInputDocument> documents, boolean hardCommit) {
+        // requests held back by the circuit breaker do not count as tries, only the deadline limits them
+        long deadline = System.currentTimeMillis() + maxRetryMillis;
+        int numTries = 0;
+        boolean succeed = false;
+        while (numTries < maxTries && !succeed && System.currentTimeMillis() < deadline) {
+            if (!circuitBreaker.allowRequest()) {
+                logger.error("[TRY " + numTries + "] Solr server not available. " + circuitBreaker);
+                if (!waitMillis(Math.max(MIN_WAIT_MILLIS, circuitBreaker.getMillisUntilRetry()), deadline)) {
+                    break;
+                }
+                continue;
+            }
+            try {
+                if (circuitBreaker.isHealthCheckDue()) {
+                    SolrPingResponse pingResponse = this.proteinCatalogServer.ping();
+                    if ((pingResponse.getStatus() != 0) || pingResponse.getElapsedTime() >= MAX_ELAPSED_TIME_PING_QUERY) {
+                        throw new SolrServerException("Solr server too busy! PING response status: " + pingResponse.getStatus() + ", elapsed time: " + pingResponse.getElapsedTime());
+                    }
+                }
+                long startTime = System.currentTimeMillis();
+                writePermits.acquireUninterruptibly();
+                try {
+                    if (hardCommit) {
+                        this.proteinCatalogServer.add(documents);
+                        this.proteinCatalogServer.commit();
+                    } else {
+                        this.proteinCatalogServer.add(documents, commitWithinMillis);
+                    }
+                } finally {
+                    writePermits.release();
+                }
+                circuitBreaker.recordSuccess(System.currentTimeMillis() - startTime);
+                succeed = true;
+                numTries++;
+            } catch (SolrServerException e) {
+                circuitBreaker.recordFailure();
+                logger.error("[TRY " + numTries + "] There are server problems: " + e.getMessage());
+                numTries++;
+                if (numTries >= maxTries || !retryLater(deadline)) {
+                    break;
+                }
+            } catch (UncategorizedSolrException e) {
+                circuitBreaker.recordFailure();
+                logger.error("[TRY " + numTries + "] There are server problems: " + e.getCause());
+                numTries++;
+                if (numTries >= maxTries || !retryLater(deadline)) {
+                    break;
+                }
+            } catch (Exception e) {
+                circuitBreaker.recordFailure();
+                logger.error("[TRY " + numTries + "] There are UNKNOWN problems: " + e.getCause());
+                e.printStackTrace();
+                numTries++;
+                if (numTries >= maxTries || !retryLater(deadline)) {
+                    break;
+                }
+            }
+        }
+
+        return succeed;
+    }
+
     public void deleteAll() {
         solrProteinCatalogRepository.deleteAll();
     }
@@ -97,11 +484,32 @@ public class ProteinCatalogIndexService {
     }
 
 
-    private void waitSecs() {
+    /**
+     * @return false if the thread was interrupted, so the save must stop
+     */
+    private boolean retryLater(long deadline) {
+        long millis = circuitBreaker.getMillisUntilRetry();
+        logger.error("Re-trying in " + millis + " ms. " + circuitBreaker);
+        return waitMillis(millis, deadline);
+    }
+
+    /**
+     * Waits for the given time, but not past the deadline
+     *
+     * @return false if the thread was interrupted, which is flagged again for the caller
+     */
+    private boolean waitMillis(long millis, long deadline) {
+        long millisToWait = Math.min(millis, deadline - System.currentTimeMillis());
+        if (millisToWait <= 0) {
+            return true;
+        }
         try {
-            Thread.sleep(SECONDS_TO_WAIT * 1000);
-        } catch (InterruptedException e1) {
-            e1.printStackTrace();
+            Thread.sleep(millisToWait);
+            return true;
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while waiting to retry, giving up");
+            Thread.currentThread().interrupt();
+            return false;
         }
     }
 
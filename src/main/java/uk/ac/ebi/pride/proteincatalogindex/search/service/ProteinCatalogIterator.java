@@ -0,0 +1,101 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.service;
+
+import uk.ac.ebi.pride.proteincatalogindex.search.model.ProteinIdentified;
+import uk.ac.ebi.pride.proteincatalogindex.search.model.ProteinIdentifiedFields;
+import uk.ac.ebi.pride.proteincatalogindex.search.service.repository.SolrProteinCatalogRepository;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * @version $Id$
+ *
+ * Goes through the whole catalog in accession order, fetching one page at a time (keyset paging, see
+ * SolrProteinCatalogRepositoryCustom), so only a page of proteins is in memory at any time. Proteins updated while
+ * iterating are neither skipped nor returned twice.
+ */
+public class ProteinCatalogIterator implements Iterator<ProteinIdentified> {
+
+    private final SolrProteinCatalogRepository solrProteinCatalogRepository;
+    private final int pageSize;
+    private final String[] fields;
+
+    private List<ProteinIdentified> page;
+    private int pageIndex = 0;
+    private String lastAccession = null;
+    private boolean lastPage = false;
+
+    /**
+     * @param fields the fields to fetch (all of them if none). The accession is always fetched, as it is the key
+     *               used for paging
+     */
+    public ProteinCatalogIterator(SolrProteinCatalogRepository solrProteinCatalogRepository, int pageSize, String... fields) {
+        this.solrProteinCatalogRepository = solrProteinCatalogRepository;
+        this.pageSize = pageSize;
+        this.fields = withAccession(fields);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (page == null || pageIndex >= page.size()) {
+            fetchNextPage();
+        }
+        return pageIndex < page.size();
+    }
+
+    @Override
+    public ProteinIdentified next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ProteinIdentified protein = page.get(pageIndex++);
+        lastAccession = protein.getAccession();
+        return protein;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return the next page of proteins (empty at the end of the catalog). Proteins already returned by next() are
+     * not included
+     */
+    public List<ProteinIdentified> nextPage() {
+        if (page == null || pageIndex >= page.size()) {
+            fetchNextPage();
+        } else {
+            page = page.subList(pageIndex, page.size());
+        }
+        List<ProteinIdentified> res = page;
+        pageIndex = page.size();
+        if (res.size() > 0) {
+            lastAccession = res.get(res.size() - 1).getAccession();
+        }
+        return res;
+    }
+
+    private void fetchNextPage() {
+        if (lastPage) {
+            page = Collections.emptyList();
+        } else {
+            page = solrProteinCatalogRepository.findAllAfterAccession(lastAccession, pageSize, fields);
+            lastPage = page.size() < pageSize;
+        }
+        pageIndex = 0;
+    }
+
+    private static String[] withAccession(String[] fields) {
+        if (fields == null || fields.length == 0 || Arrays.asList(fields).contains(ProteinIdentifiedFields.ACCESSION)) {
+            return fields;
+        }
+        String[] res = Arrays.copyOf(fields, fields.length + 1);
+        res[fields.length] = ProteinIdentifiedFields.ACCESSION;
+        return res;
+    }
+
+}
@@ -5,11 +5,9 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import uk.ac.ebi.pride.proteincatalogindex.search.model.ProteinIdentified;
 import uk.ac.ebi.pride.proteincatalogindex.search.service.repository.SolrProteinCatalogRepository;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.ProteinSequenceHash;
 
-import java.util.Collection;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.*;
 
 /**
  * @author Jose A. Dianes
@@ -21,6 +19,9 @@ import java.util.List;
 @Service
 public class ProteinCatalogSearchService {
 
+    // hashes per query, well below the boolean clause limit of solr
+    private static final int MAX_SEQUENCE_HASHES_PER_QUERY = 500;
+
     private SolrProteinCatalogRepository solrProteinCatalogRepository;
 
     public ProteinCatalogSearchService(SolrProteinCatalogRepository solrProteinIdentificationRepository) {
@@ -45,6 +46,18 @@ public class ProteinCatalogSearchService {
         return solrProteinCatalogRepository.findByAccessionIn(fixedAccessions);
     }
 
+    /**
+     * Same as findByAccession for a collection of accessions, but only the accession field is retrieved. Useful
+     * for existence checks, where the rest of the document is not needed
+     */
+    public List<ProteinIdentified> findIdsByAccession(Collection<String> accessions) {
+        Collection<String> fixedAccessions = new LinkedList<String>();
+        for (String accession: accessions) {
+            fixedAccessions.add(accession.replaceAll("[:\\]\\[]", "_"));
+        }
+        return solrProteinCatalogRepository.findIdsByAccessionIn(fixedAccessions);
+    }
+
     // find by mapping methods
     public List<ProteinIdentified> findByUniprotMapping(String uniprotMapping) {
         return this.solrProteinCatalogRepository.findByUniprotMapping(uniprotMapping);
@@ -72,15 +85,51 @@ public class ProteinCatalogSearchService {
     }
 
     // Sequence query methods
+    /**
+     * Finds the proteins by the hash of their sequence (see ProteinSequenceHash), keeping those with the same
+     * sequence. Proteins indexed before the hash was added are not found until their hashes are added
+     */
     public List<ProteinIdentified> findBySequence(String sequence) {
-        return this.solrProteinCatalogRepository.findBySequence(sequence);
+        String sequenceHash = ProteinSequenceHash.hash(sequence);
+        if (sequenceHash == null) {
+            return new LinkedList<ProteinIdentified>();
+        }
+        List<ProteinIdentified> res = new LinkedList<ProteinIdentified>();
+        for (ProteinIdentified protein: this.solrProteinCatalogRepository.findBySequenceHash(sequenceHash)) {
+            if (ProteinSequenceHash.sameSequence(sequence, protein.getInferredSequence())) {
+                res.add(protein);
+            }
+        }
+        return res;
     }
     public List<ProteinIdentified> findBySequenceIn(Collection<String> sequences) {
-        return this.solrProteinCatalogRepository.findBySequenceIn(sequences);
+        Set<String> normalisedSequences = new HashSet<String>();
+        Set<String> sequenceHashes = new TreeSet<String>();
+        for (String sequence: sequences) {
+            String normalisedSequence = ProteinSequenceHash.normalise(sequence);
+            if (normalisedSequence != null) {
+                normalisedSequences.add(normalisedSequence);
+                sequenceHashes.add(ProteinSequenceHash.hash(normalisedSequence));
+            }
+        }
+        List<ProteinIdentified> res = new LinkedList<ProteinIdentified>();
+        List<String> hashes = new ArrayList<String>(sequenceHashes);
+        for (int start = 0; start < hashes.size(); start = start + MAX_SEQUENCE_HASHES_PER_QUERY) {
+            List<String> queryHashes = hashes.subList(start, Math.min(start + MAX_SEQUENCE_HASHES_PER_QUERY, hashes.size()));
+            for (ProteinIdentified protein: this.solrProteinCatalogRepository.findBySequenceHashIn(queryHashes)) {
+                if (normalisedSequences.contains(ProteinSequenceHash.normalise(protein.getInferredSequence()))) {
+                    res.add(protein);
+                }
+            }
+        }
+        return res;
     }
 
 
     // find all
+    /**
+     * Loads the whole catalog in memory, use iterateAll or processAll for big catalogs
+     */
     public List<ProteinIdentified> findAll() {
         List<ProteinIdentified> res = new LinkedList<ProteinIdentified>();
         Iterator<ProteinIdentified> it = solrProteinCatalogRepository.findAll().iterator();
@@ -96,5 +145,47 @@ public class ProteinCatalogSearchService {
         return solrProteinCatalogRepository.findAll(pageable);
     }
 
+    /**
+     * Keyset paging sorted by accession, see SolrProteinCatalogRepositoryCustom
+     */
+    public List<ProteinIdentified> findAllAfterAccession(String accession, int pageSize, String... fields) {
+        return solrProteinCatalogRepository.findAllAfterAccession(accession, pageSize, fields);
+    }
+
+    /**
+     * Goes through the whole catalog lazily, one page at a time
+     *
+     * @param fields the fields to fetch (all of them if none)
+     */
+    public ProteinCatalogIterator iterateAll(int pageSize, String... fields) {
+        return new ProteinCatalogIterator(solrProteinCatalogRepository, pageSize, fields);
+    }
+
+    public interface PageHandler {
+        void handle(List<ProteinIdentified> proteins);
+    }
+
+    /**
+     * Passes the whole catalog to the handler, one page at a time
+     *
+     * @param fields the fields to fetch (all of them if none)
+     * @return the number of proteins processed
+     */
+    public long processAll(int pageSize, PageHandler handler, String... fields) {
+        long numProteins = 0;
+        ProteinCatalogIterator proteinIterator = iterateAll(pageSize, fields);
+        List<ProteinIdentified> proteins = proteinIterator.nextPage();
+        while (proteins.size() > 0) {
+            handler.handle(proteins);
+            numProteins = numProteins + proteins.size();
+            proteins = proteinIterator.nextPage();
+        }
+        return numProteins;
+    }
+
+    public long count() {
+        return solrProteinCatalogRepository.count();
+    }
+
 
 }
@@ -13,13 +13,15 @@ import java.util.List;
  *
  * Note: using the Query annotation allows wildcards to go straight into the query
  */
-public interface SolrProteinCatalogRepository extends SolrCrudRepository<ProteinIdentified, String> {
+public interface SolrProteinCatalogRepository extends SolrCrudRepository<ProteinIdentified, String>, SolrProteinCatalogRepositoryCustom {
 
     // Accession query methods
     @Query("id:?0")
     List<ProteinIdentified> findByAccession(String accession);
     @Query("id:(?0)")
     List<ProteinIdentified> findByAccessionIn(Collection<String> accessions);
+    @Query(value = "id:(?0)", fields = { "id" })
+    List<ProteinIdentified> findIdsByAccessionIn(Collection<String> accessions);
 
     // Mapping query methods
     @Query("uniprot_mapping:?0")
@@ -44,5 +46,9 @@ public interface SolrProteinCatalogRepository extends SolrCrudRepository<Protein
     List<ProteinIdentified> findBySequence(String sequence);
     @Query("submitted_sequence:(?0) OR inferred_sequence:(?0)")
     List<ProteinIdentified> findBySequenceIn(Collection<String> sequences);
+    @Query("inferred_sequence_hash:?0")
+    List<ProteinIdentified> findBySequenceHash(String sequenceHash);
+    @Query("inferred_sequence_hash:(?0)")
+    List<ProteinIdentified> findBySequenceHashIn(Collection<String> sequenceHashes);
 
 }
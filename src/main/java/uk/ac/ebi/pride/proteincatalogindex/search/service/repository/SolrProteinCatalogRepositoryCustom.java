@@ -0,0 +1,26 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.service.repository;
+
+import uk.ac.ebi.pride.proteincatalogindex.search.model.ProteinIdentified;
+
+import java.util.List;
+
+/**
+ * @version $Id$
+ *
+ * Repository methods that cannot be expressed as derived or annotated queries
+ */
+public interface SolrProteinCatalogRepositoryCustom {
+
+    /**
+     * Keyset paging over the whole catalog: returns up to pageSize proteins whose accession is strictly greater than
+     * the given one, sorted by accession. The cost of each call does not depend on how far into the catalog we are,
+     * and documents rewritten between calls are neither skipped nor repeated.
+     *
+     * @param accession the last accession of the previous page, or null to start from the beginning
+     * @param pageSize max number of proteins to return
+     * @param fields the fields to retrieve, or none to retrieve all of them
+     * @return the next page of proteins, empty when there are no more
+     */
+    List<ProteinIdentified> findAllAfterAccession(String accession, int pageSize, String... fields);
+
+}
@@ -16,7 +16,10 @@ public class SolrProteinCatalogRepositoryFactory {
     }
 
     public SolrProteinCatalogRepository create() {
-        return new SolrRepositoryFactory(this.solrOperations).getRepository(SolrProteinCatalogRepository.class);
+        return new SolrRepositoryFactory(this.solrOperations).getRepository(
+                SolrProteinCatalogRepository.class,
+                new SolrProteinCatalogRepositoryImpl(this.solrOperations)
+        );
     }
 
 }
@@ -0,0 +1,40 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.service.repository;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.solr.core.SolrOperations;
+import org.springframework.data.solr.core.query.Criteria;
+import org.springframework.data.solr.core.query.SimpleQuery;
+import uk.ac.ebi.pride.proteincatalogindex.search.model.ProteinIdentified;
+import uk.ac.ebi.pride.proteincatalogindex.search.model.ProteinIdentifiedFields;
+
+import java.util.List;
+
+/**
+ * @version $Id$
+ */
+public class SolrProteinCatalogRepositoryImpl implements SolrProteinCatalogRepositoryCustom {
+
+    private SolrOperations solrOperations;
+
+    public SolrProteinCatalogRepositoryImpl(SolrOperations solrOperations) {
+        this.solrOperations = solrOperations;
+    }
+
+    @Override
+    public List<ProteinIdentified> findAllAfterAccession(String accession, int pageSize, String... fields) {
+        Criteria criteria = (accession == null) ?
+                new Criteria(ProteinIdentifiedFields.ACCESSION).isNotNull() :
+                new Criteria(ProteinIdentifiedFields.ACCESSION).greaterThan(accession);
+
+        SimpleQuery query = new SimpleQuery(criteria);
+        query.addSort(new Sort(Sort.Direction.ASC, ProteinIdentifiedFields.ACCESSION));
+        query.setPageRequest(new PageRequest(0, pageSize));
+        if (fields != null && fields.length > 0) {
+            query.addProjectionOnFields(fields);
+        }
+
+        return solrOperations.queryForPage(query, ProteinIdentified.class).getContent();
+    }
+
+}
@@ -3,13 +3,21 @@ package uk.ac.ebi.pride.proteincatalogindex.search.tools;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.springframework.stereotype.Component;
 import uk.ac.ebi.pride.proteincatalogindex.search.indexers.ProteinDetailsIndexer;
 import uk.ac.ebi.pride.proteincatalogindex.search.service.ProteinCatalogIndexService;
 import uk.ac.ebi.pride.proteincatalogindex.search.service.ProteinCatalogSearchService;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.FastaIndex;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.FastaProteinDetailsProvider;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.ProteinBuilder;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author Jose A. Dianes
@@ -26,17 +34,49 @@ public class ProteinDetailsUpdater {
     @Autowired
     private ProteinCatalogIndexService proteinCatalogIndexService;
 
+    @Value("${indexer.details.max.concurrent.requests:4}")
+    private int maxConcurrentDetailRequests;
+
+    @Value("${indexer.details.fasta.files:}")
+    private String fastaFiles;
+
+    @Value("${indexer.details.fasta.index.dir:}")
+    private String fastaIndexDir;
+
+    @Value("${indexer.details.fasta.index.max.records.in.memory:1000000}")
+    private int fastaIndexMaxRecordsInMemory;
+
     public static void main(String[] args) {
         ApplicationContext context = new ClassPathXmlApplicationContext("spring/app-context.xml");
 
         ProteinDetailsUpdater proteinDetailsUpdater = context.getBean(ProteinDetailsUpdater.class);
+        ProteinBuilder.setMaxConcurrentDetailRequests(proteinDetailsUpdater.maxConcurrentDetailRequests);
+
+        if ("index".equals(args[0])) {
+            // one-time indexing of the configured FASTA files
+            proteinDetailsUpdater.indexFastaFiles();
+            return;
+        }
+
+        FastaProteinDetailsProvider localDetailsProvider = proteinDetailsUpdater.openFastaFiles();
+        ProteinBuilder.setLocalDetailsProvider(localDetailsProvider);
 
         if ("all".equals(args[0])) {
             addDetailsToAllExistingProteins(proteinDetailsUpdater);
         } else if ("inc".equals(args[0])) {
             addDetailsToProteinsWithNoDetails(proteinDetailsUpdater);
+        } else if ("hash".equals(args[0])) {
+            addSequenceHashesToAllExistingProteins(proteinDetailsUpdater);
         }
 
+        // send and commit anything still buffered
+        proteinDetailsUpdater.proteinCatalogIndexService.close();
+
+        if (localDetailsProvider != null) {
+            logger.info(localDetailsProvider.toString());
+            ProteinBuilder.setLocalDetailsProvider(null);
+            localDetailsProvider.close();
+        }
 
     }
 
@@ -64,4 +104,67 @@ public class ProteinDetailsUpdater {
         logger.info("Update process completed!");
     }
 
+    private static void addSequenceHashesToAllExistingProteins(ProteinDetailsUpdater proteinDetailsUpdater) {
+        System.out.println("Starting application...");
+        // create the indexer
+        logger.info("Creating protein details indexer...");
+        ProteinDetailsIndexer proteinDetailsIndexer = new ProteinDetailsIndexer(proteinDetailsUpdater.proteinCatalogSearchService, proteinDetailsUpdater.proteinCatalogIndexService);
+        logger.info("Protein details indexer created!");
+        // add the hashes of the proteins indexed before they were computed
+        logger.info("Starting sequence hash backfill...");
+        proteinDetailsIndexer.addSequenceHashesToAllExistingProteins();
+        logger.info("Sequence hash backfill completed!");
+    }
+
+    private List<File> getFastaFiles() {
+        List<File> res = new ArrayList<File>();
+        if (fastaFiles != null) {
+            for (String fastaFile : fastaFiles.split(",")) {
+                if (!"".equals(fastaFile.trim())) {
+                    res.add(new File(fastaFile.trim()));
+                }
+            }
+        }
+        return res;
+    }
+
+    private boolean isFastaIndexConfigured() {
+        return getFastaFiles().size() > 0 && fastaIndexDir != null && !"".equals(fastaIndexDir.trim());
+    }
+
+    /**
+     * @return the provider of details in the configured FASTA files, null if there are none
+     */
+    private FastaProteinDetailsProvider openFastaFiles() {
+        if (!isFastaIndexConfigured()) {
+            return null;
+        }
+        FastaProteinDetailsProvider provider = FastaProteinDetailsProvider.open(getFastaFiles(), new File(fastaIndexDir.trim()));
+        if (provider == null) {
+            logger.warn("None of the FASTA files is indexed, protein details will be taken from the services");
+        }
+        return provider;
+    }
+
+    private void indexFastaFiles() {
+        if (!isFastaIndexConfigured()) {
+            logger.error("Set indexer.details.fasta.files and indexer.details.fasta.index.dir to index FASTA files");
+            return;
+        }
+        File indexDirectory = new File(fastaIndexDir.trim());
+        for (File fastaFile : getFastaFiles()) {
+            File indexFile = FastaIndex.getIndexFile(fastaFile, indexDirectory);
+            if (FastaIndex.isUpToDate(fastaFile, indexFile)) {
+                logger.info("The index of " + fastaFile + " is up to date");
+                continue;
+            }
+            try {
+                FastaIndex.build(fastaFile, indexFile, fastaIndexMaxRecordsInMemory);
+            } catch (IOException e) {
+                logger.error("Could not index " + fastaFile);
+                e.printStackTrace();
+            }
+        }
+    }
+
 }
@@ -3,11 +3,10 @@ package uk.ac.ebi.pride.proteincatalogindex.search.tools;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.springframework.stereotype.Component;
-import uk.ac.ebi.pride.jmztab.model.MZTabFile;
-import uk.ac.ebi.pride.jmztab.utils.MZTabFileParser;
 import uk.ac.ebi.pride.archive.dataprovider.file.ProjectFileSource;
 import uk.ac.ebi.pride.archive.dataprovider.project.ProjectProvider;
 import uk.ac.ebi.pride.archive.repo.assay.AssayRepository;
@@ -15,9 +14,13 @@ import uk.ac.ebi.pride.archive.repo.file.ProjectFile;
 import uk.ac.ebi.pride.archive.repo.file.ProjectFileRepository;
 import uk.ac.ebi.pride.archive.repo.project.ProjectRepository;
 import uk.ac.ebi.pride.proteincatalogindex.search.indexers.ProjectProteinCatalogIndexer;
+import uk.ac.ebi.pride.proteincatalogindex.search.indexers.ProteinIndexingPipeline;
+import uk.ac.ebi.pride.proteincatalogindex.search.service.ProteinCatalogBulkLoader;
 import uk.ac.ebi.pride.proteincatalogindex.search.service.ProteinCatalogIndexService;
 import uk.ac.ebi.pride.proteincatalogindex.search.service.ProteinCatalogSearchService;
-import uk.ac.ebi.pride.proteincatalogindex.search.util.ErrorLogOutputStream;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.AccessionCorrectionCache;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.OffHeapAccessionSet;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.ProteinBuilder;
 
 import java.io.File;
 import java.io.IOException;
@@ -32,7 +35,6 @@ import java.util.*;
 public class ProteinIndexBuilder {
 
     private static Logger logger = LoggerFactory.getLogger(ProteinIndexBuilder.class.getName());
-    private static ErrorLogOutputStream errorLogOutputStream = new ErrorLogOutputStream(logger);
 
     private static final String PRIDE_MZ_TAB_FILE_EXTENSION = ".pride.mztab";
 
@@ -59,6 +61,69 @@ public class ProteinIndexBuilder {
     @Autowired
     private ProteinCatalogIndexService proteinCatalogIndexService;
 
+    @Value("${indexer.indexed.accessions.max.mb:0}")
+    private int indexedAccessionsMaxMb;
+
+    @Value("${solr.server.protein.catalog.core.url}")
+    private String proteinCatalogUrl;
+
+    @Value("${indexer.bulk.threads:4}")
+    private int bulkThreads;
+
+    @Value("${indexer.bulk.queue.size:64}")
+    private int bulkQueueSize;
+
+    @Value("${indexer.bulk.optimize:false}")
+    private boolean bulkOptimize;
+
+    @Value("${indexer.bulk.indexed.accessions.max.mb:512}")
+    private int bulkIndexedAccessionsMaxMb;
+
+    @Value("${indexer.pipeline.read.threads:2}")
+    private int readThreads;
+
+    @Value("${indexer.pipeline.read.queue.capacity:16}")
+    private int readQueueCapacity;
+
+    @Value("${indexer.pipeline.extract.threads:1}")
+    private int extractThreads;
+
+    @Value("${indexer.pipeline.extract.queue.capacity:2}")
+    private int extractQueueCapacity;
+
+    @Value("${indexer.pipeline.correct.threads:2}")
+    private int correctThreads;
+
+    @Value("${indexer.pipeline.correct.queue.capacity:8}")
+    private int correctQueueCapacity;
+
+    @Value("${indexer.pipeline.existence.threads:2}")
+    private int existenceThreads;
+
+    @Value("${indexer.pipeline.existence.queue.capacity:8}")
+    private int existenceQueueCapacity;
+
+    @Value("${indexer.pipeline.writer.threads:1}")
+    private int writerThreads;
+
+    @Value("${indexer.pipeline.writer.queue.capacity:8}")
+    private int writerQueueCapacity;
+
+    @Value("${indexer.pipeline.writer.batch.size:1000}")
+    private int writerBatchSize;
+
+    @Value("${indexer.mztab.streaming.reader:true}")
+    private boolean streamingMzTabReader;
+
+    @Value("${indexer.mztab.read.compressed:true}")
+    private boolean readCompressedMzTabFiles;
+
+    @Value("${indexer.accession.corrections.max.entries:200000}")
+    private int accessionCorrectionsMaxEntries;
+
+    @Value("${indexer.accession.corrections.file:}")
+    private String accessionCorrectionsFile;
+
 
     public static void main(String[] args) {
         ApplicationContext context = new ClassPathXmlApplicationContext("spring/app-context.xml");
@@ -68,14 +133,23 @@ public class ProteinIndexBuilder {
         try {
             if ("index".equals(args[0])) {
                 indexProteins(proteinIndexBuilder);
+            } else if ("rebuild".equals(args[0])) {
+                rebuildProteins(proteinIndexBuilder);
             } else if ("delete".equals(args[0])) {
                 deleteAllProteins(proteinIndexBuilder);
             }
         } catch (IndexOutOfBoundsException e) {
 
-            logger.info("Args: index OR delete is mandatory ");
+            logger.info("Args: index OR rebuild OR delete is mandatory ");
+        } catch (IllegalStateException e) {
+            logger.error("Protein indexing FAILED: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
         }
 
+        // send and commit anything still buffered
+        proteinIndexBuilder.proteinCatalogIndexService.close();
+
     }
 
     public static void deleteAllProteins(ProteinIndexBuilder proteinIndexBuilder) {
@@ -84,56 +158,192 @@ public class ProteinIndexBuilder {
         logger.info("All proteins are now DELETED (new method)");
     }
 
+    /**
+     * Deletes the catalog and indexes all the projects again in bulk-load mode: updates are streamed over several
+     * connections and committed once at the end
+     *
+     * @throws IllegalStateException if any protein could not be loaded, the catalog is then incomplete
+     */
+    public static void rebuildProteins(ProteinIndexBuilder proteinIndexBuilder) {
+        deleteAllProteins(proteinIndexBuilder);
+
+        ProteinCatalogBulkLoader bulkLoader = new ProteinCatalogBulkLoader(
+                proteinIndexBuilder.proteinCatalogUrl,
+                proteinIndexBuilder.bulkQueueSize,
+                proteinIndexBuilder.bulkThreads
+        );
+        proteinIndexBuilder.proteinCatalogIndexService.startBulkLoad(bulkLoader);
+        // nothing is visible in the catalog until the final commit, so new proteins are only checked in memory
+        try {
+            indexProteins(proteinIndexBuilder, proteinIndexBuilder.bulkIndexedAccessionsMaxMb);
+        } finally {
+            // commits what was loaded, and throws if anything could not be
+            proteinIndexBuilder.proteinCatalogIndexService.finishBulkLoad(proteinIndexBuilder.bulkOptimize);
+        }
+        logger.info("Protein catalog rebuilt: " + bulkLoader);
+    }
+
     public static void indexProteins(ProteinIndexBuilder proteinIndexBuilder) {
+        indexProteins(proteinIndexBuilder, proteinIndexBuilder.indexedAccessionsMaxMb);
+    }
+
+    private static void indexProteins(ProteinIndexBuilder proteinIndexBuilder, int indexedAccessionsMaxMb) {
 
         // get all projects on repository
         Iterable<? extends ProjectProvider> projects = proteinIndexBuilder.projectRepository.findAll();
         logger.info("There are " + proteinIndexBuilder.projectRepository.count() + " projects in repository");
 
-        // create the indexer
+        // create the indexer (shared by all the pipeline stages)
         ProjectProteinCatalogIndexer projectProteinCatalogIndexer = new ProjectProteinCatalogIndexer(proteinIndexBuilder.proteinCatalogSearchService, proteinIndexBuilder.proteinCatalogIndexService);
 
-        // iterate through project to index protein identifications
+        // keep the already indexed accessions in memory, if enabled
+        OffHeapAccessionSet indexedAccessions = null;
+        if (indexedAccessionsMaxMb > 0) {
+            indexedAccessions = new OffHeapAccessionSet(
+                    proteinIndexBuilder.proteinCatalogSearchService.count(),
+                    indexedAccessionsMaxMb * 1024L * 1024L
+            );
+            projectProteinCatalogIndexer.loadIndexedAccessions(indexedAccessions);
+        }
+
+        // bigger projects go first, so the last ones to finish are the quick ones
+        List<ProjectToIndex> projectsToIndex = new ArrayList<ProjectToIndex>();
         for (ProjectProvider project : projects) {
-            logger.info("Indexing proteins for project " + project.getAccession());
-//            String generatedFolderPath = ProteinBuilder.buildGeneratedDirectoryFilePath(
-//                    proteinIndexBuilder.submissionsDirectory.getAbsolutePath(),
-//                    project
-//            );
+            List<ProjectFile> mzTabFiles = getGeneratedMzTabFiles(proteinIndexBuilder.projectFileRepository.findAllByProjectId(project.getId()));
+            projectsToIndex.add(new ProjectToIndex(project, mzTabFiles));
+        }
+        Collections.sort(projectsToIndex);
+
+        // corrected accessions are remembered across assays and, if there is a file for them, across runs
+        AccessionCorrectionCache accessionCorrectionCache = proteinIndexBuilder.openAccessionCorrectionCache();
+        ProteinBuilder.setAccessionCorrectionCache(accessionCorrectionCache);
 
-            List<ProjectFile> projectFiles = proteinIndexBuilder.projectFileRepository.findAllByProjectId(project.getId());
-
-            for (ProjectFile projectFile : projectFiles) {
-
-//                logger.info("Indexing proteins for project file " + projectFile.getFileName());
-                //To avoid using submitted mztab we need to filter by generated ones first
-                //TODO: This will change when we have the internal file names in the database
-                if (ProjectFileSource.GENERATED.equals(projectFile.getFileSource())) {
-                    if (projectFile.getFileName().contains(PRIDE_MZ_TAB_FILE_EXTENSION)) {
-                        String assayAccession = proteinIndexBuilder.assayRepository.findOne(projectFile.getAssayId()).getAccession();
-
-                        String pathToMzTabFile = buildAbsoluteMzTabFilePath(
-                                proteinIndexBuilder.submissionsDirectory.getAbsolutePath(),
-                                project,
-                                projectFile.getFileName()
-                        );
-
-                        logger.debug("Trying to open MzTab file " + pathToMzTabFile);
-                        MZTabFileParser mzTabFileParser = null;
-                        try {
-                            mzTabFileParser = new MZTabFileParser(new File(pathToMzTabFile), errorLogOutputStream);
-                            MZTabFile mzTabFile = mzTabFileParser.getMZTabFile();
-                            logger.debug("Trying to index from MzTab file " + pathToMzTabFile);
-                            projectProteinCatalogIndexer.indexAllProteinIdentificationsForProjectAndAssay(project.getAccession(), assayAccession, mzTabFile);
-                        } catch (IOException e) {
-                            logger.error("Could not open MzTab file: " + pathToMzTabFile);
-                        }
-                    }
+        // iterate through project to index protein identifications
+        ProteinIndexingPipeline proteinIndexingPipeline = proteinIndexBuilder.createPipeline(projectProteinCatalogIndexer);
+        proteinIndexingPipeline.start();
+        try {
+            try {
+                for (ProjectToIndex projectToIndex : projectsToIndex) {
+                    addProjectToPipeline(proteinIndexBuilder, proteinIndexingPipeline, projectToIndex.project, projectToIndex.mzTabFiles);
                 }
+            } finally {
+                // also if the pipeline was aborted, so its threads are stopped and the failure is thrown
+                proteinIndexingPipeline.finish();
+            }
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while indexing projects");
+            Thread.currentThread().interrupt();
+        }
+
+        if (indexedAccessions != null) {
+            logger.info("Indexed accessions in memory at the end of the run: " + indexedAccessions);
+        }
+        logger.info(accessionCorrectionCache.toString());
+        proteinIndexBuilder.saveAccessionCorrectionCache(accessionCorrectionCache);
+    }
+
+    private boolean isAccessionCorrectionsFileConfigured() {
+        return accessionCorrectionsFile != null && !"".equals(accessionCorrectionsFile.trim());
+    }
+
+    private AccessionCorrectionCache openAccessionCorrectionCache() {
+        AccessionCorrectionCache accessionCorrectionCache = new AccessionCorrectionCache(accessionCorrectionsMaxEntries);
+        if (isAccessionCorrectionsFileConfigured()) {
+            try {
+                accessionCorrectionCache.load(new File(accessionCorrectionsFile.trim()));
+            } catch (IOException e) {
+                logger.error("Could not load the accession corrections from " + accessionCorrectionsFile + ", starting with none");
+                e.printStackTrace();
+            }
+        }
+        return accessionCorrectionCache;
+    }
+
+    private void saveAccessionCorrectionCache(AccessionCorrectionCache accessionCorrectionCache) {
+        if (isAccessionCorrectionsFileConfigured()) {
+            try {
+                accessionCorrectionCache.save(new File(accessionCorrectionsFile.trim()));
+            } catch (IOException e) {
+                logger.error("Could not save the accession corrections to " + accessionCorrectionsFile);
+                e.printStackTrace();
             }
         }
     }
 
+    private static void addProjectToPipeline(ProteinIndexBuilder proteinIndexBuilder, ProteinIndexingPipeline proteinIndexingPipeline, ProjectProvider project, List<ProjectFile> mzTabFiles) throws InterruptedException {
+        logger.info("Indexing proteins for project " + project.getAccession());
+
+        for (ProjectFile projectFile : mzTabFiles) {
+            String assayAccession = proteinIndexBuilder.assayRepository.findOne(projectFile.getAssayId()).getAccession();
+
+            File mzTabFile = findMzTabFile(
+                    proteinIndexBuilder.submissionsDirectory.getAbsolutePath(),
+                    project,
+                    projectFile.getFileName(),
+                    proteinIndexBuilder.readCompressedMzTabFiles
+            );
+
+            proteinIndexingPipeline.index(project.getAccession(), assayAccession, mzTabFile);
+        }
+    }
+
+    private ProteinIndexingPipeline createPipeline(ProjectProteinCatalogIndexer projectProteinCatalogIndexer) {
+        ProteinIndexingPipeline proteinIndexingPipeline = new ProteinIndexingPipeline(projectProteinCatalogIndexer);
+        proteinIndexingPipeline.setReadThreads(readThreads);
+        proteinIndexingPipeline.setReadQueueCapacity(readQueueCapacity);
+        proteinIndexingPipeline.setExtractThreads(extractThreads);
+        proteinIndexingPipeline.setExtractQueueCapacity(extractQueueCapacity);
+        proteinIndexingPipeline.setCorrectThreads(correctThreads);
+        proteinIndexingPipeline.setCorrectQueueCapacity(correctQueueCapacity);
+        proteinIndexingPipeline.setExistenceThreads(existenceThreads);
+        proteinIndexingPipeline.setExistenceQueueCapacity(existenceQueueCapacity);
+        proteinIndexingPipeline.setWriterThreads(writerThreads);
+        proteinIndexingPipeline.setWriterQueueCapacity(writerQueueCapacity);
+        proteinIndexingPipeline.setWriterBatchSize(writerBatchSize);
+        proteinIndexingPipeline.setStreamingMzTabReader(streamingMzTabReader);
+        return proteinIndexingPipeline;
+    }
+
+    /**
+     * To avoid using submitted mztab we need to filter by generated ones first
+     * TODO: This will change when we have the internal file names in the database
+     */
+    private static List<ProjectFile> getGeneratedMzTabFiles(List<ProjectFile> projectFiles) {
+        List<ProjectFile> res = new LinkedList<ProjectFile>();
+        for (ProjectFile projectFile : projectFiles) {
+            if (ProjectFileSource.GENERATED.equals(projectFile.getFileSource())) {
+                if (projectFile.getFileName().contains(PRIDE_MZ_TAB_FILE_EXTENSION)) {
+                    res.add(projectFile);
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * A project and its mzTab files, sorted by decreasing total mzTab file size
+     */
+    private static class ProjectToIndex implements Comparable<ProjectToIndex> {
+        private final ProjectProvider project;
+        private final List<ProjectFile> mzTabFiles;
+        private final long totalFileSize;
+
+        private ProjectToIndex(ProjectProvider project, List<ProjectFile> mzTabFiles) {
+            this.project = project;
+            this.mzTabFiles = mzTabFiles;
+            long size = 0;
+            for (ProjectFile mzTabFile : mzTabFiles) {
+                size = size + mzTabFile.getFileSize();
+            }
+            this.totalFileSize = size;
+        }
+
+        @Override
+        public int compareTo(ProjectToIndex other) {
+            return (totalFileSize > other.totalFileSize) ? -1 : ((totalFileSize == other.totalFileSize) ? 0 : 1);
+        }
+    }
+
 //    @Deprecated
 //    public static void indexProteinsOld(ProteinIndexBuilder proteinIndexBuilder, SolrServer server) {
 //
@@ -203,6 +413,27 @@ public class ProteinIndexBuilder {
 
     }
 
+    /**
+     * Chooses between the gzipped mzTab file in the generated folder and its uncompressed copy in the internal
+     * folder. The preferred one is used if it exists, otherwise the other one (if that one does not exist either,
+     * the preferred one is returned and will fail when opened).
+     *
+     * @param fileName mztab file name in generated folder
+     * @param preferCompressed true to prefer the gzipped file, that means less data to read from disk
+     */
+    public static File findMzTabFile(String prefix, ProjectProvider project, String fileName, boolean preferCompressed) {
+        File compressedFile = new File(buildGeneratedDirectoryFilePath(prefix, project), fileName);
+        File uncompressedFile = new File(buildAbsoluteMzTabFilePath(prefix, project, fileName));
+
+        File preferredFile = preferCompressed ? compressedFile : uncompressedFile;
+        File otherFile = preferCompressed ? uncompressedFile : compressedFile;
+        if (!preferredFile.exists() && otherFile.exists()) {
+            logger.debug("Using " + otherFile.getAbsolutePath() + " as " + preferredFile.getAbsolutePath() + " does not exist");
+            return otherFile;
+        }
+        return preferredFile;
+    }
+
     //TODO: Move it to a pride-archive-utils
     /**
      * In the generated folder(the which one we are taking the file names) the files are gzip, so we need to remove
@@ -3,13 +3,23 @@ package uk.ac.ebi.pride.proteincatalogindex.search.tools;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
 import uk.ac.ebi.pride.proteincatalogindex.search.indexers.ProteinDetailsIndexer;
+import uk.ac.ebi.pride.proteincatalogindex.search.mappings.ProteinAccessionMappingsFinder;
+import uk.ac.ebi.pride.proteincatalogindex.search.mappings.ProteinMappingCache;
+import uk.ac.ebi.pride.proteincatalogindex.search.mappings.ProteinMappingIndex;
+import uk.ac.ebi.pride.proteincatalogindex.search.mappings.ProteinMappingIndexImporter;
 import uk.ac.ebi.pride.proteincatalogindex.search.service.ProteinCatalogIndexService;
 import uk.ac.ebi.pride.proteincatalogindex.search.service.ProteinCatalogSearchService;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
 /**
  * @author Jose A. Dianes
  * @version $Id$
@@ -25,15 +35,134 @@ public class ProteinMappingsUpdater {
     @Autowired
     private ProteinCatalogIndexService proteinCatalogIndexService;
 
+    @Value("${indexer.mappings.cache.file:}")
+    private String mappingCacheFile;
+
+    @Value("${indexer.mappings.cache.ttl.days:90}")
+    private int mappingCacheTtlDays;
+
+    @Value("${indexer.mappings.cache.negative.ttl.days:30}")
+    private int mappingCacheNegativeTtlDays;
+
+    @Value("${indexer.mappings.max.concurrent.requests:4}")
+    private int maxConcurrentMappingRequests;
+
+    @Value("${indexer.mappings.requests.per.second:5}")
+    private double mappingRequestsPerSecond;
+
+    @Autowired
+    private RestTemplate mappingServiceRestTemplate;
+
+    @Value("${indexer.mappings.index.dir:}")
+    private String mappingIndexDir;
+
+    @Value("${indexer.mappings.index.import.max.records.in.memory:1000000}")
+    private int mappingIndexImportMaxRecordsInMemory;
+
     public static void main(String[] args) {
         ApplicationContext context = new ClassPathXmlApplicationContext("spring/app-context.xml");
         ProteinMappingsUpdater proteinMappingsUpdater = context.getBean(ProteinMappingsUpdater.class);
 
+        ProteinAccessionMappingsFinder.setMaxConcurrentRequests(proteinMappingsUpdater.maxConcurrentMappingRequests);
+        ProteinAccessionMappingsFinder.setRateLimit(proteinMappingsUpdater.mappingRequestsPerSecond, proteinMappingsUpdater.maxConcurrentMappingRequests);
+        ProteinAccessionMappingsFinder.setRestTemplate(proteinMappingsUpdater.mappingServiceRestTemplate);
+
+        if ("import".equals(args[0])) {
+            // one-time import of a UniProt idmapping dump (e.g. idmapping.dat.gz) into the local mapping index
+            proteinMappingsUpdater.importMappingIndex(new File(args[1]));
+            return;
+        }
+
+        ProteinMappingCache mappingCache = proteinMappingsUpdater.openMappingCache();
+        ProteinAccessionMappingsFinder.setMappingCache(mappingCache);
+        ProteinMappingIndex mappingIndex = proteinMappingsUpdater.openMappingIndex();
+        ProteinAccessionMappingsFinder.setMappingIndex(mappingIndex);
+
         if ("all".equals(args[0])) {
             addMappingsToAllExistingProteins(proteinMappingsUpdater);
         } else if ("inc".equals(args[0])) {
             addMappingsToProteinsWithNoMappings(proteinMappingsUpdater);
         }
+
+        logger.info(ProteinAccessionMappingsFinder.getRequestStats());
+        if (mappingIndex != null) {
+            ProteinAccessionMappingsFinder.setMappingIndex(null);
+            mappingIndex.close();
+        }
+        if (mappingCache != null) {
+            ProteinAccessionMappingsFinder.setMappingCache(null);
+            try {
+                mappingCache.close();
+            } catch (IOException e) {
+                logger.error("Could not close the mapping cache");
+                e.printStackTrace();
+            }
+        }
+
+        // send and commit anything still buffered
+        proteinMappingsUpdater.proteinCatalogIndexService.close();
+    }
+
+    /**
+     * @return the mapping cache, or null if there is none configured or it cannot be opened
+     */
+    private ProteinMappingCache openMappingCache() {
+        if (mappingCacheFile == null || "".equals(mappingCacheFile.trim())) {
+            return null;
+        }
+        ProteinMappingCache mappingCache = new ProteinMappingCache(
+                new File(mappingCacheFile.trim()),
+                TimeUnit.DAYS.toMillis(mappingCacheTtlDays),
+                TimeUnit.DAYS.toMillis(mappingCacheNegativeTtlDays)
+        );
+        try {
+            mappingCache.open();
+            return mappingCache;
+        } catch (IOException e) {
+            logger.error("Could not open the mapping cache " + mappingCacheFile + ", mappings will not be cached");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private boolean isMappingIndexConfigured() {
+        return mappingIndexDir != null && !"".equals(mappingIndexDir.trim());
+    }
+
+    /**
+     * @return the local mapping index, or null if there is none configured or imported
+     */
+    private ProteinMappingIndex openMappingIndex() {
+        if (!isMappingIndexConfigured()) {
+            return null;
+        }
+        File directory = new File(mappingIndexDir.trim());
+        if (!ProteinMappingIndex.exists(directory)) {
+            logger.warn("There is no mapping index in " + directory + ", mappings will be taken from the mapping service");
+            return null;
+        }
+        try {
+            return ProteinMappingIndex.open(directory);
+        } catch (IOException e) {
+            logger.error("Could not open the mapping index " + directory + ", mappings will be taken from the mapping service");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void importMappingIndex(File idMappingFile) {
+        if (!isMappingIndexConfigured()) {
+            logger.error("Set indexer.mappings.index.dir to import " + idMappingFile);
+            return;
+        }
+        ProteinMappingIndexImporter importer = new ProteinMappingIndexImporter(new File(mappingIndexDir.trim()));
+        importer.setMaxRecordsInMemory(mappingIndexImportMaxRecordsInMemory);
+        try {
+            importer.importIdMapping(idMappingFile);
+        } catch (IOException e) {
+            logger.error("Could not import " + idMappingFile + " into the mapping index " + mappingIndexDir);
+            e.printStackTrace();
+        }
     }
 
     private static void addMappingsToAllExistingProteins(ProteinMappingsUpdater proteinMappingsUpdater) {
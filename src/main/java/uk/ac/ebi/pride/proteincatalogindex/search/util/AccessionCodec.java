@@ -0,0 +1,314 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @version $Id$
+ *
+ * Packs protein accessions into a long, so sets and maps of accessions can be kept as primitive arrays (8 bytes per
+ * accession instead of a 50-70 bytes String). Well-formed accessions are packed on their own and can be decoded by
+ * any codec:
+ *
+ * - UniProt: 6 or 10 letters and digits, with an optional isoform (e.g. P12345, A0A0B4J2F0, P12345-2)
+ * - UniParc: UPI and 10 hexadecimal digits (e.g. UPI00001B45D5)
+ * - Ensembl protein: ENS, an optional species code, P and 11 digits, with an optional version (e.g. ENSP00000358622,
+ *   ENSMUSP00000000001.3)
+ *
+ * Any other accession gets the next number in a dictionary kept by the codec instance, so its codes are only valid
+ * for that instance. The code 0 is never used, so it can mark empty slots.
+ *
+ * The top 3 bits of a code say how it is packed.
+ */
+public class AccessionCodec {
+
+    public static final long NO_CODE = 0L;
+
+    private static final int TAG_SHIFT = 61;
+    private static final long UNIPROT_TAG = 1L << TAG_SHIFT;
+    private static final long UNIPARC_TAG = 2L << TAG_SHIFT;
+    private static final long ENSEMBL_TAG = 3L << TAG_SHIFT;
+    private static final long DICTIONARY_TAG = 7L << TAG_SHIFT;
+    private static final long TAG_MASK = 7L << TAG_SHIFT;
+
+    // UniProt: base 36 accession (52 bits), long form flag, isoform (8 bits)
+    private static final int UNIPROT_SHORT_LENGTH = 6;
+    private static final int UNIPROT_LONG_LENGTH = 10;
+    private static final int UNIPROT_LONG_FORM_SHIFT = 52;
+    private static final int UNIPROT_ISOFORM_SHIFT = 53;
+    private static final long UNIPROT_VALUE_MASK = (1L << UNIPROT_LONG_FORM_SHIFT) - 1;
+
+    // UniParc: 10 hexadecimal digits (40 bits)
+    private static final String UNIPARC_PREFIX = "UPI";
+    private static final int UNIPARC_DIGITS = 10;
+
+    // Ensembl: number (37 bits), base 27 species code (15 bits), version (8 bits)
+    private static final String ENSEMBL_PREFIX = "ENS";
+    private static final int ENSEMBL_DIGITS = 11;
+    private static final int ENSEMBL_MAX_SPECIES_LENGTH = 3;
+    private static final int ENSEMBL_SPECIES_SHIFT = 37;
+    private static final int ENSEMBL_VERSION_SHIFT = 52;
+    private static final long ENSEMBL_NUMBER_MASK = (1L << ENSEMBL_SPECIES_SHIFT) - 1;
+    private static final long ENSEMBL_SPECIES_MASK = (1L << (ENSEMBL_VERSION_SHIFT - ENSEMBL_SPECIES_SHIFT)) - 1;
+
+    private static final int MAX_SUFFIX_NUMBER = 255;
+    private static final long SUFFIX_MASK = 0xff;
+
+    private final Map<String, Integer> dictionaryCodes = new HashMap<String, Integer>();
+    private final List<String> dictionaryAccessions = new ArrayList<String>();
+
+    /**
+     * @return the code of the accession, adding it to the dictionary if it is not a well-formed one
+     */
+    public long encode(String accession) {
+        long code = encodeWellFormed(accession);
+        if (code != NO_CODE) {
+            return code;
+        }
+        synchronized (this) {
+            Integer index = dictionaryCodes.get(accession);
+            if (index == null) {
+                index = dictionaryAccessions.size();
+                dictionaryAccessions.add(accession);
+                dictionaryCodes.put(accession, index);
+            }
+            return DICTIONARY_TAG | index;
+        }
+    }
+
+    /**
+     * @return the code of the accession, or NO_CODE if it is not a well-formed one and it is not in the dictionary
+     * (the dictionary is not changed)
+     */
+    public long find(String accession) {
+        long code = encodeWellFormed(accession);
+        if (code != NO_CODE) {
+            return code;
+        }
+        synchronized (this) {
+            Integer index = dictionaryCodes.get(accession);
+            return (index == null) ? NO_CODE : (DICTIONARY_TAG | index);
+        }
+    }
+
+    public String decode(long code) {
+        if ((code & TAG_MASK) == DICTIONARY_TAG) {
+            synchronized (this) {
+                return dictionaryAccessions.get((int) (code & ~TAG_MASK));
+            }
+        }
+        return decodeWellFormed(code);
+    }
+
+    /**
+     * @return number of accessions that are not well-formed, kept as Strings
+     */
+    public synchronized int getDictionarySize() {
+        return dictionaryAccessions.size();
+    }
+
+    /**
+     * @return true if the code is a well-formed accession, valid for any codec
+     */
+    public static boolean isWellFormed(long code) {
+        long tag = code & TAG_MASK;
+        return tag == UNIPROT_TAG || tag == UNIPARC_TAG || tag == ENSEMBL_TAG;
+    }
+
+    /**
+     * @return the code of a well-formed accession, NO_CODE for any other accession
+     */
+    public static long encodeWellFormed(String accession) {
+        if (accession == null) {
+            return NO_CODE;
+        }
+        if (accession.startsWith(UNIPARC_PREFIX)) {
+            long code = encodeUniparc(accession);
+            if (code != NO_CODE) {
+                return code;
+            }
+        }
+        if (accession.startsWith(ENSEMBL_PREFIX)) {
+            long code = encodeEnsembl(accession);
+            if (code != NO_CODE) {
+                return code;
+            }
+        }
+        return encodeUniprot(accession);
+    }
+
+    /**
+     * @return the accession of a well-formed code, null for any other code
+     */
+    public static String decodeWellFormed(long code) {
+        long tag = code & TAG_MASK;
+        if (tag == UNIPROT_TAG) {
+            return decodeUniprot(code);
+        } else if (tag == UNIPARC_TAG) {
+            return decodeUniparc(code);
+        } else if (tag == ENSEMBL_TAG) {
+            return decodeEnsembl(code);
+        }
+        return null;
+    }
+
+    private static long encodeUniprot(String accession) {
+        int end = accession.indexOf('-');
+        int isoform = 0;
+        if (end >= 0) {
+            isoform = parseSuffixNumber(accession, end + 1);
+            if (isoform <= 0) {
+                return NO_CODE;
+            }
+        } else {
+            end = accession.length();
+        }
+        if (end != UNIPROT_SHORT_LENGTH && end != UNIPROT_LONG_LENGTH) {
+            return NO_CODE;
+        }
+        long value = 0;
+        for (int i = 0; i < end; i++) {
+            int digit = upperCaseDigit(accession.charAt(i), Character.MAX_RADIX);
+            if (digit < 0) {
+                return NO_CODE;
+            }
+            value = value * Character.MAX_RADIX + digit;
+        }
+        long longForm = (end == UNIPROT_LONG_LENGTH) ? 1L : 0L;
+        return UNIPROT_TAG | ((long) isoform << UNIPROT_ISOFORM_SHIFT) | (longForm << UNIPROT_LONG_FORM_SHIFT) | value;
+    }
+
+    private static String decodeUniprot(long code) {
+        int length = (((code >>> UNIPROT_LONG_FORM_SHIFT) & 1L) == 1L) ? UNIPROT_LONG_LENGTH : UNIPROT_SHORT_LENGTH;
+        long value = code & UNIPROT_VALUE_MASK;
+        char[] chars = new char[length];
+        for (int i = length - 1; i >= 0; i--) {
+            chars[i] = Character.toUpperCase(Character.forDigit((int) (value % Character.MAX_RADIX), Character.MAX_RADIX));
+            value = value / Character.MAX_RADIX;
+        }
+        int isoform = (int) ((code >>> UNIPROT_ISOFORM_SHIFT) & SUFFIX_MASK);
+        return (isoform > 0) ? new String(chars) + "-" + isoform : new String(chars);
+    }
+
+    private static long encodeUniparc(String accession) {
+        if (accession.length() != UNIPARC_PREFIX.length() + UNIPARC_DIGITS) {
+            return NO_CODE;
+        }
+        long value = 0;
+        for (int i = UNIPARC_PREFIX.length(); i < accession.length(); i++) {
+            int digit = upperCaseDigit(accession.charAt(i), 16);
+            if (digit < 0) {
+                return NO_CODE;
+            }
+            value = (value << 4) | digit;
+        }
+        return UNIPARC_TAG | value;
+    }
+
+    private static String decodeUniparc(long code) {
+        String digits = Long.toHexString(code & ~TAG_MASK).toUpperCase();
+        StringBuilder res = new StringBuilder(UNIPARC_PREFIX.length() + UNIPARC_DIGITS).append(UNIPARC_PREFIX);
+        for (int i = digits.length(); i < UNIPARC_DIGITS; i++) {
+            res.append('0');
+        }
+        return res.append(digits).toString();
+    }
+
+    private static long encodeEnsembl(String accession) {
+        // ENS, species code, P
+        int position = ENSEMBL_PREFIX.length();
+        while (position < accession.length() && accession.charAt(position) >= 'A' && accession.charAt(position) <= 'Z') {
+            position++;
+        }
+        int speciesLength = position - ENSEMBL_PREFIX.length() - 1;
+        if (speciesLength < 0 || speciesLength > ENSEMBL_MAX_SPECIES_LENGTH || accession.charAt(position - 1) != 'P') {
+            return NO_CODE;
+        }
+        long species = 0;
+        for (int i = ENSEMBL_PREFIX.length(); i < position - 1; i++) {
+            species = species * 27 + (accession.charAt(i) - 'A' + 1);
+        }
+        // number and version
+        if (position + ENSEMBL_DIGITS > accession.length()) {
+            return NO_CODE;
+        }
+        long number = 0;
+        for (int i = position; i < position + ENSEMBL_DIGITS; i++) {
+            char c = accession.charAt(i);
+            if (c < '0' || c > '9') {
+                return NO_CODE;
+            }
+            number = number * 10 + (c - '0');
+        }
+        position = position + ENSEMBL_DIGITS;
+        int version = 0;
+        if (position < accession.length()) {
+            if (accession.charAt(position) != '.') {
+                return NO_CODE;
+            }
+            version = parseSuffixNumber(accession, position + 1);
+            if (version <= 0) {
+                return NO_CODE;
+            }
+        }
+        return ENSEMBL_TAG | ((long) version << ENSEMBL_VERSION_SHIFT) | (species << ENSEMBL_SPECIES_SHIFT) | number;
+    }
+
+    private static String decodeEnsembl(long code) {
+        StringBuilder res = new StringBuilder(24).append(ENSEMBL_PREFIX);
+        long species = (code >>> ENSEMBL_SPECIES_SHIFT) & ENSEMBL_SPECIES_MASK;
+        char[] speciesChars = new char[ENSEMBL_MAX_SPECIES_LENGTH];
+        int speciesStart = ENSEMBL_MAX_SPECIES_LENGTH;
+        while (species > 0) {
+            speciesChars[--speciesStart] = (char) ('A' + (species % 27) - 1);
+            species = species / 27;
+        }
+        res.append(speciesChars, speciesStart, ENSEMBL_MAX_SPECIES_LENGTH - speciesStart).append('P');
+        String number = Long.toString(code & ENSEMBL_NUMBER_MASK);
+        for (int i = number.length(); i < ENSEMBL_DIGITS; i++) {
+            res.append('0');
+        }
+        res.append(number);
+        int version = (int) ((code >>> ENSEMBL_VERSION_SHIFT) & SUFFIX_MASK);
+        if (version > 0) {
+            res.append('.').append(version);
+        }
+        return res.toString();
+    }
+
+    /**
+     * @return the value of an ASCII digit or upper case letter in the radix, -1 for any other char
+     */
+    private static int upperCaseDigit(char c, int radix) {
+        int digit = -1;
+        if (c >= '0' && c <= '9') {
+            digit = c - '0';
+        } else if (c >= 'A' && c <= 'Z') {
+            digit = c - 'A' + 10;
+        }
+        return (digit < radix) ? digit : -1;
+    }
+
+    /**
+     * @return the number from the position to the end of the accession, or -1 if it is not a number between 1 and 255
+     * without leading zeros (so it is written back the same way)
+     */
+    private static int parseSuffixNumber(String accession, int start) {
+        int length = accession.length() - start;
+        if (length < 1 || length > 3 || accession.charAt(start) == '0') {
+            return -1;
+        }
+        int res = 0;
+        for (int i = start; i < accession.length(); i++) {
+            char c = accession.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            res = res * 10 + (c - '0');
+        }
+        return (res <= MAX_SUFFIX_NUMBER) ? res : -1;
+    }
+
+}
@@ -0,0 +1,248 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @version $Id$
+ *
+ * Remembers the corrected accession of each (accession, database) pair, as the same pairs turn up in thousands of
+ * assays. Accessions already in canonical UniProt form are returned as they are without asking the resolver.
+ *
+ * The cache keeps up to maxEntries pairs, dropping the least recently used ones, and can be saved to a file and loaded
+ * in the next run (one tab separated 'accession, database, corrected accession' line per pair). It is thread-safe.
+ */
+public class AccessionCorrectionCache {
+
+    private static Logger logger = LoggerFactory.getLogger(AccessionCorrectionCache.class.getName());
+
+    private static final Charset CACHE_CHARSET = Charset.forName("UTF-8");
+    private static final String SEPARATOR = "\t";
+
+    public interface Resolver {
+        /**
+         * @return the corrected accession, or null if there is no fix for it
+         */
+        String resolve(String accession, String database) throws Exception;
+    }
+
+    private final int maxEntries;
+    private final LinkedHashMap<String, String> corrections;
+
+    private final AtomicLong numCanonical = new AtomicLong();
+    private final AtomicLong numHits = new AtomicLong();
+    private final AtomicLong numResolved = new AtomicLong();
+    private final AtomicLong numFailed = new AtomicLong();
+    private final AtomicLong resolverNanos = new AtomicLong();
+
+    public AccessionCorrectionCache(final int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.corrections = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the corrected accession, the original one if the resolver has no fix for it or fails
+     */
+    public String getCorrectedAccession(String accession, String database, Resolver resolver) {
+        if (isCanonicalUniprotAccession(accession)) {
+            numCanonical.incrementAndGet();
+            return accession;
+        }
+        String key = key(accession, database);
+        synchronized (this) {
+            String corrected = corrections.get(key);
+            if (corrected != null) {
+                numHits.incrementAndGet();
+                return corrected;
+            }
+        }
+
+        // resolved out of the lock, the same pair may be resolved twice at the same time
+        long startTime = System.nanoTime();
+        String corrected;
+        try {
+            corrected = resolver.resolve(accession, database);
+        } catch (Exception e) {
+            // not cached, it may work next time
+            numFailed.incrementAndGet();
+            logger.error("There were problems getting corrected accession for " + accession + ". Original accession will be used.");
+            return accession;
+        } finally {
+            resolverNanos.addAndGet(System.nanoTime() - startTime);
+        }
+        numResolved.incrementAndGet();
+
+        if (corrected == null || "".equals(corrected)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("No proper fix found for accession " + accession + ". Obtained: <" + corrected + ">. Original accession will be used.");
+            }
+            corrected = accession;
+        } else if (logger.isDebugEnabled()) {
+            logger.debug("Original accession " + accession + " fixed to " + corrected);
+        }
+        synchronized (this) {
+            corrections.put(key, corrected);
+        }
+        return corrected;
+    }
+
+    /**
+     * @return true for UniProt accessions in their canonical form (6 or 10 chars, no isoform, no database prefix),
+     * which the resolver would not change
+     */
+    public static boolean isCanonicalUniprotAccession(String accession) {
+        if (accession == null) {
+            return false;
+        }
+        int length = accession.length();
+        if (length == 6) {
+            char first = accession.charAt(0);
+            if (first == 'O' || first == 'P' || first == 'Q') {
+                // [OPQ][0-9][A-Z0-9]{3}[0-9]
+                return isDigit(accession.charAt(1)) && isAlphanumeric(accession, 2, 5) && isDigit(accession.charAt(5));
+            }
+        } else if (length != 10) {
+            return false;
+        }
+        // [A-NR-Z][0-9]([A-Z][A-Z0-9]{2}[0-9]){1,2}
+        char first = accession.charAt(0);
+        if (first < 'A' || first > 'Z' || first == 'O' || first == 'P' || first == 'Q' || !isDigit(accession.charAt(1))) {
+            return false;
+        }
+        for (int start = 2; start < length; start = start + 4) {
+            char letter = accession.charAt(start);
+            if (letter < 'A' || letter > 'Z' || !isAlphanumeric(accession, start + 1, start + 3) || !isDigit(accession.charAt(start + 3))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Loads the pairs saved by a previous run, if the file exists
+     */
+    public void load(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CACHE_CHARSET));
+        int numLoaded = 0;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] columns = line.split(SEPARATOR, -1);
+                if (columns.length != 3 || columns[0].length() == 0 || columns[2].length() == 0) {
+                    continue;
+                }
+                synchronized (this) {
+                    corrections.put(key(columns[0], columns[1]), columns[2]);
+                }
+                numLoaded++;
+            }
+        } finally {
+            reader.close();
+        }
+        logger.info("Loaded " + numLoaded + " accession corrections from " + file + " in " + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    /**
+     * Saves the pairs in the cache, replacing the file once they are all written
+     */
+    public synchronized void save(File file) throws IOException {
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        File newFile = new File(file.getAbsolutePath() + ".new");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(newFile), CACHE_CHARSET));
+        try {
+            for (Map.Entry<String, String> correction : corrections.entrySet()) {
+                writer.write(correction.getKey());
+                writer.write(SEPARATOR);
+                writer.write(correction.getValue());
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        if (!newFile.renameTo(file)) {
+            // some platforms do not rename over an existing file
+            if (!file.delete() || !newFile.renameTo(file)) {
+                throw new IOException("Could not replace " + file + " with " + newFile);
+            }
+        }
+        logger.info("Saved " + corrections.size() + " accession corrections to " + file);
+    }
+
+    public synchronized int size() {
+        return corrections.size();
+    }
+
+    public long getNumCanonical() {
+        return numCanonical.get();
+    }
+
+    public long getNumHits() {
+        return numHits.get();
+    }
+
+    public long getNumResolved() {
+        return numResolved.get();
+    }
+
+    /**
+     * @return share of the lookups answered without the resolver
+     */
+    public double getHitRatio() {
+        long saved = numCanonical.get() + numHits.get();
+        long total = saved + numResolved.get() + numFailed.get();
+        return (total > 0) ? (double) saved / total : 0.0;
+    }
+
+    /**
+     * @return estimated resolver time saved, taking the average time of the resolver calls
+     */
+    public long getMillisSaved() {
+        long calls = numResolved.get() + numFailed.get();
+        if (calls == 0) {
+            return 0;
+        }
+        return (numCanonical.get() + numHits.get()) * (resolverNanos.get() / calls) / 1000000L;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Accession corrections: %d canonical UniProt, %d cached, %d resolved, %d failed (%.1f%% without the resolver, ~%d s saved). %d cached pairs (max %d)",
+                numCanonical.get(), numHits.get(), numResolved.get(), numFailed.get(), getHitRatio() * 100, getMillisSaved() / 1000, size(), maxEntries);
+    }
+
+    private static String key(String accession, String database) {
+        return accession + SEPARATOR + ((database != null) ? database : "");
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isAlphanumeric(String accession, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = accession.charAt(i);
+            if (!isDigit(c) && (c < 'A' || c > 'Z')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,322 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * @version $Id$
+ *
+ * Splits a list of items into batches for a remote service, adapting the batch size to how the service copes
+ * (additive increase, multiplicative decrease): batches answered within the target latency make the next ones a
+ * bit bigger, slow or failed batches make them a lot smaller.
+ *
+ * Failures are handled depending on what they point at:
+ * - a batch the service rejects (the processor returns false, e.g. a 4xx answer) points at a bad item, so it is
+ *   split in halves and each half is tried on its own. Batches at the minimum size are retried a few times before
+ *   their items are given up.
+ * - a batch that fails with an exception (e.g. a transport error or a 5xx answer) points at the service, so it is
+ *   not split but retried whole after the backoff of a CircuitBreaker. While the breaker is open batches wait for
+ *   it (up to a maximum time) instead of calling the service, and batches that keep failing are given up.
+ *
+ * The batch size and the breaker are kept between calls, so an instance should be shared by all the calls to the
+ * same service.
+ */
+public class AdaptiveBatcher {
+
+    private static Logger logger = LoggerFactory.getLogger(AdaptiveBatcher.class.getName());
+
+    private static final double DEFAULT_DECREASE_FACTOR = 0.5;
+    private static final int DEFAULT_MAX_RETRIES_AT_MIN_SIZE = 2;
+    private static final int DEFAULT_MAX_SERVICE_RETRIES = 3;
+    private static final long DEFAULT_MAX_WAIT_MILLIS = 60000;
+    // so a batch held back by the circuit breaker does not spin
+    private static final long MIN_WAIT_MILLIS = 100;
+
+    public interface BatchProcessor<T> {
+        /**
+         * @return true if the batch was processed, false if the service rejected it because of its items
+         * @throws Exception if the service failed, whatever the items
+         */
+        boolean process(List<T> batch) throws Exception;
+    }
+
+    private final String name;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long targetLatencyMillis;
+    private int increaseStep;
+    private double decreaseFactor = DEFAULT_DECREASE_FACTOR;
+    private int maxRetriesAtMinSize = DEFAULT_MAX_RETRIES_AT_MIN_SIZE;
+    private int maxServiceRetries = DEFAULT_MAX_SERVICE_RETRIES;
+    private long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+    private CircuitBreaker circuitBreaker;
+
+    private int batchSize;
+    private long numBatches = 0;
+    private long numFailedBatches = 0;
+    private long numSplits = 0;
+    private long numFailedItems = 0;
+
+    /**
+     * @param targetLatencyMillis batches slower than this make the batch size go down
+     */
+    public AdaptiveBatcher(String name, int initialBatchSize, int minBatchSize, int maxBatchSize, long targetLatencyMillis) {
+        this.name = name;
+        this.minBatchSize = Math.max(1, minBatchSize);
+        this.maxBatchSize = Math.max(this.minBatchSize, maxBatchSize);
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.batchSize = Math.min(this.maxBatchSize, Math.max(this.minBatchSize, initialBatchSize));
+        this.increaseStep = Math.max(1, initialBatchSize / 10);
+        this.circuitBreaker = new CircuitBreaker(name);
+    }
+
+    public void setIncreaseStep(int increaseStep) {
+        this.increaseStep = Math.max(1, increaseStep);
+    }
+
+    public void setDecreaseFactor(double decreaseFactor) {
+        this.decreaseFactor = decreaseFactor;
+    }
+
+    public void setMaxRetriesAtMinSize(int maxRetriesAtMinSize) {
+        this.maxRetriesAtMinSize = maxRetriesAtMinSize;
+    }
+
+    /**
+     * @param maxServiceRetries times a batch is tried again after the service failed, before its items are given up
+     */
+    public void setMaxServiceRetries(int maxServiceRetries) {
+        this.maxServiceRetries = maxServiceRetries;
+    }
+
+    /**
+     * @param maxWaitMillis time a batch waits for the circuit breaker to let it through, before its items are given up
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Processes all the items in the calling thread
+     *
+     * @return the items that could not be processed
+     */
+    public <T> List<T> processAll(List<T> items, BatchProcessor<T> processor) {
+        Work<T> work = new Work<T>(items);
+        List<T> batch;
+        while ((batch = work.nextBatch()) != null) {
+            processWithSplits(batch, processor, work);
+        }
+        logSummary(items.size(), work.failedItems.size());
+        return work.failedItems;
+    }
+
+    /**
+     * Processes all the items with a number of tasks in the executor, each one taking the next batch when it is
+     * done with the previous one. The processor must be thread-safe.
+     *
+     * @return the items that could not be processed
+     */
+    public <T> List<T> processAll(List<T> items, final BatchProcessor<T> processor, ExecutorService executor, int parallelism) throws InterruptedException {
+        if (parallelism <= 1) {
+            return processAll(items, processor);
+        }
+        final Work<T> work = new Work<T>(items);
+        List<Future<Void>> workers = new ArrayList<Future<Void>>();
+        for (int i = 0; i < parallelism; i++) {
+            workers.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    List<T> batch;
+                    while ((batch = work.nextBatch()) != null) {
+                        processWithSplits(batch, processor, work);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> worker : workers) {
+            try {
+                worker.get();
+            } catch (ExecutionException e) {
+                logger.error("Batch worker " + name + " failed: " + e.getCause());
+            }
+        }
+        logSummary(items.size(), work.failedItems.size());
+        return work.failedItems;
+    }
+
+    public synchronized int getBatchSize() {
+        return batchSize;
+    }
+
+    public synchronized long getNumBatches() {
+        return numBatches;
+    }
+
+    public synchronized long getNumSplits() {
+        return numSplits;
+    }
+
+    public synchronized long getNumFailedItems() {
+        return numFailedItems;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return name + ": batch size " + batchSize + " (" + minBatchSize + "-" + maxBatchSize + "), " + numBatches
+                + " batches, " + numFailedBatches + " failed, " + numSplits + " splits, " + numFailedItems + " items given up. " + circuitBreaker;
+    }
+
+    private <T> void processWithSplits(List<T> batch, BatchProcessor<T> processor, Work<T> work) {
+        int numTries = 0;
+        int numServiceFailures = 0;
+        long waitDeadline = System.currentTimeMillis() + maxWaitMillis;
+        while (true) {
+            // the service is not called while it is known to be down
+            if (!circuitBreaker.allowRequest()) {
+                long millis = Math.max(MIN_WAIT_MILLIS, circuitBreaker.getMillisUntilRetry());
+                if (System.currentTimeMillis() + millis > waitDeadline || !waitMillis(millis)) {
+                    giveUp(batch, work, "the service is not available. " + circuitBreaker);
+                    return;
+                }
+                continue;
+            }
+
+            long startTime = System.currentTimeMillis();
+            boolean success;
+            try {
+                success = processor.process(batch);
+            } catch (Exception e) {
+                // the service failed: trying smaller batches would only add load, so the batch is retried later
+                logger.error("Batch of " + batch.size() + " items failed in " + name + ": " + e.getMessage());
+                circuitBreaker.recordFailure();
+                batchFailed();
+                numServiceFailures++;
+                if (numServiceFailures > maxServiceRetries || !waitMillis(circuitBreaker.getMillisUntilRetry())) {
+                    giveUp(batch, work, "the service failed " + numServiceFailures + " times");
+                    return;
+                }
+                continue;
+            }
+            long latency = System.currentTimeMillis() - startTime;
+            // the service answered, even if it rejected the batch
+            circuitBreaker.recordSuccess(latency);
+
+            if (success) {
+                batchSucceeded(latency);
+                return;
+            }
+            batchFailed();
+
+            if (batch.size() > minBatchSize) {
+                // the batch was rejected, try the halves on their own to find the bad items
+                synchronized (this) {
+                    numSplits++;
+                }
+                int half = batch.size() / 2;
+                processWithSplits(batch.subList(0, half), processor, work);
+                processWithSplits(batch.subList(half, batch.size()), processor, work);
+                return;
+            }
+            if (numTries >= maxRetriesAtMinSize) {
+                giveUp(batch, work, "they were rejected " + (numTries + 1) + " times");
+                return;
+            }
+            numTries++;
+        }
+    }
+
+    private <T> void giveUp(List<T> batch, Work<T> work, String reason) {
+        logger.error("Giving up " + batch.size() + " items in " + name + ": " + reason);
+        work.addFailed(batch);
+        synchronized (this) {
+            numFailedItems = numFailedItems + batch.size();
+        }
+    }
+
+    /**
+     * @return false if the thread was interrupted, which is flagged again for the caller
+     */
+    private boolean waitMillis(long millis) {
+        if (millis <= 0) {
+            return true;
+        }
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private synchronized void batchSucceeded(long latency) {
+        numBatches++;
+        int previousBatchSize = batchSize;
+        if (latency <= targetLatencyMillis) {
+            batchSize = Math.min(maxBatchSize, batchSize + increaseStep);
+        } else {
+            batchSize = Math.max(minBatchSize, (int) (batchSize * decreaseFactor));
+            logger.debug(name + ": slow batch (" + latency + " ms), batch size " + previousBatchSize + " -> " + batchSize);
+        }
+    }
+
+    private synchronized void batchFailed() {
+        numBatches++;
+        numFailedBatches++;
+        int previousBatchSize = batchSize;
+        batchSize = Math.max(minBatchSize, (int) (batchSize * decreaseFactor));
+        logger.debug(name + ": failed batch, batch size " + previousBatchSize + " -> " + batchSize);
+    }
+
+    private void logSummary(int numItems, int numFailed) {
+        logger.info("Processed " + numItems + " items (" + numFailed + " failed). " + this);
+    }
+
+    /**
+     * The items of a processAll call, handed out in batches of the current size
+     */
+    private class Work<T> {
+        private final List<T> items;
+        private int position = 0;
+        private final List<T> failedItems = new ArrayList<T>();
+
+        private Work(List<T> items) {
+            this.items = items;
+        }
+
+        private List<T> nextBatch() {
+            int size = getBatchSize();
+            synchronized (this) {
+                if (position >= items.size()) {
+                    return null;
+                }
+                int end = Math.min(items.size(), position + size);
+                List<T> batch = items.subList(position, end);
+                position = end;
+                return batch;
+            }
+        }
+
+        private synchronized void addFailed(List<T> batch) {
+            failedItems.addAll(batch);
+        }
+    }
+
+}
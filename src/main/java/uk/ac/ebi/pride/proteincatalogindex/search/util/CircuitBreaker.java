@@ -0,0 +1,212 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+
+/**
+ * @version $Id$
+ *
+ * Keeps track of the health of a remote service shared by several threads, so they stop hammering it when it is
+ * down and do not all wait a fixed time when it has a hiccup.
+ *
+ * The breaker starts CLOSED (calls allowed). After a number of consecutive failures it goes OPEN and rejects calls
+ * for a backoff time that doubles every time it opens again (up to a maximum), with random jitter so waiting threads
+ * do not all come back at once. Once the backoff is over it goes HALF_OPEN and lets a single probe call through: if
+ * it succeeds the breaker closes again, if it fails the breaker opens for longer.
+ *
+ * Successful calls slower than a threshold are counted apart, to tell a slow service from a service that is down.
+ * The health of the service is also cached: callers can skip their own health checks while isHealthCheckDue() is
+ * false.
+ */
+public class CircuitBreaker {
+
+    private static Logger logger = LoggerFactory.getLogger(CircuitBreaker.class.getName());
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    private static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 1000;
+    private static final long DEFAULT_MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+    private static final long DEFAULT_SLOW_CALL_MILLIS = 10000;
+    private static final long DEFAULT_HEALTH_CHECK_INTERVAL_MILLIS = 30000;
+    // no shift beyond this, the backoff is capped anyway
+    private static final int MAX_BACKOFF_EXPONENT = 20;
+
+    private final String name;
+    private final Random random = new Random();
+
+    private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+    private long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+    private long slowCallMillis = DEFAULT_SLOW_CALL_MILLIS;
+    private long healthCheckIntervalMillis = DEFAULT_HEALTH_CHECK_INTERVAL_MILLIS;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private int consecutiveOpenings = 0;
+    private long openUntil = 0;
+    private boolean probeInFlight = false;
+    private long lastSuccessTime = 0;
+
+    private long numSuccesses = 0;
+    private long numSlowCalls = 0;
+    private long numFailures = 0;
+    private long numRejected = 0;
+    private long numOpenings = 0;
+
+    public CircuitBreaker(String name) {
+        this.name = name;
+    }
+
+    public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+    }
+
+    public void setInitialBackoffMillis(long initialBackoffMillis) {
+        this.initialBackoffMillis = Math.max(1, initialBackoffMillis);
+    }
+
+    public void setMaxBackoffMillis(long maxBackoffMillis) {
+        this.maxBackoffMillis = Math.max(1, maxBackoffMillis);
+    }
+
+    public void setSlowCallMillis(long slowCallMillis) {
+        this.slowCallMillis = slowCallMillis;
+    }
+
+    public void setHealthCheckIntervalMillis(long healthCheckIntervalMillis) {
+        this.healthCheckIntervalMillis = healthCheckIntervalMillis;
+    }
+
+    /**
+     * @return true if a call can be made now. When the breaker is half open only the first caller gets true, and it
+     * must report the outcome with recordSuccess or recordFailure
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN && currentTimeMillis() >= openUntil) {
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+            logger.info("Circuit " + name + " half open, probing");
+        }
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.HALF_OPEN && !probeInFlight) {
+            probeInFlight = true;
+            return true;
+        }
+        numRejected++;
+        return false;
+    }
+
+    /**
+     * @param elapsedMillis how long the call took
+     */
+    public synchronized void recordSuccess(long elapsedMillis) {
+        numSuccesses++;
+        if (elapsedMillis >= slowCallMillis) {
+            numSlowCalls++;
+            logger.warn("Circuit " + name + ": slow call (" + elapsedMillis + " ms)");
+        }
+        if (state != State.CLOSED) {
+            logger.info("Circuit " + name + " closed again after " + consecutiveFailures + " consecutive failures");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        consecutiveOpenings = 0;
+        probeInFlight = false;
+        lastSuccessTime = currentTimeMillis();
+    }
+
+    public synchronized void recordFailure() {
+        numFailures++;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            open();
+        }
+    }
+
+    /**
+     * @return true if the service has not been seen working recently, so callers should check it before using it
+     */
+    public synchronized boolean isHealthCheckDue() {
+        return state != State.CLOSED || currentTimeMillis() - lastSuccessTime >= healthCheckIntervalMillis;
+    }
+
+    /**
+     * @return how long to wait before calling again: the rest of the open time if the breaker is open, otherwise a
+     * short backoff that grows with the consecutive failures
+     */
+    public synchronized long getMillisUntilRetry() {
+        if (state == State.OPEN) {
+            return Math.max(0, openUntil - currentTimeMillis());
+        } else if (state == State.HALF_OPEN) {
+            return initialBackoffMillis;
+        } else if (consecutiveFailures > 0) {
+            return backoffWithJitter(consecutiveFailures - 1);
+        } else {
+            return 0;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public synchronized long getNumSuccesses() {
+        return numSuccesses;
+    }
+
+    public synchronized long getNumSlowCalls() {
+        return numSlowCalls;
+    }
+
+    public synchronized long getNumFailures() {
+        return numFailures;
+    }
+
+    public synchronized long getNumRejected() {
+        return numRejected;
+    }
+
+    public synchronized long getNumOpenings() {
+        return numOpenings;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Circuit " + name + ": " + state + ", " + consecutiveFailures + " consecutive failures, "
+                + numSuccesses + " successes (" + numSlowCalls + " slow), " + numFailures + " failures, "
+                + numRejected + " rejected, opened " + numOpenings + " times";
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private void open() {
+        long backoff = backoffWithJitter(consecutiveOpenings);
+        consecutiveOpenings++;
+        numOpenings++;
+        state = State.OPEN;
+        probeInFlight = false;
+        openUntil = currentTimeMillis() + backoff;
+        logger.warn("Circuit " + name + " OPEN for " + backoff + " ms after " + consecutiveFailures + " consecutive failures");
+    }
+
+    /**
+     * Exponential backoff with "equal jitter": between half and all of initialBackoff * 2^exponent, capped
+     */
+    private long backoffWithJitter(int exponent) {
+        long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(exponent, MAX_BACKOFF_EXPONENT));
+        long half = backoff / 2;
+        return half + (long) (random.nextDouble() * (backoff - half));
+    }
+
+}
@@ -10,6 +10,9 @@ import java.io.OutputStream;
  *
  * Adapted from: http://www.java2s.com/Open-Source/Java/Testing/jacareto/jacareto/toolkit/log4j/LogOutputStream.java.htm
  *
+ * Note: writes and flushes are synchronized, so an instance can be shared by several threads. Lines written by
+ * different threads at the same time can still be mixed, so a stream per thread is preferred.
+ *
  */
 public class ErrorLogOutputStream extends OutputStream {
 
@@ -53,7 +56,7 @@ public class ErrorLogOutputStream extends OutputStream {
      *
      * @param b DOCUMENT ME!
      */
-    public void write (int b) {
+    public synchronized void write (int b) {
         byte[] bytes = new byte[1];
         bytes[0] = (byte) (b & 0xff);
         mem = mem + new String(bytes);
@@ -67,7 +70,7 @@ public class ErrorLogOutputStream extends OutputStream {
     /**
      * Flushes the output stream.
      */
-    public void flush () {
+    public synchronized void flush () {
         logger.error(mem);
         mem = "";
     }
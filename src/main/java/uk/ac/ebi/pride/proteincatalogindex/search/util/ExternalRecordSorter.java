@@ -0,0 +1,218 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * @version $Id$
+ *
+ * Sorts fixed length records that may not fit in memory, for a SortedRecordFile. Records are sorted in runs of
+ * maxRecordsInMemory that are written to temporary files and merged into the output at the end. At most
+ * maxMergeFanIn runs are open at a time: when there are more, the oldest ones are first merged into new runs. Records
+ * are compared as unsigned bytes, and duplicated records are written once.
+ *
+ * Not thread-safe.
+ */
+public class ExternalRecordSorter {
+
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+    public static final int DEFAULT_MAX_MERGE_FAN_IN = 64;
+
+    private final File runsDirectory;
+    private final String name;
+    private final int recordLength;
+    private final int maxRecordsInMemory;
+    private final int maxMergeFanIn;
+    private final Comparator<byte[]> recordComparator;
+
+    private final List<byte[]> records = new ArrayList<byte[]>();
+    private final List<File> runs = new ArrayList<File>();
+    private int numRunFiles = 0;
+
+    /**
+     * @param runsDirectory where the temporary run files are written
+     * @param name prefix of the run files
+     */
+    public ExternalRecordSorter(File runsDirectory, String name, int recordLength, int maxRecordsInMemory) {
+        this(runsDirectory, name, recordLength, maxRecordsInMemory, DEFAULT_MAX_MERGE_FAN_IN);
+    }
+
+    /**
+     * @param maxMergeFanIn most runs read at the same time when merging, which bounds the open files
+     */
+    public ExternalRecordSorter(File runsDirectory, String name, final int recordLength, int maxRecordsInMemory, int maxMergeFanIn) {
+        this.runsDirectory = runsDirectory;
+        this.name = name;
+        this.recordLength = recordLength;
+        this.maxRecordsInMemory = Math.max(1, maxRecordsInMemory);
+        this.maxMergeFanIn = Math.max(2, maxMergeFanIn);
+        this.recordComparator = new Comparator<byte[]>() {
+            @Override
+            public int compare(byte[] a, byte[] b) {
+                return SortedRecordFile.compare(a, b, recordLength);
+            }
+        };
+    }
+
+    /**
+     * @param record a record of recordLength bytes, not to be changed afterwards
+     */
+    public void add(byte[] record) throws IOException {
+        if (record.length != recordLength) {
+            throw new IllegalArgumentException("Records must be " + recordLength + " bytes long");
+        }
+        records.add(record);
+        if (records.size() >= maxRecordsInMemory) {
+            writeRun();
+        }
+    }
+
+    /**
+     * @return number of sorted runs written so far
+     */
+    public int getNumRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Merges all the records into the file, after the header, and deletes the runs
+     *
+     * @param header bytes written before the records (may be empty)
+     * @return number of records written
+     */
+    public long finish(File file, byte[] header) throws IOException {
+        try {
+            writeRun();
+            // the runs are kept in the list until deleted, so deleteRuns finds them if a merge fails
+            while (runs.size() > maxMergeFanIn) {
+                List<File> group = new ArrayList<File>(runs.subList(0, maxMergeFanIn));
+                File run = newRunFile();
+                runs.add(run);
+                OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(run), IO_BUFFER_SIZE);
+                try {
+                    merge(group, outputStream);
+                } finally {
+                    outputStream.close();
+                }
+                for (File mergedRun : group) {
+                    mergedRun.delete();
+                }
+                runs.subList(0, maxMergeFanIn).clear();
+            }
+            OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file), IO_BUFFER_SIZE);
+            try {
+                outputStream.write(header);
+                return merge(runs, outputStream);
+            } finally {
+                outputStream.close();
+            }
+        } finally {
+            deleteRuns();
+        }
+    }
+
+    /**
+     * Drops the records and the runs written so far
+     */
+    public void deleteRuns() {
+        for (File run : runs) {
+            run.delete();
+        }
+        runs.clear();
+        records.clear();
+    }
+
+    /**
+     * Merges the sorted runs into the stream, writing duplicated records once
+     *
+     * @return number of records written
+     */
+    private long merge(List<File> runsToMerge, OutputStream outputStream) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(Math.max(1, runsToMerge.size()), new Comparator<RunReader>() {
+            @Override
+            public int compare(RunReader a, RunReader b) {
+                return recordComparator.compare(a.current, b.current);
+            }
+        });
+        List<RunReader> readers = new ArrayList<RunReader>();
+        long numRecords = 0;
+        try {
+            for (File run : runsToMerge) {
+                RunReader reader = new RunReader(run, recordLength);
+                readers.add(reader);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+            byte[] previous = null;
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                byte[] record = reader.current;
+                if (previous == null || recordComparator.compare(previous, record) != 0) {
+                    outputStream.write(record);
+                    numRecords++;
+                    previous = record;
+                }
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+        return numRecords;
+    }
+
+    private File newRunFile() {
+        return new File(runsDirectory, name + "-" + numRunFiles++);
+    }
+
+    private void writeRun() throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        Collections.sort(records, recordComparator);
+        File run = newRunFile();
+        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(run), IO_BUFFER_SIZE);
+        try {
+            for (byte[] record : records) {
+                outputStream.write(record);
+            }
+        } finally {
+            outputStream.close();
+        }
+        runs.add(run);
+        records.clear();
+    }
+
+    private static class RunReader {
+        private final DataInputStream inputStream;
+        private final int recordLength;
+        private byte[] current;
+
+        private RunReader(File run, int recordLength) throws IOException {
+            this.inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(run), IO_BUFFER_SIZE));
+            this.recordLength = recordLength;
+        }
+
+        private boolean next() throws IOException {
+            // a new array each time, the previous one may still be in use
+            byte[] record = new byte[recordLength];
+            try {
+                inputStream.readFully(record);
+            } catch (EOFException e) {
+                current = null;
+                return false;
+            }
+            current = record;
+            return true;
+        }
+
+        private void close() throws IOException {
+            inputStream.close();
+        }
+    }
+
+}
@@ -0,0 +1,310 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @version $Id$
+ *
+ * Index of the entries in an uncompressed FASTA file (e.g. a UniProt release or a submission database), built once
+ * with build() and memory-mapped afterwards. Each record keeps the accession, offset and length of an entry, so a
+ * lookup is a binary search on the mapped records and a single read of the entry from the FASTA file.
+ *
+ * Entries are indexed by their first header token and, for 'db|accession|...' tokens (e.g. 'sp|P12345|AATM_RABIT'),
+ * by the accession too. If an accession is in more than one entry, the first one in the file is taken. The index
+ * records the size and date of the FASTA file, so an index of a changed file is not used.
+ *
+ * Lookups can be done by several threads at the same time.
+ */
+public class FastaIndex {
+
+    private static Logger logger = LoggerFactory.getLogger(FastaIndex.class.getName());
+
+    public static final String INDEX_FILE_EXTENSION = ".pidx";
+
+    private static final Charset HEADER_CHARSET = Charset.forName("ISO-8859-1");
+    private static final Charset NAME_CHARSET = Charset.forName("UTF-8");
+    private static final byte[] MAGIC = "PRFASTA1".getBytes(HEADER_CHARSET);
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+
+    // header: magic, FASTA file length, FASTA file last modified
+    static final int HEADER_LENGTH = 24;
+    // record layout: accession (ASCII, padded with zeros), entry offset, entry length
+    static final int KEY_LENGTH = 32;
+    static final int RECORD_LENGTH = KEY_LENGTH + 8 + 4;
+
+    private final File fastaFile;
+    private final SortedRecordFile records;
+    private final RandomAccessFile fasta;
+    private final FileChannel fastaChannel;
+
+    private FastaIndex(File fastaFile, SortedRecordFile records) throws IOException {
+        this.fastaFile = fastaFile;
+        this.records = records;
+        this.fasta = new RandomAccessFile(fastaFile, "r");
+        this.fastaChannel = fasta.getChannel();
+    }
+
+    /**
+     * @return the index file of a FASTA file, in the given directory
+     */
+    public static File getIndexFile(File fastaFile, File indexDirectory) {
+        return new File(indexDirectory, fastaFile.getName() + INDEX_FILE_EXTENSION);
+    }
+
+    /**
+     * @return true if there is an index of the current version of the FASTA file
+     */
+    public static boolean isUpToDate(File fastaFile, File indexFile) {
+        if (!fastaFile.isFile() || !indexFile.isFile()) {
+            return false;
+        }
+        try {
+            DataInputStream inputStream = new DataInputStream(new FileInputStream(indexFile));
+            try {
+                byte[] header = new byte[HEADER_LENGTH];
+                inputStream.readFully(header);
+                return Arrays.equals(header, header(fastaFile));
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Indexes the entries of the FASTA file. The new index replaces the old one only once it is complete
+     *
+     * @param maxRecordsInMemory records sorted in memory at once
+     * @return number of records in the index
+     */
+    public static long build(File fastaFile, File indexFile, int maxRecordsInMemory) throws IOException {
+        if (fastaFile.getName().endsWith(".gz")) {
+            throw new IOException("FASTA file " + fastaFile + " must be uncompressed to read its entries by offset");
+        }
+        long startTime = System.currentTimeMillis();
+        File indexDirectory = indexFile.getAbsoluteFile().getParentFile();
+        indexDirectory.mkdirs();
+        File runsDirectory = new File(indexDirectory, indexFile.getName() + ".runs-" + startTime);
+        if (!runsDirectory.mkdirs()) {
+            throw new IOException("Could not create the temporary directory " + runsDirectory);
+        }
+        ExternalRecordSorter sorter = new ExternalRecordSorter(runsDirectory, "entries", RECORD_LENGTH, maxRecordsInMemory);
+        try {
+            byte[] header = header(fastaFile);
+            long numEntries = readEntries(fastaFile, sorter);
+            File newIndexFile = new File(indexFile.getAbsolutePath() + ".new");
+            long numRecords = sorter.finish(newIndexFile, header);
+            if (!newIndexFile.renameTo(indexFile)) {
+                // some platforms do not rename over an existing file
+                if (!indexFile.delete() || !newIndexFile.renameTo(indexFile)) {
+                    throw new IOException("Could not replace " + indexFile + " with " + newIndexFile);
+                }
+            }
+            logger.info("Indexed " + numEntries + " entries (" + numRecords + " accessions) of " + fastaFile + " into "
+                    + indexFile + " in " + (System.currentTimeMillis() - startTime) / 1000 + " s");
+            return numRecords;
+        } finally {
+            sorter.deleteRuns();
+            runsDirectory.delete();
+        }
+    }
+
+    public static FastaIndex open(File fastaFile, File indexFile) throws IOException {
+        if (!isUpToDate(fastaFile, indexFile)) {
+            throw new IOException("The index " + indexFile + " is not up to date with " + fastaFile);
+        }
+        FastaIndex index = new FastaIndex(fastaFile, new SortedRecordFile(indexFile, HEADER_LENGTH, RECORD_LENGTH));
+        logger.info("Opened FASTA index " + indexFile + ": " + index.records.getNumRecords() + " accessions");
+        return index;
+    }
+
+    /**
+     * @return the details of the first entry with the accession, null if there is none
+     */
+    public ProteinDetails get(String accession) throws IOException {
+        byte[] probe = new byte[KEY_LENGTH];
+        if (!SortedRecordFile.encodeAscii(accession, probe, 0, KEY_LENGTH)) {
+            return null;
+        }
+        long record = records.lowerBound(probe, KEY_LENGTH);
+        if (!records.matches(record, probe, KEY_LENGTH)) {
+            return null;
+        }
+        long offset = records.getLong(record, KEY_LENGTH);
+        int length = records.getInt(record, KEY_LENGTH + 8);
+        ByteBuffer entry = ByteBuffer.allocate(length);
+        while (entry.hasRemaining()) {
+            if (fastaChannel.read(entry, offset + entry.position()) < 0) {
+                throw new IOException("FASTA file " + fastaFile + " is shorter than its index, it must be indexed again");
+            }
+        }
+        return parseEntry(entry.array());
+    }
+
+    public long getNumRecords() {
+        return records.getNumRecords();
+    }
+
+    public File getFastaFile() {
+        return fastaFile;
+    }
+
+    public void close() throws IOException {
+        fasta.close();
+    }
+
+    /**
+     * @return the accessions an entry is indexed by, from its header line (without the '>')
+     */
+    static List<String> parseAccessions(String header) {
+        List<String> res = new ArrayList<String>();
+        String token = firstToken(header);
+        if (token.length() > 0) {
+            res.add(token);
+            String[] parts = token.split("\\|");
+            if (parts.length > 1 && parts[1].length() > 0) {
+                res.add(parts[1]);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return the protein name in a header line (without the '>'), null if there is none. UniProt headers have the
+     * organism and other fields after the name ('... Name OS=Organism OX=...'), which are left out
+     */
+    static String parseName(String header) {
+        String token = firstToken(header);
+        if (token.length() >= header.length()) {
+            return null;
+        }
+        String name = header.substring(token.length()).trim();
+        if (token.startsWith("sp|") || token.startsWith("tr|")) {
+            int fields = name.indexOf(" OS=");
+            if (fields >= 0) {
+                name = name.substring(0, fields);
+            }
+        }
+        return (name.length() > 0) ? name : null;
+    }
+
+    private static String firstToken(String header) {
+        int end = 0;
+        while (end < header.length() && !Character.isWhitespace(header.charAt(end))) {
+            end++;
+        }
+        return header.substring(0, end);
+    }
+
+    private static ProteinDetails parseEntry(byte[] entry) {
+        int headerEnd = 0;
+        while (headerEnd < entry.length && entry[headerEnd] != '\n') {
+            headerEnd++;
+        }
+        // skip the '>' and the '\r' of Windows line ends
+        int headerStart = (entry.length > 0 && entry[0] == '>') ? 1 : 0;
+        int headerLength = Math.max(0, headerEnd - headerStart);
+        if (headerLength > 0 && entry[headerStart + headerLength - 1] == '\r') {
+            headerLength--;
+        }
+        String header = new String(entry, headerStart, headerLength, NAME_CHARSET);
+
+        StringBuilder sequence = new StringBuilder(entry.length - headerEnd);
+        for (int i = headerEnd; i < entry.length; i++) {
+            if (entry[i] > ' ') {
+                sequence.append((char) entry[i]);
+            }
+        }
+        return new ProteinDetails(sequence.toString(), parseName(header));
+    }
+
+    /**
+     * Adds a record for each accession of each entry, reading the file in blocks and keeping track of the offsets
+     *
+     * @return number of entries
+     */
+    private static long readEntries(File fastaFile, ExternalRecordSorter sorter) throws IOException {
+        InputStream inputStream = new FileInputStream(fastaFile);
+        long numEntries = 0;
+        long numSkipped = 0;
+        try {
+            byte[] buffer = new byte[IO_BUFFER_SIZE];
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            long position = 0;
+            long entryStart = -1;
+            boolean lineStart = true;
+            boolean inHeader = false;
+            int read;
+            while ((read = inputStream.read(buffer)) >= 0) {
+                for (int i = 0; i < read; i++, position++) {
+                    byte b = buffer[i];
+                    if (lineStart && b == '>') {
+                        if (entryStart >= 0) {
+                            numEntries++;
+                            numSkipped += addEntry(sorter, header, entryStart, position - entryStart);
+                        }
+                        entryStart = position;
+                        inHeader = true;
+                        header.reset();
+                    } else if (inHeader) {
+                        if (b == '\n') {
+                            inHeader = false;
+                        } else if (b != '\r') {
+                            header.write(b);
+                        }
+                    }
+                    lineStart = (b == '\n');
+                }
+            }
+            if (entryStart >= 0) {
+                numEntries++;
+                numSkipped += addEntry(sorter, header, entryStart, position - entryStart);
+            }
+        } finally {
+            inputStream.close();
+        }
+        if (numSkipped > 0) {
+            logger.warn(numSkipped + " accessions in " + fastaFile + " are too long or not ASCII and were not indexed");
+        }
+        return numEntries;
+    }
+
+    /**
+     * @return number of accessions of the entry that could not be indexed
+     */
+    private static int addEntry(ExternalRecordSorter sorter, ByteArrayOutputStream header, long offset, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("FASTA entry at offset " + offset + " is too long");
+        }
+        int numSkipped = 0;
+        for (String accession : parseAccessions(new String(header.toByteArray(), HEADER_CHARSET))) {
+            byte[] record = new byte[RECORD_LENGTH];
+            if (!SortedRecordFile.encodeAscii(accession, record, 0, KEY_LENGTH)) {
+                numSkipped++;
+                continue;
+            }
+            ByteBuffer.wrap(record, KEY_LENGTH, 12).putLong(offset).putInt((int) length);
+            sorter.add(record);
+        }
+        return numSkipped;
+    }
+
+    private static byte[] header(File fastaFile) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.put(MAGIC);
+        header.putLong(fastaFile.length());
+        header.putLong(fastaFile.lastModified());
+        return header.array();
+    }
+
+}
@@ -0,0 +1,97 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @version $Id$
+ *
+ * Protein details read from local FASTA files through their FastaIndex. The files are looked up in the order given,
+ * so an accession found in several of them gets the details of the first one.
+ */
+public class FastaProteinDetailsProvider implements ProteinDetailsProvider {
+
+    private static Logger logger = LoggerFactory.getLogger(FastaProteinDetailsProvider.class.getName());
+
+    private final List<FastaIndex> indexes;
+
+    private final AtomicLong numFound = new AtomicLong();
+    private final AtomicLong numMissing = new AtomicLong();
+
+    public FastaProteinDetailsProvider(List<FastaIndex> indexes) {
+        this.indexes = new ArrayList<FastaIndex>(indexes);
+    }
+
+    /**
+     * Opens the indexes of the FASTA files built in the directory. Files without an up to date index are left out
+     *
+     * @return the provider, null if no file could be opened
+     */
+    public static FastaProteinDetailsProvider open(List<File> fastaFiles, File indexDirectory) {
+        List<FastaIndex> indexes = new ArrayList<FastaIndex>();
+        for (File fastaFile : fastaFiles) {
+            File indexFile = FastaIndex.getIndexFile(fastaFile, indexDirectory);
+            if (!FastaIndex.isUpToDate(fastaFile, indexFile)) {
+                logger.warn("There is no up to date index of " + fastaFile + " in " + indexDirectory + ", it will not be used");
+                continue;
+            }
+            try {
+                indexes.add(FastaIndex.open(fastaFile, indexFile));
+            } catch (IOException e) {
+                logger.error("Could not open the index of " + fastaFile + ", it will not be used");
+                e.printStackTrace();
+            }
+        }
+        return (indexes.size() > 0) ? new FastaProteinDetailsProvider(indexes) : null;
+    }
+
+    @Override
+    public Map<String, ProteinDetails> getProteinDetails(Collection<String> accessions) throws IOException {
+        Map<String, ProteinDetails> res = new HashMap<String, ProteinDetails>();
+        for (String accession : accessions) {
+            if (accession == null || res.containsKey(accession)) {
+                continue;
+            }
+            ProteinDetails details = null;
+            for (int i = 0; i < indexes.size() && details == null; i++) {
+                details = indexes.get(i).get(accession);
+            }
+            if (details != null) {
+                res.put(accession, details);
+                numFound.incrementAndGet();
+            } else {
+                numMissing.incrementAndGet();
+            }
+        }
+        return res;
+    }
+
+    public long getNumFound() {
+        return numFound.get();
+    }
+
+    public long getNumMissing() {
+        return numMissing.get();
+    }
+
+    public void close() {
+        for (FastaIndex index : indexes) {
+            try {
+                index.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Local protein details: " + numFound.get() + " found, " + numMissing.get() + " missing in " + indexes.size() + " FASTA files";
+    }
+
+}
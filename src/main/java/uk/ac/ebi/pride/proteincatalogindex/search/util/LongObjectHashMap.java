@@ -0,0 +1,140 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import java.util.Arrays;
+
+/**
+ * @version $Id$
+ *
+ * Map from longs (e.g. AccessionCodec codes) to objects in an open addressing table, with the keys in a primitive
+ * array instead of boxed in entries. The key 0 cannot be used. Not thread-safe.
+ */
+public class LongObjectHashMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final double MAX_LOAD_FACTOR = 0.75;
+    private static final long EMPTY = 0L;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+
+    public LongObjectHashMap() {
+        this(0);
+    }
+
+    public LongObjectHashMap(int expectedSize) {
+        int capacity = capacityFor(expectedSize);
+        keys = new long[capacity];
+        values = new Object[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        if (key == EMPTY) {
+            return null;
+        }
+        int slot = findSlot(keys, key);
+        return (keys[slot] == key) ? (V) values[slot] : null;
+    }
+
+    public boolean containsKey(long key) {
+        return key != EMPTY && keys[findSlot(keys, key)] == key;
+    }
+
+    /**
+     * @return the previous value of the key, null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("0 cannot be used as a key");
+        }
+        if (size + 1 > keys.length * MAX_LOAD_FACTOR) {
+            resize(keys.length << 1);
+        }
+        int slot = findSlot(keys, key);
+        V previous = (V) values[slot];
+        if (keys[slot] != key) {
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+        return previous;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * @return the keys, in no particular order
+     */
+    public long[] keys() {
+        long[] res = new long[size];
+        int i = 0;
+        for (long key : keys) {
+            if (key != EMPTY) {
+                res[i++] = key;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * MurmurHash3 finalizer, codes of similar accessions differ only in a few bits
+     */
+    static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize / MAX_LOAD_FACTOR) {
+            capacity = capacity << 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * @return the slot of the key, or the empty slot where it would go
+     */
+    private static int findSlot(long[] keys, long key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        long current;
+        while ((current = keys[slot]) != EMPTY && current != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize(int newCapacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[newCapacity];
+        values = new Object[newCapacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = findSlot(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+}
@@ -0,0 +1,32 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+/**
+ * @version $Id$
+ *
+ * The bits of a PRT row we need to build a protein for the catalog
+ */
+public class MzTabProteinReference {
+
+    private final String accession;
+    private final String database;
+    private final String databaseVersion;
+
+    public MzTabProteinReference(String accession, String database, String databaseVersion) {
+        this.accession = accession;
+        this.database = database;
+        this.databaseVersion = databaseVersion;
+    }
+
+    public String getAccession() {
+        return accession;
+    }
+
+    public String getDatabase() {
+        return database;
+    }
+
+    public String getDatabaseVersion() {
+        return databaseVersion;
+    }
+
+}
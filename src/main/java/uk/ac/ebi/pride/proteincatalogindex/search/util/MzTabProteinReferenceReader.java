@@ -0,0 +1,141 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * @version $Id$
+ *
+ * Reads the protein references of an mzTab file without building the whole MZTabFile model. The file is scanned
+ * line by line, the PRH header is used to find the accession and database columns by name, and only those values
+ * are kept from each PRT row. Reading stops at the first section header after the protein section (PEH, PSH or SMH)
+ * since mzTab sections come in a fixed order, so peptides and PSMs are not even read.
+ *
+ * Gzipped files (.gz) are decompressed on the fly.
+ */
+public class MzTabProteinReferenceReader {
+
+    private static Logger logger = LoggerFactory.getLogger(MzTabProteinReferenceReader.class.getName());
+
+    private static final Charset MZTAB_CHARSET = Charset.forName("UTF-8");
+
+    public static final String COMPRESSED_FILE_EXTENSION = ".gz";
+    // big buffers, so network file systems are read in large chunks
+    private static final int FILE_BUFFER_SIZE = 1024 * 1024;
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    private static final String PROTEIN_HEADER_PREFIX = "PRH";
+    private static final String PROTEIN_ROW_PREFIX = "PRT";
+    private static final String[] LATER_SECTION_HEADER_PREFIXES = {"PEH", "PSH", "SMH"};
+    private static final String COLUMN_SEPARATOR = "\t";
+    private static final String NULL_VALUE = "null";
+
+    public static final String ACCESSION_COLUMN = "accession";
+    public static final String DATABASE_COLUMN = "database";
+    public static final String DATABASE_VERSION_COLUMN = "database_version";
+
+    public interface Handler {
+        void handle(MzTabProteinReference proteinReference);
+    }
+
+    /**
+     * Reads all the protein references in an mzTab file
+     */
+    public static List<MzTabProteinReference> read(File mzTabFile) throws IOException {
+        final List<MzTabProteinReference> res = new ArrayList<MzTabProteinReference>();
+        InputStream inputStream = open(mzTabFile);
+        try {
+            read(inputStream, new Handler() {
+                @Override
+                public void handle(MzTabProteinReference proteinReference) {
+                    res.add(proteinReference);
+                }
+            });
+        } finally {
+            inputStream.close();
+        }
+        return res;
+    }
+
+    /**
+     * Opens a buffered stream over the file, decompressing it if it is gzipped
+     */
+    public static InputStream open(File mzTabFile) throws IOException {
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(mzTabFile), FILE_BUFFER_SIZE);
+        if (mzTabFile.getName().endsWith(COMPRESSED_FILE_EXTENSION)) {
+            try {
+                inputStream = new GZIPInputStream(inputStream, GZIP_BUFFER_SIZE);
+            } catch (IOException e) {
+                inputStream.close();
+                throw e;
+            }
+        }
+        return inputStream;
+    }
+
+    /**
+     * Reads the protein references in an mzTab stream, passing them to the handler one at a time. The stream is
+     * not closed.
+     */
+    public static void read(InputStream inputStream, Handler handler) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, MZTAB_CHARSET));
+
+        int accessionColumn = -1;
+        int databaseColumn = -1;
+        int databaseVersionColumn = -1;
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(PROTEIN_ROW_PREFIX)) {
+                if (accessionColumn < 0) {
+                    throw new IOException("PRT row found before a PRH header with an '" + ACCESSION_COLUMN + "' column");
+                }
+                String[] values = line.split(COLUMN_SEPARATOR, -1);
+                handler.handle(new MzTabProteinReference(
+                        getValue(values, accessionColumn),
+                        getValue(values, databaseColumn),
+                        getValue(values, databaseVersionColumn)
+                ));
+            } else if (line.startsWith(PROTEIN_HEADER_PREFIX)) {
+                String[] columns = line.split(COLUMN_SEPARATOR, -1);
+                for (int i = 1; i < columns.length; i++) {
+                    String column = columns[i].trim();
+                    if (ACCESSION_COLUMN.equals(column)) {
+                        accessionColumn = i;
+                    } else if (DATABASE_COLUMN.equals(column)) {
+                        databaseColumn = i;
+                    } else if (DATABASE_VERSION_COLUMN.equals(column)) {
+                        databaseVersionColumn = i;
+                    }
+                }
+                logger.debug("PRH columns: " + ACCESSION_COLUMN + "=" + accessionColumn + " " + DATABASE_COLUMN + "=" + databaseColumn + " " + DATABASE_VERSION_COLUMN + "=" + databaseVersionColumn);
+            } else if (isLaterSectionHeader(line)) {
+                break;
+            }
+        }
+    }
+
+    private static String getValue(String[] values, int column) {
+        if (column < 0 || column >= values.length) {
+            return null;
+        }
+        String value = values[column];
+        return (value.length() == 0 || NULL_VALUE.equals(value)) ? null : value;
+    }
+
+    private static boolean isLaterSectionHeader(String line) {
+        for (String prefix : LATER_SECTION_HEADER_PREFIXES) {
+            if (line.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,172 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * @version $Id$
+ *
+ * Set of protein accessions kept outside the Java heap. Accessions are stored as 64-bit values in an open
+ * addressing table backed by a direct buffer, so each one takes 8 bytes (plus table slack) instead of a String in a
+ * HashSet. The table doubles its size as needed until maxBytes is reached, after which new accessions are not added
+ * and the set is flagged as saturated.
+ *
+ * Well-formed UniProt, UniParc and Ensembl accessions are stored as their exact AccessionCodec code. Any other
+ * accession is stored as a fingerprint, kept apart from the codes.
+ *
+ * Note: two different irregular accessions can in theory share a fingerprint. With 64-bit fingerprints and tens of
+ * millions of accessions the chance of a false 'contains' is in the order of 1e-12 per lookup.
+ *
+ * Note: the direct buffer memory counts against -XX:MaxDirectMemorySize, not against the heap
+ */
+public class OffHeapAccessionSet {
+
+    private static final int BYTES_PER_SLOT = 8;
+    private static final int MIN_SLOTS = 16;
+    // preferred initial size, if maxBytes allows it
+    private static final int INITIAL_SLOTS = 1 << 16;
+    private static final double MAX_LOAD_FACTOR = 0.75;
+    private static final long EMPTY_SLOT = 0L;
+
+    private final long maxBytes;
+
+    private LongBuffer slots;
+    private int numSlots;
+    private int size;
+    private boolean saturated;
+
+    /**
+     * @param expectedSize number of accessions expected, used to size the initial table
+     * @param maxBytes upper bound for the memory used by the table (a single direct buffer cannot exceed 2GB), the
+     * initial table included
+     */
+    public OffHeapAccessionSet(long expectedSize, long maxBytes) {
+        if (maxBytes < (long) MIN_SLOTS * BYTES_PER_SLOT) {
+            throw new IllegalArgumentException("An accession set needs at least " + (MIN_SLOTS * BYTES_PER_SLOT) + " bytes, not " + maxBytes);
+        }
+        this.maxBytes = Math.min(maxBytes, (long) Integer.MAX_VALUE);
+        int initialSlots = MIN_SLOTS;
+        while ((initialSlots < INITIAL_SLOTS || initialSlots < expectedSize / MAX_LOAD_FACTOR) && canGrow(initialSlots)) {
+            initialSlots = initialSlots << 1;
+        }
+        allocate(initialSlots);
+    }
+
+    public synchronized boolean contains(String accession) {
+        long fingerprint = fingerprint(accession);
+        int mask = numSlots - 1;
+        int slot = LongObjectHashMap.mix(fingerprint) & mask;
+        long current;
+        while ((current = slots.get(slot)) != EMPTY_SLOT) {
+            if (current == fingerprint) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @return false if the accession was already there, or the set is saturated and it could not be added
+     */
+    public synchronized boolean add(String accession) {
+        if (size + 1 > numSlots * MAX_LOAD_FACTOR) {
+            if (canGrow(numSlots)) {
+                resize(numSlots << 1);
+            } else {
+                saturated = true;
+                return false;
+            }
+        }
+        return insert(fingerprint(accession));
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return true if some accession could not be added because the memory limit was reached
+     */
+    public synchronized boolean isSaturated() {
+        return saturated;
+    }
+
+    /**
+     * @return the memory currently allocated outside the heap, in bytes
+     */
+    public synchronized long getAllocatedBytes() {
+        return (long) numSlots * BYTES_PER_SLOT;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return size + " accessions in " + (getAllocatedBytes() / (1024 * 1024)) + " MB off-heap (max " +
+                (maxBytes / (1024 * 1024)) + " MB)" + (saturated ? " SATURATED" : "");
+    }
+
+    private boolean canGrow(int currentSlots) {
+        return ((long) currentSlots << 1) * BYTES_PER_SLOT <= maxBytes;
+    }
+
+    private void allocate(int newNumSlots) {
+        this.slots = ByteBuffer.allocateDirect(newNumSlots * BYTES_PER_SLOT).asLongBuffer();
+        this.numSlots = newNumSlots;
+        this.size = 0;
+    }
+
+    private void resize(int newNumSlots) {
+        LongBuffer oldSlots = this.slots;
+        int oldNumSlots = this.numSlots;
+        allocate(newNumSlots);
+        for (int i = 0; i < oldNumSlots; i++) {
+            long fingerprint = oldSlots.get(i);
+            if (fingerprint != EMPTY_SLOT) {
+                insert(fingerprint);
+            }
+        }
+    }
+
+    private boolean insert(long fingerprint) {
+        int mask = numSlots - 1;
+        int slot = LongObjectHashMap.mix(fingerprint) & mask;
+        long current;
+        while ((current = slots.get(slot)) != EMPTY_SLOT) {
+            if (current == fingerprint) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        slots.put(slot, fingerprint);
+        size++;
+        return true;
+    }
+
+    /**
+     * The AccessionCodec code of well-formed accessions. For any other accession, 64-bit FNV-1a over its chars
+     * followed by the MurmurHash3 finalizer, with the top bit set so it cannot be taken for a code
+     */
+    static long fingerprint(String accession) {
+        long code = AccessionCodec.encodeWellFormed(accession);
+        if (code != AccessionCodec.NO_CODE) {
+            return code;
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < accession.length(); i++) {
+            hash ^= accession.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        return hash | Long.MIN_VALUE;
+    }
+
+}
@@ -0,0 +1,227 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @version $Id$
+ *
+ * A step of a processing pipeline: a bounded input queue consumed by a fixed number of threads. Each processed item
+ * is handed to the next stage, if any. Adding to a full queue blocks, so a slow stage holds back the ones before it
+ * instead of letting items pile up in memory.
+ *
+ * Once close() is called and the queue is drained, the stage threads finish and the next stage is closed too.
+ * abort() stops a stage right away instead: queued items are dropped and adding more fails.
+ *
+ * @param <I> the type of the items this stage consumes
+ * @param <O> the type of the items this stage hands to the next one
+ */
+public class PipelineStage<I, O> {
+
+    private static Logger logger = LoggerFactory.getLogger(PipelineStage.class.getName());
+
+    private static final long POLL_TIMEOUT_MILLIS = 500;
+
+    public interface Processor<I, O> {
+        /**
+         * @param item the item to process
+         * @return the item to hand to the next stage, or null if there is nothing to pass on
+         */
+        O process(I item) throws Exception;
+    }
+
+    private final String name;
+    private final int numThreads;
+    private final BlockingQueue<I> queue;
+    private final Processor<I, O> processor;
+    private PipelineStage<O, ?> nextStage;
+
+    private final List<Thread> threads = new ArrayList<Thread>();
+    private final AtomicInteger numActiveThreads = new AtomicInteger();
+    private volatile boolean closed = false;
+    private volatile Throwable abortCause;
+
+    private final AtomicLong numProcessed = new AtomicLong();
+    private final AtomicLong numFailed = new AtomicLong();
+    private final AtomicLong processingNanos = new AtomicLong();
+    private final AtomicLong blockedNanos = new AtomicLong();
+    private volatile long startTime;
+    private volatile long endTime;
+
+    public PipelineStage(String name, int numThreads, int queueCapacity, Processor<I, O> processor) {
+        this.name = name;
+        this.numThreads = Math.max(1, numThreads);
+        this.queue = new ArrayBlockingQueue<I>(Math.max(1, queueCapacity));
+        this.processor = processor;
+    }
+
+    public void setNextStage(PipelineStage<O, ?> nextStage) {
+        this.nextStage = nextStage;
+    }
+
+    public synchronized void start() {
+        startTime = System.currentTimeMillis();
+        numActiveThreads.set(numThreads);
+        for (int i = 0; i < numThreads; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    consume();
+                }
+            }, name + "-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Adds an item to this stage, waiting for room in the queue if needed
+     *
+     * @throws IllegalStateException if the stage has been aborted
+     */
+    public void put(I item) throws InterruptedException {
+        if (!putUnlessAborted(item)) {
+            throw new IllegalStateException("Stage " + name + " was aborted", abortCause);
+        }
+    }
+
+    /**
+     * No more items will be added to this stage
+     */
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * Stops this stage: queued items are dropped, the threads finish once their current item is done and further
+     * items cannot be added. Only the first cause is kept.
+     */
+    public synchronized void abort(Throwable cause) {
+        if (abortCause == null) {
+            abortCause = cause;
+        }
+        closed = true;
+        queue.clear();
+    }
+
+    public boolean isAborted() {
+        return abortCause != null;
+    }
+
+    public Throwable getAbortCause() {
+        return abortCause;
+    }
+
+    /**
+     * Waits until all the items have been processed by this stage
+     */
+    public void awaitTermination() throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public int getQueueCapacity() {
+        return queue.size() + queue.remainingCapacity();
+    }
+
+    public long getNumProcessed() {
+        return numProcessed.get();
+    }
+
+    public long getNumFailed() {
+        return numFailed.get();
+    }
+
+    /**
+     * @return processed items per second since the stage was started
+     */
+    public double getThroughput() {
+        long elapsedMillis = ((endTime > 0) ? endTime : System.currentTimeMillis()) - startTime;
+        return (elapsedMillis > 0) ? numProcessed.get() * 1000.0 / elapsedMillis : 0.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s: queue %d/%d, %d processed (%d failed), %.2f items/s, %.1fs processing, %.1fs waiting for next stage",
+                name, getQueueSize(), getQueueCapacity(), getNumProcessed(), getNumFailed(), getThroughput(),
+                processingNanos.get() / 1e9, blockedNanos.get() / 1e9
+        );
+    }
+
+    private void consume() {
+        try {
+            while (!isAborted()) {
+                I item = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (item == null) {
+                    if (closed && queue.isEmpty()) {
+                        break;
+                    }
+                    continue;
+                }
+
+                long processingStart = System.nanoTime();
+                O result = null;
+                try {
+                    result = processor.process(item);
+                    numProcessed.incrementAndGet();
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    numFailed.incrementAndGet();
+                    logger.error("Stage " + name + " could not process an item: " + e.getMessage());
+                    e.printStackTrace();
+                }
+                long processingEnd = System.nanoTime();
+                processingNanos.addAndGet(processingEnd - processingStart);
+
+                if (result != null && nextStage != null) {
+                    if (!nextStage.putUnlessAborted(result)) {
+                        break;
+                    }
+                    blockedNanos.addAndGet(System.nanoTime() - processingEnd);
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.error("Stage " + name + " interrupted");
+            Thread.currentThread().interrupt();
+        } finally {
+            if (numActiveThreads.decrementAndGet() == 0) {
+                endTime = System.currentTimeMillis();
+                if (nextStage != null) {
+                    nextStage.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if the stage is aborted before there is room for the item
+     */
+    private boolean putUnlessAborted(I item) throws InterruptedException {
+        while (!isAborted()) {
+            if (queue.offer(item, POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
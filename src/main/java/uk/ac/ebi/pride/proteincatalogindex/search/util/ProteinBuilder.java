@@ -9,6 +9,12 @@ import uk.ac.ebi.pride.tools.protein_details_fetcher.ProteinDetailFetcher;
 import uk.ac.ebi.pride.tools.utils.AccessionResolver;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Jose A. Dianes
@@ -16,9 +22,43 @@ import java.util.*;
  */
 public class ProteinBuilder {
 
-    private static final int PROCESSING_ACCESSIONS_STEP = 50;
+    // shared by all the calls, so the batch size learnt from the detail services is kept
+    private static final AdaptiveBatcher DETAILS_BATCHER = new AdaptiveBatcher("protein-details", 50, 5, 200, 5000);
+    // batches of protein details fetched at the same time, each thread with its own fetcher
+    private static final int DEFAULT_MAX_CONCURRENT_DETAIL_REQUESTS = 4;
+    private static final ThreadPoolExecutor DETAILS_EXECUTOR = new ThreadPoolExecutor(
+            DEFAULT_MAX_CONCURRENT_DETAIL_REQUESTS, DEFAULT_MAX_CONCURRENT_DETAIL_REQUESTS, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "protein-details-requests-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private static final ThreadLocal<ProteinDetailFetcher> DETAIL_FETCHERS = new ThreadLocal<ProteinDetailFetcher>() {
+        @Override
+        protected ProteinDetailFetcher initialValue() {
+            return new ProteinDetailFetcher();
+        }
+    };
     private static Logger logger = LoggerFactory.getLogger(ProteinBuilder.class.getName());
 
+    // answers protein details before the remote services (e.g. from local FASTA files), if set
+    private static volatile ProteinDetailsProvider localDetailsProvider = null;
+
+    // the same (accession, database) pairs turn up in many assays, so their corrections are remembered
+    private static final int DEFAULT_MAX_ACCESSION_CORRECTIONS = 200000;
+    private static volatile AccessionCorrectionCache accessionCorrectionCache = new AccessionCorrectionCache(DEFAULT_MAX_ACCESSION_CORRECTIONS);
+    private static final AccessionCorrectionCache.Resolver ACCESSION_RESOLVER = new AccessionCorrectionCache.Resolver() {
+        @Override
+        public String resolve(String accession, String database) throws Exception {
+            return new AccessionResolver(accession, null, database).getAccession(); // we don't have versions
+        }
+    };
+
     private static ErrorLogOutputStream errorLogOutputStream = new ErrorLogOutputStream(logger);
 
     /**
@@ -78,22 +118,7 @@ public class ProteinBuilder {
 
         if (tabFile != null) {
             // get proteins
-            Collection<Protein> mzTabProteins = tabFile.getProteins();
-            for (Protein mzTabProtein: mzTabProteins) {
-                ProteinIdentified proteinIdentified = new ProteinIdentified();
-                proteinIdentified.setOtherMappings(new TreeSet<String>());
-                try {
-                    String correctedAccession = getCorrectedAccession(mzTabProtein.getAccession(), mzTabProtein.getDatabase());
-                    proteinIdentified.setAccession(correctedAccession);
-                    res.add(proteinIdentified);
-                } catch (Exception e) {
-                    logger.error("Cannot correct protein accession " + mzTabProtein.getAccession() + " with DB " + mzTabProtein.getDatabase());
-                    logger.error("Original accession will be used");
-                    logger.error("Cause:" + e.getCause());
-                    proteinIdentified.setAccession(mzTabProtein.getAccession());
-                    res.add(proteinIdentified);
-                }
-            }
+            res = buildProteinIdentifications(readProteinReferencesFromMzTabFile(tabFile));
 
             logger.debug("Found " + res.size() + " protein identifications for Assay " + assayAccession + " in file.");
         } else {
@@ -103,73 +128,160 @@ public class ProteinBuilder {
         return res;
     }
 
+    public static List<MzTabProteinReference> readProteinReferencesFromMzTabFile(MZTabFile tabFile) {
+
+        List<MzTabProteinReference> res = new ArrayList<MzTabProteinReference>();
+
+        Collection<Protein> mzTabProteins = tabFile.getProteins();
+        for (Protein mzTabProtein: mzTabProteins) {
+            res.add(new MzTabProteinReference(mzTabProtein.getAccession(), mzTabProtein.getDatabase(), mzTabProtein.getDatabaseVersion()));
+        }
+
+        return res;
+    }
+
+    /**
+     * Builds a protein for each reference, correcting the accession according to its database when possible
+     */
+    public static List<ProteinIdentified> buildProteinIdentifications(List<MzTabProteinReference> proteinReferences) {
+
+        List<ProteinIdentified> res = new LinkedList<ProteinIdentified>();
+
+        for (MzTabProteinReference proteinReference: proteinReferences) {
+            ProteinIdentified proteinIdentified = new ProteinIdentified();
+            proteinIdentified.setOtherMappings(new TreeSet<String>());
+            try {
+                String correctedAccession = getCorrectedAccession(proteinReference.getAccession(), proteinReference.getDatabase());
+                proteinIdentified.setAccession(correctedAccession);
+                res.add(proteinIdentified);
+            } catch (Exception e) {
+                logger.error("Cannot correct protein accession " + proteinReference.getAccession() + " with DB " + proteinReference.getDatabase());
+                logger.error("Original accession will be used");
+                logger.error("Cause:" + e.getCause());
+                proteinIdentified.setAccession(proteinReference.getAccession());
+                res.add(proteinIdentified);
+            }
+        }
+
+        return res;
+    }
+
+    /**
+     * @param maxConcurrentDetailRequests max number of protein detail batches fetched at the same time
+     */
+    public static void setMaxConcurrentDetailRequests(int maxConcurrentDetailRequests) {
+        int poolSize = Math.max(1, maxConcurrentDetailRequests);
+        if (poolSize > DETAILS_EXECUTOR.getMaximumPoolSize()) {
+            DETAILS_EXECUTOR.setMaximumPoolSize(poolSize);
+            DETAILS_EXECUTOR.setCorePoolSize(poolSize);
+        } else {
+            DETAILS_EXECUTOR.setCorePoolSize(poolSize);
+            DETAILS_EXECUTOR.setMaximumPoolSize(poolSize);
+        }
+    }
+
+    /**
+     * Sets where protein details are looked up before asking the remote services (null to always ask them)
+     */
+    public static void setLocalDetailsProvider(ProteinDetailsProvider provider) {
+        localDetailsProvider = provider;
+    }
+
+    /**
+     * Adds the details (sequence and name) of the proteins, taken from the local provider when it has them. The rest
+     * are fetched in concurrent batches. A failed batch does not affect the others, it is split and tried again on its
+     * own.
+     */
     public static void addProteinDetails(List<ProteinIdentified> proteins) {
         // build accession list to reduce the number of fetching requests
-        List<String> accessions = new LinkedList<String>();
+        List<String> accessions = new ArrayList<String>();
         for (ProteinIdentified protein: proteins) {
             accessions.add(protein.getAccession());
         }
         try {
             // get protein details (e.g. sequence, name)
-            ProteinDetailFetcher proteinDetailFetcher = new ProteinDetailFetcher();
+            final Map<String, ProteinDetails> details = new ConcurrentHashMap<String, ProteinDetails>();
 
-            HashMap<String, uk.ac.ebi.pride.tools.protein_details_fetcher.model.Protein> details = new HashMap<String, uk.ac.ebi.pride.tools.protein_details_fetcher.model.Protein>();
-
-            int processedAccessions = 0;
-            while (processedAccessions<accessions.size()) {
-                // logging accessions
-                String accessionListLog = new String();
-                for (String accession: accessions.subList(processedAccessions, Math.min(accessions.size(),processedAccessions+PROCESSING_ACCESSIONS_STEP))) {
-                    accessionListLog = accessionListLog + " <" + accession +">";
+            List<String> remoteAccessions = accessions;
+            ProteinDetailsProvider localProvider = localDetailsProvider;
+            if (localProvider != null) {
+                try {
+                    for (Map.Entry<String, ProteinDetails> localDetail : localProvider.getProteinDetails(accessions).entrySet()) {
+                        if (localDetail.getKey() != null && localDetail.getValue() != null) {
+                            details.put(localDetail.getKey(), localDetail.getValue());
+                        }
+                    }
+                } catch (Exception e) {
+                    logger.error("Cannot read local protein details, they will be fetched from the services");
+                    e.printStackTrace();
+                }
+                remoteAccessions = new ArrayList<String>();
+                for (String accession : accessions) {
+                    if (accession != null && !details.containsKey(accession)) {
+                        remoteAccessions.add(accession);
+                    }
+                }
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Found " + (accessions.size() - remoteAccessions.size()) + " of " + accessions.size() + " protein details locally");
                 }
-                logger.debug("accession list is: " + accessionListLog);
-
-                details.putAll(
-                        proteinDetailFetcher.getProteinDetails(
-                                accessions.subList(processedAccessions, Math.min(accessions.size(),processedAccessions+PROCESSING_ACCESSIONS_STEP))
-                        )
-                );
-
-                logger.debug("Processed accessions: " + processedAccessions + " of " + accessions.size());
-                logger.debug("Next step: " + (processedAccessions + PROCESSING_ACCESSIONS_STEP));
-                logger.debug("Got details for up to " + details.size() + " accessions (cumulative)");
-
-                processedAccessions = processedAccessions+PROCESSING_ACCESSIONS_STEP;
             }
 
+            if (remoteAccessions.size() > 0) {
+                // batches adapt to how the services cope, failed ones are tried again once the services recover
+                List<String> failedAccessions = DETAILS_BATCHER.processAll(remoteAccessions, new AdaptiveBatcher.BatchProcessor<String>() {
+                    @Override
+                    public boolean process(List<String> batch) throws Exception {
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("accession list is: " + batch);
+                        }
+                        Map<String, uk.ac.ebi.pride.tools.protein_details_fetcher.model.Protein> batchDetails = DETAIL_FETCHERS.get().getProteinDetails(batch);
+                        if (batchDetails != null) {
+                            for (Map.Entry<String, uk.ac.ebi.pride.tools.protein_details_fetcher.model.Protein> batchDetail : batchDetails.entrySet()) {
+                                if (batchDetail.getKey() != null && batchDetail.getValue() != null) {
+                                    details.put(batchDetail.getKey(), new ProteinDetails(batchDetail.getValue().getSequenceString(), batchDetail.getValue().getName()));
+                                }
+                            }
+                        }
+                        return true;
+                    }
+                }, DETAILS_EXECUTOR, DETAILS_EXECUTOR.getMaximumPoolSize());
+                if (failedAccessions.size() > 0) {
+                    logger.error("Cannot retrieve protein details for " + failedAccessions.size() + " of " + remoteAccessions.size() + " accessions.");
+                }
+            }
 
             // add details to proteins
             for (ProteinIdentified protein: proteins) {
-                if (details.containsKey(protein.getAccession())) {
-                    protein.setInferredSequence(details.get(protein.getAccession()).getSequenceString());
-                    if (details.get(protein.getAccession()).getName() != null) {
-                        protein.setDescription(Arrays.asList(ProteinDetailUtils.NAME + details.get(protein.getAccession()).getName()));
+                ProteinDetails proteinDetails = (protein.getAccession() != null) ? details.get(protein.getAccession()) : null;
+                if (proteinDetails != null) {
+                    protein.setInferredSequence(proteinDetails.getSequence());
+                    if (proteinDetails.getName() != null) {
+                        protein.setDescription(Arrays.asList(ProteinDetailUtils.NAME + proteinDetails.getName()));
                     }
                 }
             }
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while retrieving protein details for " + accessions.size() + " accessions.");
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
             logger.error("Cannot retrieve protein details for " + accessions.size() + " accessions.");
             e.printStackTrace();
         }
     }
 
-    private static String getCorrectedAccession(String accession, String database) {
+    /**
+     * Sets the memo of corrected accessions shared by all the calls (e.g. one loaded from a previous run)
+     */
+    public static void setAccessionCorrectionCache(AccessionCorrectionCache cache) {
+        accessionCorrectionCache = cache;
+    }
 
-        try {
-            AccessionResolver accessionResolver = new AccessionResolver(accession, null, database); // we don't have versions
-            String fixedAccession = accessionResolver.getAccession();
-
-            if (fixedAccession == null || "".equals(fixedAccession)) {
-                logger.debug("No proper fix found for accession " + accession + ". Obtained: <" + fixedAccession +">. Original accession will be used.");
-                return accession;
-            } else {
-                logger.debug("Original accession " + accession + " fixed to " + fixedAccession);
-                return fixedAccession;
-            }
-        } catch (Exception e) {
-            logger.error("There were problems getting corrected accession for " + accession +". Original accession will be used.");
-            return accession;
-        }
+    public static AccessionCorrectionCache getAccessionCorrectionCache() {
+        return accessionCorrectionCache;
+    }
+
+    private static String getCorrectedAccession(String accession, String database) {
+        return accessionCorrectionCache.getCorrectedAccession(accession, database, ACCESSION_RESOLVER);
     }
 
 }
@@ -0,0 +1,29 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+/**
+ * @version $Id$
+ *
+ * The details added to a catalog protein, whatever they are taken from
+ */
+public class ProteinDetails {
+
+    private final String sequence;
+    private final String name;
+
+    public ProteinDetails(String sequence, String name) {
+        this.sequence = sequence;
+        this.name = name;
+    }
+
+    public String getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the protein name, null if it is not known
+     */
+    public String getName() {
+        return name;
+    }
+
+}
@@ -0,0 +1,18 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * @version $Id$
+ *
+ * Source of protein details other than the remote detail services (see ProteinBuilder.setLocalDetailsProvider)
+ */
+public interface ProteinDetailsProvider {
+
+    /**
+     * @return the details of the accessions it knows about, the others are left out
+     */
+    Map<String, ProteinDetails> getProteinDetails(Collection<String> accessions) throws Exception;
+
+}
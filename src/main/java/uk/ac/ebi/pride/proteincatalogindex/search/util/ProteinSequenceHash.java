@@ -0,0 +1,75 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * @version $Id$
+ *
+ * Fixed length digest of protein sequences, indexed with the inferred sequence so sequences are looked up by a short
+ * term instead of the whole sequence. Sequences are normalised first (no whitespace, upper case), and the digest is
+ * the MD5 of the normalised sequence in 32 hex chars. Different sequences may share a digest, so the matches are to
+ * be checked against the sequence itself.
+ */
+public class ProteinSequenceHash {
+
+    public static final int HASH_LENGTH = 32;
+
+    private static final Charset SEQUENCE_CHARSET = Charset.forName("US-ASCII");
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<MessageDigest> DIGESTS = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                // every Java platform has MD5
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    /**
+     * @return the digest of the sequence, null if there is no sequence
+     */
+    public static String hash(String sequence) {
+        String normalisedSequence = normalise(sequence);
+        if (normalisedSequence == null) {
+            return null;
+        }
+        byte[] digest = DIGESTS.get().digest(normalisedSequence.getBytes(SEQUENCE_CHARSET));
+        char[] res = new char[HASH_LENGTH];
+        for (int i = 0; i < digest.length; i++) {
+            res[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+            res[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+        }
+        return new String(res);
+    }
+
+    /**
+     * @return the sequence without whitespace and in upper case, null if it is null or empty
+     */
+    public static String normalise(String sequence) {
+        if (sequence == null) {
+            return null;
+        }
+        StringBuilder res = new StringBuilder(sequence.length());
+        for (int i = 0; i < sequence.length(); i++) {
+            char c = sequence.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                res.append(Character.toUpperCase(c));
+            }
+        }
+        return (res.length() > 0) ? res.toString() : null;
+    }
+
+    /**
+     * @return true if both are the same sequence once normalised
+     */
+    public static boolean sameSequence(String sequence1, String sequence2) {
+        String normalisedSequence1 = normalise(sequence1);
+        return normalisedSequence1 != null && normalisedSequence1.equals(normalise(sequence2));
+    }
+
+}
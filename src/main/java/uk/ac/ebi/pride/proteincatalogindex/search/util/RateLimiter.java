@@ -0,0 +1,84 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+/**
+ * @version $Id$
+ *
+ * Token bucket rate limiter shared by several threads. The bucket holds up to maxBurst tokens and is refilled at
+ * permitsPerSecond. acquire() takes a token, waiting for one if the bucket is empty (a throttling event).
+ */
+public class RateLimiter {
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final double permitsPerSecond;
+    private final double maxBurst;
+
+    private double availableTokens;
+    private long lastRefillNanos;
+
+    private long numAcquired = 0;
+    private long numThrottled = 0;
+    private long throttledNanos = 0;
+
+    /**
+     * @param permitsPerSecond sustained rate
+     * @param maxBurst max number of permits that can be taken at once after an idle period
+     */
+    public RateLimiter(double permitsPerSecond, int maxBurst) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.maxBurst = Math.max(1, maxBurst);
+        this.availableTokens = this.maxBurst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Takes a permit, waiting until there is one available
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+        }
+    }
+
+    public synchronized long getNumAcquired() {
+        return numAcquired;
+    }
+
+    public synchronized long getNumThrottled() {
+        return numThrottled;
+    }
+
+    public synchronized long getThrottledMillis() {
+        return throttledNanos / 1000000L;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%.1f permits/s: %d acquired, %d throttled (%.1fs waiting)",
+                permitsPerSecond, numAcquired, numThrottled, throttledNanos / 1e9);
+    }
+
+    /**
+     * Takes a token, possibly in advance
+     *
+     * @return how long to wait before the token can be used
+     */
+    private synchronized long reserve() {
+        long now = System.nanoTime();
+        availableTokens = Math.min(maxBurst, availableTokens + (now - lastRefillNanos) * permitsPerSecond / NANOS_PER_SECOND);
+        lastRefillNanos = now;
+
+        availableTokens = availableTokens - 1;
+        numAcquired++;
+        if (availableTokens >= 0) {
+            return 0;
+        }
+        // the token will be there once the debt is paid back
+        long waitNanos = (long) (-availableTokens * NANOS_PER_SECOND / permitsPerSecond);
+        numThrottled++;
+        throttledNanos = throttledNanos + waitNanos;
+        return waitNanos;
+    }
+
+}
@@ -0,0 +1,170 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * @version $Id$
+ *
+ * Read-only, memory-mapped file of fixed length records sorted as unsigned bytes (see ExternalRecordSorter), after an
+ * optional header. Records are found with a binary search on the mapped file, so nothing but the pages touched is
+ * loaded in memory. The file is mapped in segments of a whole number of records, as a single buffer cannot go over
+ * 2GB.
+ *
+ * Reads do not change the buffers' positions, so the file can be used by several threads at the same time.
+ */
+public class SortedRecordFile {
+
+    private final int recordLength;
+    private final int recordsPerSegment;
+    private final MappedByteBuffer[] segments;
+    private final byte[] header;
+    private final long numRecords;
+
+    public SortedRecordFile(File file, int headerLength, int recordLength) throws IOException {
+        this.recordLength = recordLength;
+        this.recordsPerSegment = Integer.MAX_VALUE / recordLength;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            long length = randomAccessFile.length() - headerLength;
+            if (length < 0 || length % recordLength != 0) {
+                throw new IOException("Wrong record file " + file + ", it may be truncated");
+            }
+            header = new byte[headerLength];
+            randomAccessFile.readFully(header);
+            numRecords = length / recordLength;
+            int numSegments = (int) ((numRecords + recordsPerSegment - 1) / recordsPerSegment);
+            segments = new MappedByteBuffer[numSegments];
+            FileChannel channel = randomAccessFile.getChannel();
+            for (int i = 0; i < numSegments; i++) {
+                long start = headerLength + (long) i * recordsPerSegment * recordLength;
+                long size = Math.min((long) recordsPerSegment * recordLength, headerLength + length - start);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            }
+        } finally {
+            // the mappings stay valid after closing the file
+            randomAccessFile.close();
+        }
+    }
+
+    public long getNumRecords() {
+        return numRecords;
+    }
+
+    public byte[] getHeader() {
+        return header.clone();
+    }
+
+    /**
+     * @return the first record not smaller than the probe, comparing the first length bytes (getNumRecords() if
+     * there is none)
+     */
+    public long lowerBound(byte[] probe, int length) {
+        long low = 0;
+        long high = numRecords;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (comparePrefix(middle, probe, length) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return true if the record exists and starts with the first length bytes of the probe
+     */
+    public boolean matches(long record, byte[] probe, int length) {
+        return record < numRecords && comparePrefix(record, probe, length) == 0;
+    }
+
+    public int comparePrefix(long record, byte[] probe, int length) {
+        MappedByteBuffer segment = segment(record);
+        int position = position(record);
+        for (int i = 0; i < length; i++) {
+            int diff = (segment.get(position + i) & 0xff) - (probe[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    public byte getByte(long record, int offset) {
+        return segment(record).get(position(record) + offset);
+    }
+
+    public int getInt(long record, int offset) {
+        return segment(record).getInt(position(record) + offset);
+    }
+
+    public long getLong(long record, int offset) {
+        return segment(record).getLong(position(record) + offset);
+    }
+
+    /**
+     * @return the ASCII text at the offset of the record, up to the first 0 byte or length bytes
+     */
+    public String getString(long record, int offset, int length) {
+        MappedByteBuffer segment = segment(record);
+        int position = position(record) + offset;
+        char[] chars = new char[length];
+        int numChars = 0;
+        byte b;
+        while (numChars < length && (b = segment.get(position + numChars)) != 0) {
+            chars[numChars] = (char) b;
+            numChars++;
+        }
+        return new String(chars, 0, numChars);
+    }
+
+    /**
+     * Compares two records (or their first bytes) as unsigned bytes, the order they are sorted in
+     */
+    public static int compare(byte[] a, byte[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            int diff = (a[i] & 0xff) - (b[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Writes the ASCII text padded with zeros in the buffer
+     *
+     * @return false if the text is empty, does not fit or has any char that is not printable ASCII
+     */
+    public static boolean encodeAscii(String text, byte[] buffer, int offset, int length) {
+        if (text.length() == 0 || text.length() > length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (i < text.length()) {
+                char c = text.charAt(i);
+                if (c <= ' ' || c > '~') {
+                    return false;
+                }
+                buffer[offset + i] = (byte) c;
+            } else {
+                buffer[offset + i] = 0;
+            }
+        }
+        return true;
+    }
+
+    private MappedByteBuffer segment(long record) {
+        return segments[(int) (record / recordsPerSegment)];
+    }
+
+    private int position(long record) {
+        return (int) (record % recordsPerSegment) * recordLength;
+    }
+
+}
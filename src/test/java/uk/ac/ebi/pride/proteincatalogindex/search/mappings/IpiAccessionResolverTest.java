@@ -0,0 +1,55 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.mappings;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * @version $Id$
+ */
+public class IpiAccessionResolverTest {
+
+    private static final String IPI_MAPPING =
+            "Description: Mapping of UniProtKB and IPI accession numbers\n" +
+            "UniProtKB   IPI\n" +
+            "_________   ___________\n" +
+            "A0AUZ9      IPI00396341\n" +
+            "A0AUZ9      IPI00884975\n" +
+            "A0A0B4J2F0  IPI00000012\n" +
+            "P12345      IPI00000012\n" +
+            "Q9ZWT3      IPI00536499\n";
+
+    @Test
+    public void testBothDirections() throws Exception {
+        IpiAccessionResolver resolver = IpiAccessionResolver.load(new ByteArrayInputStream(IPI_MAPPING.getBytes("US-ASCII")));
+
+        assertEquals(5, resolver.size());
+        assertEquals(new TreeSet<String>(Arrays.asList("A0AUZ9")), resolver.getUniprotAccessions("IPI00396341"));
+        assertEquals(new TreeSet<String>(Arrays.asList("A0AUZ9")), resolver.getUniprotAccessions("IPI00396341.3"));
+        assertEquals(new TreeSet<String>(Arrays.asList("A0A0B4J2F0", "P12345")), resolver.getUniprotAccessions("IPI00000012"));
+        assertTrue(resolver.getUniprotAccessions("IPI00999999").isEmpty());
+
+        assertEquals(new TreeSet<String>(Arrays.asList("IPI00396341", "IPI00884975")), resolver.getIpiAccessions("A0AUZ9"));
+        assertEquals(new TreeSet<String>(Arrays.asList("IPI00000012")), resolver.getIpiAccessions("A0A0B4J2F0"));
+        assertTrue(resolver.getIpiAccessions("O00000").isEmpty());
+    }
+
+    @Test
+    public void testBundledMappingFile() throws Exception {
+        IpiAccessionResolver resolver = IpiAccessionResolver.getInstance();
+        assertSame(resolver, IpiAccessionResolver.getInstance());
+        assertTrue(resolver.size() > 90000);
+
+        Map<String, TreeSet<String>> mappings = resolver.getUniprotMappings(Arrays.asList("IPI00807623", "IPI00536499", "P12345", "ENSP00000358622"));
+        assertEquals(2, mappings.size());
+        assertEquals(new TreeSet<String>(Arrays.asList("A0A183")), mappings.get("IPI00807623"));
+        assertEquals(new TreeSet<String>(Arrays.asList("Q9ZWT3")), mappings.get("IPI00536499"));
+        assertTrue(resolver.getIpiAccessions("A0AUZ9").contains("IPI00884975"));
+    }
+
+}
@@ -0,0 +1,97 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.mappings;
+
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * @version $Id$
+ */
+public class MappingResponseExtractorTest {
+
+    @Test
+    public void testMappings() throws Exception {
+        String body = "From\tTo\n"
+                + "P12345\tENSP1\n"
+                + "P12345\tENSP2\n"
+                + "P12345\tENSP3\n"
+                + "Q99999\tnull\n"
+                + "O00001\tENSP4\n";
+        Map<String, TreeSet<String>> res = new HashMap<String, TreeSet<String>>();
+
+        int numLines = new ProteinAccessionMappingsFinder.MappingResponseExtractor(res).extractData(response(body));
+
+        assertEquals(6, numLines);
+        assertEquals(2, res.size());
+        assertEquals(new TreeSet<String>(Arrays.asList("ENSP1", "ENSP2", "ENSP3")), res.get("P12345"));
+        assertEquals(new TreeSet<String>(Arrays.asList("ENSP4")), res.get("O00001"));
+        // "null" targets are not mappings
+        assertFalse(res.containsKey("Q99999"));
+    }
+
+    @Test
+    public void testEmptyBody() throws Exception {
+        Map<String, TreeSet<String>> res = new HashMap<String, TreeSet<String>>();
+
+        int numLines = new ProteinAccessionMappingsFinder.MappingResponseExtractor(res).extractData(response(""));
+
+        assertEquals(0, numLines);
+        assertTrue(res.isEmpty());
+    }
+
+    @Test
+    public void testHeaderOnly() throws Exception {
+        Map<String, TreeSet<String>> res = new HashMap<String, TreeSet<String>>();
+
+        int numLines = new ProteinAccessionMappingsFinder.MappingResponseExtractor(res).extractData(response("From\tTo\n"));
+
+        assertEquals(1, numLines);
+        assertTrue(res.isEmpty());
+    }
+
+    private static ClientHttpResponse response(final String body) throws IOException {
+        final HttpHeaders headers = new HttpHeaders();
+        return new ClientHttpResponse() {
+            @Override
+            public HttpStatus getStatusCode() throws IOException {
+                return HttpStatus.OK;
+            }
+
+            @Override
+            public int getRawStatusCode() throws IOException {
+                return HttpStatus.OK.value();
+            }
+
+            @Override
+            public String getStatusText() throws IOException {
+                return HttpStatus.OK.getReasonPhrase();
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public InputStream getBody() throws IOException {
+                return new ByteArrayInputStream(body.getBytes("UTF-8"));
+            }
+
+            @Override
+            public HttpHeaders getHeaders() {
+                return headers;
+            }
+        };
+    }
+
+}
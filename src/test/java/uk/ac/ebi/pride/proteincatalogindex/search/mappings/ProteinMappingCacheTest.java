@@ -0,0 +1,115 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.mappings;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * @version $Id$
+ */
+public class ProteinMappingCacheTest {
+
+    private static final long ONE_DAY = 24L * 60L * 60L * 1000L;
+
+    private File cacheFile;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheFile = File.createTempFile("mapping-cache", ".tsv");
+        cacheFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        cacheFile.delete();
+    }
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        ProteinMappingCache cache = new ProteinMappingCache(cacheFile, ONE_DAY, ONE_DAY);
+        cache.open();
+
+        cache.put("ACC", "ENSEMBL_PRO_ID", "P12345", new TreeSet<String>(Arrays.asList("ENSP1", "ENSP2")));
+        cache.put("ACC", "ENSEMBL_PRO_ID", "Q99999", null);
+
+        assertEquals(new TreeSet<String>(Arrays.asList("ENSP1", "ENSP2")), cache.get("ACC", "ENSEMBL_PRO_ID", "P12345"));
+        assertTrue(cache.get("ACC", "ENSEMBL_PRO_ID", "Q99999").isEmpty());
+        assertNull(cache.get("ACC", "UPARC", "P12345"));
+
+        assertEquals(1, cache.getNumHits());
+        assertEquals(1, cache.getNumNegativeHits());
+        assertEquals(1, cache.getNumMisses());
+        cache.close();
+    }
+
+    @Test
+    public void testReloadFromFile() throws Exception {
+        ProteinMappingCache cache = new ProteinMappingCache(cacheFile, ONE_DAY, ONE_DAY);
+        cache.open();
+        cache.put("ACC", "UPARC", "P12345", new TreeSet<String>(Arrays.asList("UPI1")));
+        cache.put("ACC", "UPARC", "P12345", new TreeSet<String>(Arrays.asList("UPI2")));
+        cache.put("ACC", "UPARC", "Q99999", null);
+        cache.close();
+
+        cache = new ProteinMappingCache(cacheFile, ONE_DAY, ONE_DAY);
+        cache.open();
+        assertEquals(2, cache.size());
+        assertEquals(new TreeSet<String>(Arrays.asList("UPI2")), cache.get("ACC", "UPARC", "P12345"));
+        assertTrue(cache.get("ACC", "UPARC", "Q99999").isEmpty());
+        cache.close();
+    }
+
+    @Test
+    public void testIncompleteLastLineIsDropped() throws Exception {
+        ProteinMappingCache cache = new ProteinMappingCache(cacheFile, ONE_DAY, ONE_DAY);
+        cache.open();
+        cache.put("ACC", "UPARC", "P12345", new TreeSet<String>(Arrays.asList("UPI1", "UPI2")));
+        cache.close();
+
+        // a killed run cut a newer line for the same key after its first mapping
+        OutputStream out = new FileOutputStream(cacheFile, true);
+        out.write((System.currentTimeMillis() + "\tACC\tUPARC\tP12345\tUPI1").getBytes("UTF-8"));
+        out.close();
+
+        cache = new ProteinMappingCache(cacheFile, ONE_DAY, ONE_DAY);
+        cache.open();
+        assertEquals(new TreeSet<String>(Arrays.asList("UPI1", "UPI2")), cache.get("ACC", "UPARC", "P12345"));
+        // new lines are not glued to the cut one
+        cache.put("ACC", "UPARC", "Q99999", new TreeSet<String>(Arrays.asList("UPI3")));
+        cache.close();
+
+        cache = new ProteinMappingCache(cacheFile, ONE_DAY, ONE_DAY);
+        cache.open();
+        assertEquals(2, cache.size());
+        assertEquals(new TreeSet<String>(Arrays.asList("UPI3")), cache.get("ACC", "UPARC", "Q99999"));
+        cache.close();
+    }
+
+    @Test
+    public void testExpiredEntriesAreCompacted() throws Exception {
+        // "no mapping" entries expire straight away
+        ProteinMappingCache cache = new ProteinMappingCache(cacheFile, ONE_DAY, -1);
+        cache.open();
+        cache.put("ACC", "UPARC", "P12345", new TreeSet<String>(Arrays.asList("UPI1")));
+        cache.put("ACC", "UPARC", "Q99998", null);
+        cache.put("ACC", "UPARC", "Q99999", null);
+
+        assertNull(cache.get("ACC", "UPARC", "Q99999"));
+        assertEquals(1, cache.getNumExpired());
+        cache.close();
+
+        cache = new ProteinMappingCache(cacheFile, ONE_DAY, ONE_DAY);
+        cache.open();
+        assertEquals(1, cache.size());
+        cache.close();
+    }
+
+}
@@ -0,0 +1,108 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.mappings;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * @version $Id$
+ */
+public class ProteinMappingIndexTest {
+
+    private static final String ID_MAPPING =
+            "P12345\tUniProtKB-AC\tP12345\n" +
+            "P12345\tUniProtKB-ID\tAATM_RABIT\n" +
+            "P12345\tRefSeq\tNP_001075742.1\n" +
+            "P12345\tUniParc\tUPI00001B45D5\n" +
+            "P12345\tGI\t1234567\n" +
+            "Q9Y6K9\tUniProtKB-ID\tNEMO_HUMAN\n" +
+            "Q9Y6K9\tEnsembl_PRO\tENSP00000358622\n" +
+            "Q9Y6K9\tEnsembl_PRO\tENSP00000377337\n" +
+            "Q9Y6K9\tRefSeq\tNP_001093326.2\n" +
+            "Q9Y6K9\tRefSeq\tNP_001093326.2\n" +
+            "Q9Y6K9\tUniParc\tUPI000002A8E1\n";
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("mapping-index", "");
+        directory.delete();
+        File idMappingFile = File.createTempFile("idmapping", ".dat");
+        Writer writer = new FileWriter(idMappingFile);
+        writer.write(ID_MAPPING);
+        writer.close();
+
+        // tiny runs, so the merge is exercised too
+        ProteinMappingIndexImporter importer = new ProteinMappingIndexImporter(directory);
+        importer.setMaxRecordsInMemory(3);
+        importer.importIdMapping(idMappingFile);
+        idMappingFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testUniprotToOtherDatabases() throws Exception {
+        assertTrue(ProteinMappingIndex.exists(directory));
+        ProteinMappingIndex index = ProteinMappingIndex.open(directory);
+
+        Map<String, TreeSet<String>> ensembl = index.getMappings(
+                ProteinAccessionMappingsFinder.UNIPROT_KB_ACC_TAG, ProteinAccessionMappingsFinder.ENSMBL_PROTEIN_TAG, Arrays.asList("P12345", "Q9Y6K9"));
+        assertEquals(1, ensembl.size());
+        assertEquals(new TreeSet<String>(Arrays.asList("ENSP00000358622", "ENSP00000377337")), ensembl.get("Q9Y6K9"));
+
+        Map<String, TreeSet<String>> refSeq = index.getMappings(
+                ProteinAccessionMappingsFinder.UNIPROT_KB_ACC_ID_TAG, ProteinAccessionMappingsFinder.REF_SEQ_PROTEIN_TAG, Arrays.asList("P12345", "Q9Y6K9"));
+        assertEquals(new TreeSet<String>(Arrays.asList("NP_001075742.1")), refSeq.get("P12345"));
+        assertEquals(new TreeSet<String>(Arrays.asList("NP_001093326.2")), refSeq.get("Q9Y6K9"));
+
+        Map<String, TreeSet<String>> uniParc = index.getMappings(
+                ProteinAccessionMappingsFinder.UNIPROT_KB_ACC_ID_TAG, ProteinAccessionMappingsFinder.UNI_PARC_TAG, Arrays.asList("P12345", "O00000"));
+        assertEquals(1, uniParc.size());
+        assertEquals(new TreeSet<String>(Arrays.asList("UPI00001B45D5")), uniParc.get("P12345"));
+    }
+
+    @Test
+    public void testOtherDatabasesToUniprot() throws Exception {
+        ProteinMappingIndex index = ProteinMappingIndex.open(directory);
+
+        assertEquals(new TreeSet<String>(Arrays.asList("Q9Y6K9")), index.getMappings(
+                ProteinAccessionMappingsFinder.ENSMBL_PROTEIN_TAG, ProteinAccessionMappingsFinder.UNIPROT_KB_ACC_TAG, Arrays.asList("ENSP00000377337")).get("ENSP00000377337"));
+        assertEquals(new TreeSet<String>(Arrays.asList("P12345")), index.getMappings(
+                ProteinAccessionMappingsFinder.UNIPROT_KB_ID_TAG, ProteinAccessionMappingsFinder.UNIPROT_KB_ACC_TAG, Arrays.asList("AATM_RABIT")).get("AATM_RABIT"));
+        // with or without the version
+        Map<String, TreeSet<String>> refSeq = index.getMappings(
+                ProteinAccessionMappingsFinder.REF_SEQ_PROTEIN_TAG, ProteinAccessionMappingsFinder.UNIPROT_KB_ACC_TAG, Arrays.asList("NP_001093326", "NP_001093326.1", "NP_999999"));
+        assertEquals(new TreeSet<String>(Arrays.asList("Q9Y6K9")), refSeq.get("NP_001093326"));
+        assertEquals(new TreeSet<String>(Arrays.asList("Q9Y6K9")), refSeq.get("NP_001093326.1"));
+        assertNull(refSeq.get("NP_999999"));
+
+        // known UniProt accessions map to themselves
+        Map<String, TreeSet<String>> uniprot = index.getMappings(
+                ProteinAccessionMappingsFinder.UNIPROT_KB_ACC_TAG, ProteinAccessionMappingsFinder.UNIPROT_KB_ACC_TAG, Arrays.asList("P12345", "O00000"));
+        assertEquals(1, uniprot.size());
+        assertEquals(new TreeSet<String>(Arrays.asList("P12345")), uniprot.get("P12345"));
+
+        assertFalse(index.supports("GI_NUMBER", ProteinAccessionMappingsFinder.UNIPROT_KB_ACC_TAG));
+    }
+
+}
@@ -20,6 +20,7 @@ import uk.ac.ebi.pride.proteincatalogindex.search.model.ProteinIdentified;
 import uk.ac.ebi.pride.proteincatalogindex.search.model.ProteinIdentifiedFields;
 import uk.ac.ebi.pride.proteincatalogindex.search.service.repository.SolrProteinCatalogRepositoryFactory;
 import uk.ac.ebi.pride.proteincatalogindex.search.util.ProteinDetailUtils;
+import uk.ac.ebi.pride.proteincatalogindex.search.util.ProteinSequenceHash;
 
 import java.util.*;
 
@@ -38,6 +39,8 @@ public class SolrProteinIdentifiedSearchTest extends SolrTestCaseJ4 {
     private static final String PROTEIN_1_ENSEMBL_MAPPING = "PROTEIN-1-ENSEMBL-MAPPING";
     private static final String PROTEIN_2_UNIPROT_MAPPING = "PROTEIN-1-UNIPROT-MAPPING";
     private static final String PROTEIN_2_ENSEMBL_MAPPING = "PROTEIN-1-ENSEMBL-MAPPING";
+    private static final String UPDATED_ENSEMBL_MAPPING = "UPDATED-ENSEMBL-MAPPING";
+    private static final String PROTEIN_1_SEQUENCE = "MALLHSARVLSGVASAFHPGLAAAASARASSWWAHVEMGPPDPILGVTEAYKRDTNSKKM";
 
     private SolrServer server;
     private SolrProteinCatalogRepositoryFactory solrProteinCatalogRepositoryFactory;
@@ -162,6 +165,41 @@ public class SolrProteinIdentifiedSearchTest extends SolrTestCaseJ4 {
         assertEquals(2, proteinIdentifieds.size());
     }
 
+    @Test
+    public void testFindIdsByAccession() throws Exception {
+        addProteinIdentification_1();
+        addProteinIdentification_2();
+
+        ProteinCatalogSearchService proteinCatalogSearchService = new ProteinCatalogSearchService(this.solrProteinCatalogRepositoryFactory.create());
+
+        List<ProteinIdentified> proteinIdentifieds = proteinCatalogSearchService.findIdsByAccession(Arrays.asList(PROTEIN_1_ACCESSION, PROTEIN_2_ACCESSION, "NOT-IN-CATALOG"));
+
+        assertEquals(2, proteinIdentifieds.size());
+        for (ProteinIdentified proteinIdentified: proteinIdentifieds) {
+            assertNotNull(proteinIdentified.getAccession());
+            assertNull(proteinIdentified.getUniprotMapping());
+        }
+    }
+
+    @Test
+    public void testIterateAll() throws Exception {
+        addProteinIdentification_1();
+        addProteinIdentification_2();
+
+        ProteinCatalogSearchService proteinCatalogSearchService = new ProteinCatalogSearchService(this.solrProteinCatalogRepositoryFactory.create());
+
+        // one protein per page, only the accessions
+        Iterator<ProteinIdentified> it = proteinCatalogSearchService.iterateAll(1, ProteinIdentifiedFields.ACCESSION);
+
+        assertTrue(it.hasNext());
+        ProteinIdentified proteinIdentified = it.next();
+        assertEquals(PROTEIN_1_ACCESSION, proteinIdentified.getAccession());
+        assertNull(proteinIdentified.getUniprotMapping());
+        assertTrue(it.hasNext());
+        assertEquals(PROTEIN_2_ACCESSION, it.next().getAccession());
+        assertFalse(it.hasNext());
+    }
+
     @Test
     public void testFindByOtherMapping() throws Exception {
         addProteinIdentification_1();
@@ -178,6 +216,48 @@ public class SolrProteinIdentifiedSearchTest extends SolrTestCaseJ4 {
         assertEquals(1, identifiedProteins.size());
     }
 
+    @Test
+    public void testPartialUpdate() throws Exception {
+        addProteinIdentification_1();
+
+        ProteinIdentified proteinIdentified = new ProteinIdentified();
+        proteinIdentified.setAccession(PROTEIN_1_ACCESSION);
+        proteinIdentified.setEnsemblMapping(UPDATED_ENSEMBL_MAPPING);
+
+        ProteinCatalogIndexService proteinCatalogIndexService = new ProteinCatalogIndexService(this.solrProteinCatalogRepositoryFactory.create(), server);
+        proteinCatalogIndexService.update(Arrays.asList(proteinIdentified), ProteinIdentifiedFields.ENSEMBL_MAPPING);
+
+        ProteinCatalogSearchService proteinCatalogSearchService = new ProteinCatalogSearchService(this.solrProteinCatalogRepositoryFactory.create());
+        List<ProteinIdentified> proteinIdentifieds = proteinCatalogSearchService.findByAccession(PROTEIN_1_ACCESSION);
+
+        // only the updated field changes
+        assertEquals(1, proteinIdentifieds.size());
+        assertEquals(UPDATED_ENSEMBL_MAPPING, proteinIdentifieds.get(0).getEnsemblMapping());
+        assertEquals(PROTEIN_1_UNIPROT_MAPPING, proteinIdentifieds.get(0).getUniprotMapping());
+        assertEquals(PROTEIN_1_NAME, proteinIdentifieds.get(0).getName());
+    }
+
+    @Test
+    public void testFindBySequence() throws Exception {
+        addProteinIdentification_1();
+        addProteinIdentification_2();
+
+        ProteinCatalogSearchService proteinCatalogSearchService = new ProteinCatalogSearchService(this.solrProteinCatalogRepositoryFactory.create());
+
+        // the hash is computed when the sequence is set
+        SolrParams params = new SolrQuery(ProteinIdentifiedFields.INFERRED_SEQUENCE_HASH + ":" + ProteinSequenceHash.hash(PROTEIN_1_SEQUENCE));
+        assertEquals(SINGLE_DOC, server.query(params).getResults().getNumFound());
+
+        List<ProteinIdentified> proteinIdentifieds = proteinCatalogSearchService.findBySequence(PROTEIN_1_SEQUENCE.toLowerCase());
+        assertEquals(1, proteinIdentifieds.size());
+        assertEquals(PROTEIN_1_ACCESSION, proteinIdentifieds.get(0).getAccession());
+
+        proteinIdentifieds = proteinCatalogSearchService.findBySequenceIn(Arrays.asList(PROTEIN_1_SEQUENCE, "PEPTIDE"));
+        assertEquals(1, proteinIdentifieds.size());
+
+        assertEquals(0, proteinCatalogSearchService.findBySequence("PEPTIDE").size());
+    }
+
     private void addProteinIdentification_1() {
         ProteinIdentified proteinIdentified = new ProteinIdentified();
         proteinIdentified.setAccession(PROTEIN_1_ACCESSION);
@@ -189,6 +269,7 @@ public class SolrProteinIdentifiedSearchTest extends SolrTestCaseJ4 {
         synonyms.add(PROTEIN_1_ACCESSION_SYNONYM_2);
         proteinIdentified.setOtherMappings(synonyms);
         proteinIdentified.setDescription(Arrays.asList(ProteinDetailUtils.NAME + PROTEIN_1_NAME));
+        proteinIdentified.setInferredSequence(PROTEIN_1_SEQUENCE);
 
         ProteinCatalogIndexService proteinCatalogIndexService = new ProteinCatalogIndexService(this.solrProteinCatalogRepositoryFactory.create(), server);
         proteinCatalogIndexService.save(proteinIdentified);
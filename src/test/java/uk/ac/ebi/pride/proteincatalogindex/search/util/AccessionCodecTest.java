@@ -0,0 +1,69 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @version $Id$
+ */
+public class AccessionCodecTest {
+
+    private static final String[] WELL_FORMED_ACCESSIONS = {
+            "P12345", "Q9Y6K9", "A0A0B4J2F0", "O00000", "P12345-2", "A0A0B4J2F0-255",
+            "UPI00001B45D5", "UPI0000000001",
+            "ENSP00000358622", "ENSP00000358622.3", "ENSMUSP00000000001", "ENSGALP00000000001.12"
+    };
+
+    private static final String[] IRREGULAR_ACCESSIONS = {
+            "NP_001093326.2", "gi|12345", "IPI00000001", "P1234", "p12345", "P12345-0", "P12345-256", "P12345-02",
+            "UPI00001b45d5", "ENSP0000035862", "ENSP00000358622.0", "ENSABCDP00000000001", "ENST00000358622", ""
+    };
+
+    @Test
+    public void testWellFormedAccessionsRoundTrip() {
+        for (String accession : WELL_FORMED_ACCESSIONS) {
+            long code = AccessionCodec.encodeWellFormed(accession);
+            assertTrue(accession, AccessionCodec.isWellFormed(code));
+            assertEquals(accession, AccessionCodec.decodeWellFormed(code));
+        }
+        assertFalse(AccessionCodec.encodeWellFormed("P12345") == AccessionCodec.encodeWellFormed("P12345-1"));
+        assertFalse(AccessionCodec.encodeWellFormed("ENSP00000358622") == AccessionCodec.encodeWellFormed("ENSP00000358622.1"));
+    }
+
+    @Test
+    public void testIrregularAccessionsUseTheDictionary() {
+        AccessionCodec codec = new AccessionCodec();
+        for (String accession : IRREGULAR_ACCESSIONS) {
+            assertEquals(accession, AccessionCodec.NO_CODE, AccessionCodec.encodeWellFormed(accession));
+            assertEquals(AccessionCodec.NO_CODE, codec.find(accession));
+            long code = codec.encode(accession);
+            assertFalse(AccessionCodec.isWellFormed(code));
+            assertEquals(code, codec.encode(accession));
+            assertEquals(code, codec.find(accession));
+            assertEquals(accession, codec.decode(code));
+        }
+        assertEquals(IRREGULAR_ACCESSIONS.length, codec.getDictionarySize());
+
+        // well-formed accessions do not take dictionary space
+        assertEquals("P12345", codec.decode(codec.encode("P12345")));
+        assertEquals(IRREGULAR_ACCESSIONS.length, codec.getDictionarySize());
+    }
+
+    @Test
+    public void testPrimitiveMap() {
+        AccessionCodec codec = new AccessionCodec();
+        LongObjectHashMap<String> map = new LongObjectHashMap<String>();
+        for (int i = 0; i < 10000; i++) {
+            long code = codec.encode("A0A" + String.format("%07d", i));
+            assertNull(map.put(code, "mapping" + i));
+        }
+        assertEquals(10000, map.size());
+        assertEquals(10000, map.keys().length);
+        assertEquals("mapping42", map.get(codec.encode("A0A0000042")));
+        assertEquals("mapping42", map.put(codec.encode("A0A0000042"), "other"));
+        assertEquals("other", map.get(codec.encode("A0A0000042")));
+        assertNull(map.get(codec.encode("A0A0010042")));
+    }
+
+}
@@ -0,0 +1,98 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @version $Id$
+ */
+public class AccessionCorrectionCacheTest {
+
+    /**
+     * Strips a 'db|' prefix, counting the calls
+     */
+    private static class CountingResolver implements AccessionCorrectionCache.Resolver {
+        private final AtomicInteger numCalls = new AtomicInteger();
+
+        @Override
+        public String resolve(String accession, String database) throws Exception {
+            numCalls.incrementAndGet();
+            if (accession.startsWith("fail")) {
+                throw new Exception("cannot resolve " + accession);
+            }
+            int separator = accession.indexOf('|');
+            return (separator >= 0) ? accession.substring(separator + 1) : null;
+        }
+    }
+
+    @Test
+    public void testCanonicalUniprotAccessions() {
+        assertTrue(AccessionCorrectionCache.isCanonicalUniprotAccession("P12345"));
+        assertTrue(AccessionCorrectionCache.isCanonicalUniprotAccession("Q9Y6K9"));
+        assertTrue(AccessionCorrectionCache.isCanonicalUniprotAccession("A2BC19"));
+        assertTrue(AccessionCorrectionCache.isCanonicalUniprotAccession("A0A0B4J2F0"));
+
+        assertFalse(AccessionCorrectionCache.isCanonicalUniprotAccession("P12345-2"));
+        assertFalse(AccessionCorrectionCache.isCanonicalUniprotAccession("sp|P12345"));
+        assertFalse(AccessionCorrectionCache.isCanonicalUniprotAccession("P0A0B4J2F0"));
+        assertFalse(AccessionCorrectionCache.isCanonicalUniprotAccession("A12345"));
+        assertFalse(AccessionCorrectionCache.isCanonicalUniprotAccession("ENSP00000358622"));
+        assertFalse(AccessionCorrectionCache.isCanonicalUniprotAccession("p12345"));
+        assertFalse(AccessionCorrectionCache.isCanonicalUniprotAccession(null));
+    }
+
+    @Test
+    public void testCorrectionsAreRemembered() {
+        AccessionCorrectionCache cache = new AccessionCorrectionCache(100);
+        CountingResolver resolver = new CountingResolver();
+
+        assertEquals("P12345", cache.getCorrectedAccession("P12345", "UniProtKB", resolver));
+        assertEquals(0, resolver.numCalls.get());
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("Q12345", cache.getCorrectedAccession("sp|Q12345", "UniProtKB", resolver));
+            assertEquals("NP_000001", cache.getCorrectedAccession("NP_000001", null, resolver));
+        }
+        assertEquals(2, resolver.numCalls.get());
+        assertEquals(4, cache.getNumHits());
+
+        // failures are not remembered
+        assertEquals("fail|1", cache.getCorrectedAccession("fail|1", null, resolver));
+        assertEquals("fail|1", cache.getCorrectedAccession("fail|1", null, resolver));
+        assertEquals(4, resolver.numCalls.get());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testBoundedAndPersisted() throws Exception {
+        AccessionCorrectionCache cache = new AccessionCorrectionCache(2);
+        CountingResolver resolver = new CountingResolver();
+        cache.getCorrectedAccession("db|A", "db", resolver);
+        cache.getCorrectedAccession("db|B", "db", resolver);
+        cache.getCorrectedAccession("db|A", "db", resolver);
+        cache.getCorrectedAccession("db|C", null, resolver);
+        // B was the least recently used
+        assertEquals(2, cache.size());
+
+        File file = File.createTempFile("accession-corrections", ".tsv");
+        try {
+            cache.save(file);
+            AccessionCorrectionCache loaded = new AccessionCorrectionCache(10);
+            loaded.load(file);
+            assertEquals(2, loaded.size());
+
+            CountingResolver newResolver = new CountingResolver();
+            assertEquals("A", loaded.getCorrectedAccession("db|A", "db", newResolver));
+            assertEquals("C", loaded.getCorrectedAccession("db|C", null, newResolver));
+            assertEquals("B", loaded.getCorrectedAccession("db|B", "db", newResolver));
+            assertEquals(1, newResolver.numCalls.get());
+        } finally {
+            file.delete();
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * @version $Id$
+ */
+public class AdaptiveBatcherTest {
+
+    private static List<Integer> items(int numItems) {
+        List<Integer> res = new ArrayList<Integer>();
+        for (int i = 0; i < numItems; i++) {
+            res.add(i);
+        }
+        return res;
+    }
+
+    @Test
+    public void testBatchSizeGrowsOnFastBatches() throws Exception {
+        AdaptiveBatcher batcher = new AdaptiveBatcher("test", 10, 5, 20, 10000);
+        final List<Integer> processed = new ArrayList<Integer>();
+
+        List<Integer> failed = batcher.processAll(items(100), new AdaptiveBatcher.BatchProcessor<Integer>() {
+            @Override
+            public boolean process(List<Integer> batch) throws Exception {
+                processed.addAll(batch);
+                return true;
+            }
+        });
+
+        assertTrue(failed.isEmpty());
+        assertEquals(items(100), processed);
+        assertTrue(batcher.getBatchSize() > 10);
+        assertTrue(batcher.getBatchSize() <= 20);
+    }
+
+    @Test
+    public void testRejectedBatchesAreSplit() throws Exception {
+        AdaptiveBatcher batcher = new AdaptiveBatcher("test", 16, 1, 16, 10000);
+        final List<Integer> processed = new ArrayList<Integer>();
+
+        // item 7 makes the service reject any batch containing it
+        List<Integer> failed = batcher.processAll(items(16), new AdaptiveBatcher.BatchProcessor<Integer>() {
+            @Override
+            public boolean process(List<Integer> batch) throws Exception {
+                if (batch.contains(7)) {
+                    return false;
+                }
+                processed.addAll(batch);
+                return true;
+            }
+        });
+
+        assertEquals(1, failed.size());
+        assertEquals(Integer.valueOf(7), failed.get(0));
+        assertEquals(15, processed.size());
+        assertFalse(processed.contains(7));
+        assertTrue(batcher.getNumSplits() > 0);
+        assertEquals(1, batcher.getNumFailedItems());
+    }
+
+    @Test
+    public void testServiceFailuresAreNotSplit() throws Exception {
+        AdaptiveBatcher batcher = new AdaptiveBatcher("test", 16, 1, 16, 10000);
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test");
+        circuitBreaker.setFailureThreshold(2);
+        circuitBreaker.setInitialBackoffMillis(10);
+        circuitBreaker.setMaxBackoffMillis(20);
+        batcher.setCircuitBreaker(circuitBreaker);
+        batcher.setMaxServiceRetries(2);
+        final List<Integer> batchSizes = new ArrayList<Integer>();
+
+        // the service is down
+        List<Integer> failed = batcher.processAll(items(16), new AdaptiveBatcher.BatchProcessor<Integer>() {
+            @Override
+            public boolean process(List<Integer> batch) throws Exception {
+                batchSizes.add(batch.size());
+                throw new Exception("service unavailable");
+            }
+        });
+
+        assertEquals(items(16), failed);
+        // the whole batch, tried once and retried twice
+        assertEquals(3, batchSizes.size());
+        for (Integer batchSize : batchSizes) {
+            assertEquals(Integer.valueOf(16), batchSize);
+        }
+        assertEquals(0, batcher.getNumSplits());
+        assertTrue(circuitBreaker.getNumOpenings() > 0);
+    }
+
+    @Test
+    public void testConcurrentProcessing() throws Exception {
+        AdaptiveBatcher batcher = new AdaptiveBatcher("test", 10, 1, 50, 10000);
+        final List<Integer> processed = new ArrayList<Integer>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Integer> failed = batcher.processAll(items(1000), new AdaptiveBatcher.BatchProcessor<Integer>() {
+                @Override
+                public boolean process(List<Integer> batch) throws Exception {
+                    synchronized (processed) {
+                        processed.addAll(batch);
+                    }
+                    return true;
+                }
+            }, executor, 4);
+
+            assertTrue(failed.isEmpty());
+            assertEquals(1000, processed.size());
+            assertEquals(1000, new HashSet<Integer>(processed).size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,89 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @version $Id$
+ */
+public class CircuitBreakerTest {
+
+    private long now;
+    private CircuitBreaker circuitBreaker;
+
+    @Before
+    public void setUp() {
+        now = 1000000;
+        circuitBreaker = new CircuitBreaker("test") {
+            @Override
+            protected long currentTimeMillis() {
+                return now;
+            }
+        };
+        circuitBreaker.setFailureThreshold(2);
+        circuitBreaker.setInitialBackoffMillis(1000);
+        circuitBreaker.setMaxBackoffMillis(4000);
+        circuitBreaker.setSlowCallMillis(500);
+    }
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        assertFalse(circuitBreaker.allowRequest());
+        assertEquals(1, circuitBreaker.getNumRejected());
+        long wait = circuitBreaker.getMillisUntilRetry();
+        assertTrue(wait >= 500 && wait <= 1000);
+    }
+
+    @Test
+    public void testHalfOpenLetsOneProbeThrough() {
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        now = now + 1000;
+
+        assertTrue(circuitBreaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowRequest());
+
+        circuitBreaker.recordSuccess(10);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(0, circuitBreaker.getConsecutiveFailures());
+        assertTrue(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void testBackoffGrowsUntilMax() {
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        for (int i = 0; i < 5; i++) {
+            now = now + 10000;
+            assertTrue(circuitBreaker.allowRequest());
+            circuitBreaker.recordFailure();
+        }
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(6, circuitBreaker.getNumOpenings());
+        long wait = circuitBreaker.getMillisUntilRetry();
+        assertTrue(wait >= 2000 && wait <= 4000);
+    }
+
+    @Test
+    public void testSlowCallsAndHealthCheck() {
+        assertTrue(circuitBreaker.isHealthCheckDue());
+        circuitBreaker.recordSuccess(800);
+        circuitBreaker.recordSuccess(100);
+
+        assertEquals(2, circuitBreaker.getNumSuccesses());
+        assertEquals(1, circuitBreaker.getNumSlowCalls());
+        assertFalse(circuitBreaker.isHealthCheckDue());
+    }
+
+}
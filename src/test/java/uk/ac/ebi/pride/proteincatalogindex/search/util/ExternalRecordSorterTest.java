@@ -0,0 +1,96 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * @version $Id$
+ */
+public class ExternalRecordSorterTest {
+
+    private static final int RECORD_LENGTH = 4;
+    private static final byte[] HEADER = new byte[]{'H', 'D'};
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("record-sorter", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testSingleMerge() throws Exception {
+        sortAndCheck(3, 64, 100);
+    }
+
+    @Test
+    public void testMorePassesThanFanIn() throws Exception {
+        // 334 runs merged 4 at a time
+        sortAndCheck(3, 4, 1000);
+    }
+
+    @Test
+    public void testNoRecords() throws Exception {
+        sortAndCheck(3, 4, 0);
+    }
+
+    private void sortAndCheck(int maxRecordsInMemory, int maxMergeFanIn, int numRecords) throws IOException {
+        File runsDirectory = new File(directory, "runs");
+        runsDirectory.mkdirs();
+        ExternalRecordSorter sorter = new ExternalRecordSorter(runsDirectory, "test", RECORD_LENGTH, maxRecordsInMemory, maxMergeFanIn);
+        // records compared as unsigned bytes, i.e. as unsigned ints
+        TreeSet<Long> expected = new TreeSet<Long>();
+        Random random = new Random(42);
+        for (int i = 0; i < numRecords; i++) {
+            // a small range, so there are duplicates, with both signs of the first byte
+            int value = (random.nextInt(400) - 200) << 20;
+            expected.add(value & 0xffffffffL);
+            sorter.add(ByteBuffer.allocate(RECORD_LENGTH).putInt(value).array());
+        }
+        assertEquals(numRecords / maxRecordsInMemory, sorter.getNumRuns());
+
+        File output = new File(directory, "sorted");
+        assertEquals(expected.size(), sorter.finish(output, HEADER));
+
+        assertEquals(HEADER.length + expected.size() * RECORD_LENGTH, output.length());
+        DataInputStream inputStream = new DataInputStream(new FileInputStream(output));
+        try {
+            byte[] header = new byte[HEADER.length];
+            inputStream.readFully(header);
+            assertArrayEquals(HEADER, header);
+            for (long value : expected) {
+                assertEquals(value, inputStream.readInt() & 0xffffffffL);
+            }
+        } finally {
+            inputStream.close();
+        }
+        // the runs, intermediate ones included, are deleted
+        assertEquals(0, runsDirectory.list().length);
+        runsDirectory.delete();
+    }
+
+}
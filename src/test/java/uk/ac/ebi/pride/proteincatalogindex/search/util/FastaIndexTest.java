@@ -0,0 +1,118 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @version $Id$
+ */
+public class FastaIndexTest {
+
+    private static final String UNIPROT_FASTA =
+            ">sp|P12345|AATM_RABIT Aspartate aminotransferase, mitochondrial OS=Oryctolagus cuniculus OX=9986 GN=GOT2 PE=1 SV=2\n" +
+            "MALLHSARVLSGVASAFHPGLAAAASARASSWWAHVEMGPPDPILGVTEAYKRDTNSKKM\n" +
+            "NLGVGAYRDDNGKPYVLPSVRKAEAQIAAKGLDKEYLPIGGLAEFCRASAELALGENSEV\n" +
+            ">tr|A0A0B4J2F0|A0A0B4J2F0_HUMAN Protein PIGBOS1 OS=Homo sapiens OX=9606 GN=PIGBOS1 PE=1 SV=1\r\n" +
+            "MFRRLTFAQLLFATVLGIAGGVYIFQPVFEQYAKDQKELKEKMQLVQESEEKKS\r\n" +
+            ">sp|P12345-2|AATM_RABIT Isoform 2 of Aspartate aminotransferase, mitochondrial OS=Oryctolagus cuniculus OX=9986\n" +
+            "MALLHSAR\n";
+
+    private static final String SUBMISSION_FASTA =
+            ">P12345 other entry of the same accession\n" +
+            "PEPTIDE\n" +
+            ">CONTAMINANT_1\n" +
+            "KRAS\n";
+
+    @Test
+    public void testHeaders() {
+        assertEquals(Arrays.asList("sp|P12345|AATM_RABIT", "P12345"), FastaIndex.parseAccessions("sp|P12345|AATM_RABIT Name OS=Species"));
+        assertEquals(Arrays.asList("NP_000001.1"), FastaIndex.parseAccessions("NP_000001.1 some protein [Homo sapiens]"));
+        assertEquals("Aspartate aminotransferase, mitochondrial",
+                FastaIndex.parseName("sp|P12345|AATM_RABIT Aspartate aminotransferase, mitochondrial OS=Oryctolagus cuniculus OX=9986"));
+        assertEquals("some protein OS=kept [Homo sapiens]", FastaIndex.parseName("NP_000001.1 some protein OS=kept [Homo sapiens]"));
+        assertNull(FastaIndex.parseName("CONTAMINANT_1"));
+    }
+
+    @Test
+    public void testLookups() throws Exception {
+        File directory = createTempDirectory();
+        File uniprotFasta = write(new File(directory, "uniprot.fasta"), UNIPROT_FASTA);
+        File submissionFasta = write(new File(directory, "submission.fasta"), SUBMISSION_FASTA);
+        File indexDirectory = new File(directory, "indexes");
+        try {
+            File uniprotIndexFile = FastaIndex.getIndexFile(uniprotFasta, indexDirectory);
+            assertFalse(FastaIndex.isUpToDate(uniprotFasta, uniprotIndexFile));
+            // sorted in several runs
+            assertEquals(6, FastaIndex.build(uniprotFasta, uniprotIndexFile, 2));
+            assertTrue(FastaIndex.isUpToDate(uniprotFasta, uniprotIndexFile));
+            FastaIndex.build(submissionFasta, FastaIndex.getIndexFile(submissionFasta, indexDirectory), 100);
+
+            FastaIndex uniprotIndex = FastaIndex.open(uniprotFasta, uniprotIndexFile);
+            ProteinDetails details = uniprotIndex.get("P12345");
+            assertEquals("MALLHSARVLSGVASAFHPGLAAAASARASSWWAHVEMGPPDPILGVTEAYKRDTNSKKMNLGVGAYRDDNGKPYVLPSVRKAEAQIAAKGLDKEYLPIGGLAEFCRASAELALGENSEV",
+                    details.getSequence());
+            assertEquals("Aspartate aminotransferase, mitochondrial", details.getName());
+            assertEquals(details.getSequence(), uniprotIndex.get("sp|P12345|AATM_RABIT").getSequence());
+            assertEquals("MFRRLTFAQLLFATVLGIAGGVYIFQPVFEQYAKDQKELKEKMQLVQESEEKKS", uniprotIndex.get("A0A0B4J2F0").getSequence());
+            assertEquals("Protein PIGBOS1", uniprotIndex.get("A0A0B4J2F0").getName());
+            assertEquals("MALLHSAR", uniprotIndex.get("P12345-2").getSequence());
+            assertNull(uniprotIndex.get("P1234"));
+            assertNull(uniprotIndex.get("Q99999"));
+            uniprotIndex.close();
+
+            FastaProteinDetailsProvider provider = FastaProteinDetailsProvider.open(
+                    Arrays.asList(uniprotFasta, submissionFasta, new File(directory, "missing.fasta")), indexDirectory);
+            Map<String, ProteinDetails> res = provider.getProteinDetails(Arrays.asList("P12345", "CONTAMINANT_1", "Q99999"));
+            assertEquals(2, res.size());
+            // the first file wins
+            assertEquals("Aspartate aminotransferase, mitochondrial", res.get("P12345").getName());
+            assertEquals("KRAS", res.get("CONTAMINANT_1").getSequence());
+            assertNull(res.get("CONTAMINANT_1").getName());
+            assertEquals(2, provider.getNumFound());
+            assertEquals(1, provider.getNumMissing());
+            provider.close();
+
+            // an index of a changed file is not used
+            write(submissionFasta, SUBMISSION_FASTA + ">NEW\nK\n");
+            assertFalse(FastaIndex.isUpToDate(submissionFasta, FastaIndex.getIndexFile(submissionFasta, indexDirectory)));
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static File createTempDirectory() throws IOException {
+        File directory = File.createTempFile("fasta-index", "");
+        directory.delete();
+        directory.mkdirs();
+        return directory;
+    }
+
+    private static File write(File file, String content) throws IOException {
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(content.getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+}
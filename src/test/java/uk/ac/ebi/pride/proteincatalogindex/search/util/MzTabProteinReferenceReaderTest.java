@@ -0,0 +1,93 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @version $Id$
+ */
+public class MzTabProteinReferenceReaderTest {
+
+    private static final int NUM_PROTEINS_ASSAY = 342;
+    private static final String FIRST_PROTEIN_ACCESSION = "A5A5Z5";
+    private static final String FIRST_PROTEIN_DATABASE = "phytophtora_infestans_rnd";
+    private static final String FIRST_PROTEIN_DATABASE_VERSION = "20100422.fasta";
+
+    @Test
+    public void testReadProteinReferences() throws Exception {
+        List<MzTabProteinReference> proteinReferences =
+                MzTabProteinReferenceReader.read(new File("src/test/resources/submissions/PXD000433/internal/PRIDE_Exp_Complete_Ac_30824.mztab"));
+
+        assertEquals(NUM_PROTEINS_ASSAY, proteinReferences.size());
+        assertEquals(FIRST_PROTEIN_ACCESSION, proteinReferences.get(0).getAccession());
+        assertEquals(FIRST_PROTEIN_DATABASE, proteinReferences.get(0).getDatabase());
+        assertEquals(FIRST_PROTEIN_DATABASE_VERSION, proteinReferences.get(0).getDatabaseVersion());
+    }
+
+    @Test
+    public void testReadCompressedProteinReferences() throws Exception {
+        File mzTabFile = new File("src/test/resources/submissions/PXD000433/internal/PRIDE_Exp_Complete_Ac_30824.mztab");
+        File compressedMzTabFile = File.createTempFile("PRIDE_Exp_Complete_Ac_30824", ".pride.mztab.gz");
+        compressedMzTabFile.deleteOnExit();
+        InputStream inputStream = new FileInputStream(mzTabFile);
+        OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(compressedMzTabFile));
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+        } finally {
+            inputStream.close();
+            outputStream.close();
+        }
+
+        List<MzTabProteinReference> proteinReferences = MzTabProteinReferenceReader.read(compressedMzTabFile);
+
+        assertEquals(NUM_PROTEINS_ASSAY, proteinReferences.size());
+        assertEquals(FIRST_PROTEIN_ACCESSION, proteinReferences.get(0).getAccession());
+    }
+
+    @Test
+    public void testColumnsAreFoundByName() throws Exception {
+        String mzTab =
+                "MTD\tmzTab-version\t1.0\n" +
+                "PRH\tdatabase\tdescription\taccession\n" +
+                "PRT\tuniprot\tsome protein\tP12345\n" +
+                "PRT\tnull\tnull\tQ12345\n" +
+                "PSH\tsequence\taccession\n" +
+                "PRT\tshould\tnot\tbe read\n";
+
+        final List<MzTabProteinReference> proteinReferences = new LinkedList<MzTabProteinReference>();
+        MzTabProteinReferenceReader.read(new ByteArrayInputStream(mzTab.getBytes("UTF-8")), new MzTabProteinReferenceReader.Handler() {
+            @Override
+            public void handle(MzTabProteinReference proteinReference) {
+                proteinReferences.add(proteinReference);
+            }
+        });
+
+        assertEquals(2, proteinReferences.size());
+        assertEquals("P12345", proteinReferences.get(0).getAccession());
+        assertEquals("uniprot", proteinReferences.get(0).getDatabase());
+        assertNull(proteinReferences.get(0).getDatabaseVersion());
+        assertEquals("Q12345", proteinReferences.get(1).getAccession());
+        assertNull(proteinReferences.get(1).getDatabase());
+    }
+
+    @Test(expected = IOException.class)
+    public void testProteinRowWithoutHeader() throws Exception {
+        String mzTab = "PRT\tP12345\tuniprot\n";
+        MzTabProteinReferenceReader.read(new ByteArrayInputStream(mzTab.getBytes("UTF-8")), new MzTabProteinReferenceReader.Handler() {
+            @Override
+            public void handle(MzTabProteinReference proteinReference) {
+            }
+        });
+    }
+
+}
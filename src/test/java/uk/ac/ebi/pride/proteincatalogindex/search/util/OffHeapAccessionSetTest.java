@@ -0,0 +1,76 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @version $Id$
+ */
+public class OffHeapAccessionSetTest {
+
+    private static final long ONE_MB = 1024L * 1024L;
+
+    @Test
+    public void testAddAndContains() {
+        OffHeapAccessionSet accessions = new OffHeapAccessionSet(10, ONE_MB);
+
+        assertTrue(accessions.add("D0NNB3"));
+        assertFalse(accessions.add("D0NNB3"));
+        assertTrue(accessions.add("ENSP00000354587"));
+
+        assertTrue(accessions.contains("D0NNB3"));
+        assertTrue(accessions.contains("ENSP00000354587"));
+        assertFalse(accessions.contains("P12345"));
+        assertEquals(2, accessions.size());
+    }
+
+    @Test
+    public void testGrowsUntilMemoryLimit() {
+        OffHeapAccessionSet accessions = new OffHeapAccessionSet(10, 4 * ONE_MB);
+
+        int numAccessions = 300000;
+        for (int i = 0; i < numAccessions; i++) {
+            accessions.add("ACC" + i);
+        }
+
+        assertFalse(accessions.isSaturated());
+        assertEquals(numAccessions, accessions.size());
+        assertTrue(accessions.getAllocatedBytes() <= 4 * ONE_MB);
+        for (int i = 0; i < numAccessions; i++) {
+            assertTrue(accessions.contains("ACC" + i));
+        }
+    }
+
+    @Test
+    public void testSaturatesAtMemoryLimit() {
+        OffHeapAccessionSet accessions = new OffHeapAccessionSet(10, ONE_MB);
+
+        int numAccessions = 200000;
+        for (int i = 0; i < numAccessions; i++) {
+            accessions.add("ACC" + i);
+        }
+
+        assertTrue(accessions.isSaturated());
+        assertTrue(accessions.size() < numAccessions);
+        assertEquals(ONE_MB, accessions.getAllocatedBytes());
+    }
+
+    @Test
+    public void testSmallMemoryLimit() {
+        OffHeapAccessionSet accessions = new OffHeapAccessionSet(1000000, 1024);
+
+        assertTrue(accessions.getAllocatedBytes() <= 1024);
+        for (int i = 0; i < 1000; i++) {
+            accessions.add("ACC" + i);
+        }
+        assertTrue(accessions.isSaturated());
+        assertEquals(1024, accessions.getAllocatedBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooSmallMemoryLimit() {
+        new OffHeapAccessionSet(10, 64);
+    }
+
+}
@@ -0,0 +1,119 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @version $Id$
+ */
+public class PipelineStageTest {
+
+    private static final int NUM_ITEMS = 1000;
+
+    @Test
+    public void testItemsGoThroughAllStages() throws Exception {
+        final List<Integer> results = Collections.synchronizedList(new LinkedList<Integer>());
+
+        PipelineStage<Integer, Integer> doubleStage = new PipelineStage<Integer, Integer>("double", 3, 2, new PipelineStage.Processor<Integer, Integer>() {
+            @Override
+            public Integer process(Integer item) {
+                return item * 2;
+            }
+        });
+        PipelineStage<Integer, Integer> collectStage = new PipelineStage<Integer, Integer>("collect", 1, 2, new PipelineStage.Processor<Integer, Integer>() {
+            @Override
+            public Integer process(Integer item) throws Exception {
+                // slower than the stage before, which has to wait
+                Thread.sleep(1);
+                results.add(item);
+                return null;
+            }
+        });
+        doubleStage.setNextStage(collectStage);
+
+        doubleStage.start();
+        collectStage.start();
+        for (int i = 0; i < NUM_ITEMS; i++) {
+            doubleStage.put(i);
+            assertTrue(doubleStage.getQueueSize() <= 2);
+            assertTrue(collectStage.getQueueSize() <= 2);
+        }
+        doubleStage.close();
+        doubleStage.awaitTermination();
+        collectStage.awaitTermination();
+
+        assertEquals(NUM_ITEMS, doubleStage.getNumProcessed());
+        assertEquals(NUM_ITEMS, collectStage.getNumProcessed());
+        assertEquals(NUM_ITEMS, results.size());
+        long sum = 0;
+        for (Integer result : results) {
+            sum = sum + result;
+        }
+        assertEquals((long) NUM_ITEMS * (NUM_ITEMS - 1), sum);
+    }
+
+    @Test
+    public void testFailedItemsDoNotStopTheStage() throws Exception {
+        PipelineStage<Integer, Integer> stage = new PipelineStage<Integer, Integer>("fail-odd", 2, 4, new PipelineStage.Processor<Integer, Integer>() {
+            @Override
+            public Integer process(Integer item) {
+                if (item % 2 == 1) {
+                    throw new IllegalArgumentException("odd item " + item);
+                }
+                return item;
+            }
+        });
+
+        stage.start();
+        for (int i = 0; i < 10; i++) {
+            stage.put(i);
+        }
+        stage.close();
+        stage.awaitTermination();
+
+        assertEquals(5, stage.getNumProcessed());
+        assertEquals(5, stage.getNumFailed());
+    }
+
+    @Test
+    public void testAbortStopsTheStages() throws Exception {
+        final IllegalStateException error = new IllegalStateException("cannot save");
+        final PipelineStage<Integer, Integer> writeStage = new PipelineStage<Integer, Integer>("write", 1, 1, new PipelineStage.Processor<Integer, Integer>() {
+            @Override
+            public Integer process(Integer item) {
+                throw error;
+            }
+        });
+        PipelineStage<Integer, Integer> readStage = new PipelineStage<Integer, Integer>("read", 2, 2, new PipelineStage.Processor<Integer, Integer>() {
+            @Override
+            public Integer process(Integer item) {
+                return item;
+            }
+        });
+        readStage.setNextStage(writeStage);
+
+        readStage.start();
+        writeStage.start();
+        readStage.put(0);
+        // whatever is still queued is dropped and the threads finish
+        writeStage.abort(error);
+        readStage.abort(error);
+        readStage.awaitTermination();
+        writeStage.awaitTermination();
+
+        assertTrue(readStage.isAborted());
+        assertSame(error, writeStage.getAbortCause());
+        try {
+            readStage.put(1);
+            fail("An aborted stage must not take more items");
+        } catch (IllegalStateException e) {
+            assertSame(error, e.getCause());
+        }
+    }
+
+}
@@ -0,0 +1,36 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @version $Id$
+ */
+public class ProteinSequenceHashTest {
+
+    @Test
+    public void testHash() {
+        String hash = ProteinSequenceHash.hash("MALLHSARVLSGVASAFHPGLAAAASARASSWWAHVEMGPPDPILGVTEAYKRDTNSKKM");
+        assertEquals(ProteinSequenceHash.HASH_LENGTH, hash.length());
+        assertTrue(hash.matches("[0-9a-f]+"));
+        // the MD5 of the normalised sequence
+        assertEquals("00a828004b9b4defe94678d7b96b49c4", ProteinSequenceHash.hash("PEPTIDE"));
+
+        // whitespace and case do not change the hash
+        assertEquals(hash, ProteinSequenceHash.hash("MALLHSARVLSGVASAFHPGLAAAASARASS\nwwahvemgppdpilgvteaykrdtnskkm "));
+        assertFalse(hash.equals(ProteinSequenceHash.hash("MALLHSARVLSGVASAFHPGLAAAASARASS")));
+
+        assertNull(ProteinSequenceHash.hash(null));
+        assertNull(ProteinSequenceHash.hash(" \n"));
+    }
+
+    @Test
+    public void testSameSequence() {
+        assertTrue(ProteinSequenceHash.sameSequence("PEPTIDE", "pep tide"));
+        assertFalse(ProteinSequenceHash.sameSequence("PEPTIDE", "PEPTIDES"));
+        assertFalse(ProteinSequenceHash.sameSequence(null, null));
+        assertFalse(ProteinSequenceHash.sameSequence("PEPTIDE", null));
+    }
+
+}
@@ -0,0 +1,39 @@
+package uk.ac.ebi.pride.proteincatalogindex.search.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @version $Id$
+ */
+public class RateLimiterTest {
+
+    @Test
+    public void testBurstIsNotThrottled() throws Exception {
+        RateLimiter rateLimiter = new RateLimiter(1.0, 3);
+
+        for (int i = 0; i < 3; i++) {
+            rateLimiter.acquire();
+        }
+
+        assertEquals(3, rateLimiter.getNumAcquired());
+        assertEquals(0, rateLimiter.getNumThrottled());
+    }
+
+    @Test
+    public void testThrottlesOverTheRate() throws Exception {
+        RateLimiter rateLimiter = new RateLimiter(20.0, 1);
+
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            rateLimiter.acquire();
+        }
+        long elapsedMillis = System.currentTimeMillis() - startTime;
+
+        // 1 token straight away, 4 more at 20 per second
+        assertTrue(elapsedMillis >= 150);
+        assertEquals(4, rateLimiter.getNumThrottled());
+    }
+
+}